@@ -4,6 +4,10 @@ import java.io.*;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,10 +45,14 @@ public class Helper {
     protected Element currentMeasure = null;
     protected Element currentChord = null;
     protected ArrayList<Element> accid = new ArrayList<>();             // holds accidentals that appear within measures to be considered during pitch computation
-    protected ArrayList<Element> endids = new ArrayList<>();            // msm and mpm elements that will be terminated at the time position of an mei element with a specified endid
+    protected HashMap<String, ArrayList<Element>> endids = new HashMap<>(); // msm and mpm elements that will be terminated at the time position of an mei element with a specified endid, indexed by the endid
     protected ArrayList<Element> tstamp2s = new ArrayList<>();          // mpm elements that will be terminated at a position in another measure indicated by attribute tstamp2
     protected ArrayList<Element> lyrics = new ArrayList<>();            // this is used to collect lyrics converted from mei syl elements to be added to an msm note
     protected HashMap<String, Element> allNotesAndChords = new HashMap<>(); // when converting a new mdiv this hashmap is created first to accelarate lookup for notes and chords via xml:id
+    protected HashMap<Element, HashMap<String, ArrayList<Element>>> openTies = new HashMap<>();  // msm notes that are tied to a successor, per msm part and indexed by pitch and end date, so tie resolution does not have to search the score
+    protected ArrayList<Element> globalSlurs = new ArrayList<>();       // the slurs in the global miscMap that may still apply to upcoming notes, in the order of the miscMap
+    protected HashMap<Element, ArrayList<Element>> localSlurs = new HashMap<>();    // the same for the slurs in the local miscMaps, per msm part
+    protected HashMap<Element, Timeline> timelines = new HashMap<>();   // the typed timeline state of each msm part and of the global environment (key is the msm global element), this spares us parsing and writing attribute strings for every note
     protected Performance currentPerformance = null;                    // a quick link to the current movement's current performance
     protected List<Msm> movements = new ArrayList<>();                  // this list holds the resulting Msm objects after performing MEI-to-MSM conversion
     protected List<Mpm> performances = new ArrayList<>();               // this list holds the resulting Mpm objects after performing MEI-to-MSM conversion
@@ -81,6 +89,109 @@ public class Helper {
         this.tstamp2s.clear();
         this.lyrics.clear();
         this.allNotesAndChords.clear();
+        this.openTies.clear();
+        this.globalSlurs.clear();
+        this.localSlurs.clear();
+        this.timelines.clear();
+    }
+
+    /**
+     * the timeline state of an msm part or the global environment during mei to msm conversion;
+     * currentDate is written to the parts only when the movement is finished (see writeCurrentDates())
+     */
+    protected static class Timeline {
+        protected double currentDate = 0.0;                                         // the date of processing (only used for parts)
+        protected Element timeSignature = null;                                     // the timeSignature element that numerator and denominator have been read from
+        protected double numerator = 4.0;
+        protected double denominator = 4.0;
+        protected ArrayList<Element> octDefaults = new ArrayList<>();              // the oct.default elements in the miscMap, in the order of the miscMap
+        protected ArrayList<Element> transpositions = new ArrayList<>();           // the transposition elements in the miscMap, in the order of the miscMap
+        protected ArrayList<Element> addTranspositions = new ArrayList<>();        // the addTransposition elements in the miscMap, in the order of the miscMap
+    }
+
+    /**
+     * get the timeline state of an msm part or the global environment
+     * @param part the msm part or null for the global environment
+     * @return
+     */
+    protected Timeline getTimeline(Element part) {
+        Element key = (part == null) ? this.currentMsmMovement.getFirstChildElement("global") : part;
+        return this.timelines.computeIfAbsent(key, k -> new Timeline());
+    }
+
+    /**
+     * set the date of processing in an msm part
+     * @param part
+     * @param date
+     */
+    protected void setCurrentDate(Element part, double date) {
+        this.getTimeline(part).currentDate = date;
+    }
+
+    /**
+     * get the date of processing in an msm part
+     * @param part
+     * @return
+     */
+    protected double getCurrentDate(Element part) {
+        return this.getTimeline(part).currentDate;
+    }
+
+    /**
+     * write the currentDate attributes to the parts of the current msm movement; this is done when its conversion is finished
+     */
+    protected void writeCurrentDates() {
+        if (this.currentMsmMovement == null)
+            return;
+        for (Element part : this.currentMsmMovement.getChildElements("part"))
+            part.addAttribute(new Attribute("currentDate", Double.toString(this.getCurrentDate(part))));
+    }
+
+    /**
+     * register an oct.default, transposition or addTransposition element that has been inserted into the miscMap of an msm part or the global miscMap
+     * @param e the element, it must have been inserted into the miscMap already
+     * @param part the msm part or null if it is in the global miscMap
+     */
+    protected void addToTimeline(Element e, Element part) {
+        Timeline timeline = this.getTimeline(part);
+        ArrayList<Element> list;
+        switch (e.getLocalName()) {
+            case "oct.default":
+                list = timeline.octDefaults;
+                break;
+            case "transposition":
+                list = timeline.transpositions;
+                break;
+            case "addTransposition":
+                list = timeline.addTranspositions;
+                break;
+            default:
+                return;
+        }
+
+        // keep the order of the miscMap; new entries are usually at the end, so search from there
+        ParentNode map = e.getParent();
+        int index = map.indexOf(e);
+        int i = list.size();
+        while ((i > 0) && (map.indexOf(list.get(i - 1)) > index))
+            --i;
+        list.add(i, e);
+    }
+
+    /**
+     * get the value of the default octave that applies to the given layer, local entries take precedence over global ones
+     * @param layerId
+     * @return the octave string or null if there is no default octave
+     */
+    protected String getDefaultOctave(String layerId) {
+        ArrayList<Element> octs = this.getTimeline(this.currentPart).octDefaults;                                   // get all local default octaves
+        if (octs.isEmpty())                                                                                         // if there is none
+            octs = this.getTimeline(null).octDefaults;                                                              // get all global default octaves
+        for (int i = octs.size() - 1; i >= 0; --i) {                                                                // search from back to front
+            if ((octs.get(i).getAttribute("layer") == null) || octs.get(i).getAttributeValue("layer").equals(layerId))  // for a default octave with no layer dependency or a matching layer
+                return octs.get(i).getAttributeValue("oct");                                                        // take this value
+        }
+        return null;
     }
 
     /**
@@ -97,6 +208,50 @@ public class Helper {
         }
     }
 
+    /**
+     * register an msm note that is tied to its successor, so that the successor finds it via removeOpenTie()
+     * @param note an msm note with attributes midi.pitch, date and duration
+     * @param part the msm part that contains the note
+     */
+    protected void addOpenTie(Element note, Element part) {
+        double endDate = Double.parseDouble(note.getAttributeValue("date")) + Double.parseDouble(note.getAttributeValue("duration"));
+        String key = Helper.getOpenTieKey(note.getAttributeValue("midi.pitch"), endDate);
+        this.openTies.computeIfAbsent(part, k -> new HashMap<>()).computeIfAbsent(key, k -> new ArrayList<>()).add(note);
+    }
+
+    /**
+     * find the msm note that is tied to a note with the given pitch and date and remove it from the open ties
+     * @param pitch the value of the midi.pitch attribute of the tied note
+     * @param date the date of the tied note, i.e. the end date of the note we look for
+     * @param part the msm part
+     * @return the note or null if there is none
+     */
+    protected Element removeOpenTie(String pitch, double date, Element part) {
+        HashMap<String, ArrayList<Element>> ties = this.openTies.get(part);
+        if (ties == null)
+            return null;
+
+        String key = Helper.getOpenTieKey(pitch, date);
+        ArrayList<Element> notes = ties.get(key);
+        if (notes == null)
+            return null;
+
+        Element note = notes.remove(notes.size() - 1);                 // if there are several candidates, take the latest
+        if (notes.isEmpty())
+            ties.remove(key);
+        return note;
+    }
+
+    /**
+     * a helper method for the open ties hashmap
+     * @param pitch
+     * @param endDate
+     * @return
+     */
+    private static String getOpenTieKey(String pitch, double endDate) {
+        return pitch + " " + endDate;
+    }
+
     /**
      * This method validates a file against a schema. If the validation fails it throws an exception.
      * @param file
@@ -119,6 +274,35 @@ public class Helper {
         (new XMLSyntaxSchemaFactory()).newSchema(schema).newValidator().validate(new StreamSource(new StringReader(xml)));  // create a new validator with the schema and validate the file, if this fails, it throws an exception
     }
 
+    /**
+     * wait for the results of concurrent tasks in the order of their submission;
+     * if a task failed, the remaining ones are cancelled and its exception is rethrown, just as in sequential processing
+     * @param futures the tasks
+     * @param executor the executor that runs the tasks, it is shut down afterwards
+     * @param <T>
+     * @return the results
+     */
+    public static <T> ArrayList<T> getResults(List<Future<T>> futures, ExecutorService executor) {
+        ArrayList<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures)
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();                             // restore the interrupt flag for the caller
+            throw new IllegalStateException("Interrupted while waiting for concurrent tasks.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();                                 // rethrow what the task has thrown
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();                                         // cancel the remaining tasks if one failed
+        }
+        return results;
+    }
+
     /**
      * get the first child of an xml element
      * @param ofThis
@@ -180,6 +364,36 @@ public class Helper {
         return es;
     }
 
+    /**
+     * returns all descendant elements of ofThis that satisfy the filter, in document order;
+     * this is a lightweight alternative to an XPath query on small subtrees
+     * @param ofThis
+     * @param filter
+     * @return
+     */
+    public static ArrayList<Element> getAllDescendantElements(Element ofThis, Predicate<Element> filter) {
+        ArrayList<Element> result = new ArrayList<>();
+        Helper.collectDescendantElements(ofThis, filter, result);
+        return result;
+    }
+
+    /**
+     * the recursive traversal for getAllDescendantElements()
+     * @param ofThis
+     * @param filter
+     * @param result
+     */
+    private static void collectDescendantElements(Element ofThis, Predicate<Element> filter, ArrayList<Element> result) {
+        for (int i = 0; i < ofThis.getChildCount(); ++i) {
+            Node child = ofThis.getChild(i);
+            if (!(child instanceof Element))
+                continue;
+            if (filter.test((Element) child))
+                result.add((Element) child);
+            Helper.collectDescendantElements((Element) child, filter, result);
+        }
+    }
+
     /**
      * get the next sibling element of ofThis irrespective of its name
      * @param ofThis
@@ -276,7 +490,8 @@ public class Helper {
 
     /**
      * this method adds element addThis to a timely sequenced list, the map, and ensures the timely order of the elements in the map;
-     * therefore, addThis must contain the attribute "date"; if not, addThis is appended at the end
+     * therefore, addThis must contain the attribute "date"; if not, addThis is appended at the end;
+     * the insertion position is found by binary search over the map's child elements, so the map must be timely sequenced
      * @param addThis an xml element (should have an attribute date)
      * @param map a timely sequenced list of elements with attribute date
      * @return the index of the element in the map or -1 if insertion failed
@@ -290,24 +505,67 @@ public class Helper {
             return map.getChildCount()-1;                                           // and return the index
         }
 
-        Nodes es = map.query("descendant::*[attribute::date]");                     // get all elements in the map that have an attribute date
-        if (es.size() == 0) {                                                       // if there are no elements in the map with a date attribute
-            map.appendChild(addThis);                                               // simply append addThis to the end of the map
-            return map.getChildCount()-1;                                           // and return the index
+        double date = Double.parseDouble(addThis.getAttributeValue("date"));        // get the date of addThis
+        int count = map.getChildCount();
+
+        // the most frequent case: addThis is appended to the end of the map
+        if (count > 0) {
+            Double lastDate = Helper.getDate(map.getChild(count - 1));
+            if ((lastDate != null) && (lastDate <= date)) {
+                map.appendChild(addThis);
+                return count;
+            }
         }
 
-        double date = Double.parseDouble(addThis.getAttributeValue("date"));        // get the date of addThis
-        for (int i = es.size()-1; i >= 0; --i) {                                    // go through the elements
-            if (Double.parseDouble(((Element)es.get(i)).getAttributeValue("date")) <= date) {  // if the element directly before date is found
-                int index = map.indexOf(es.get(i));                                 // get the index of the element just found
-                map.insertChild(addThis, ++index);                                  // insert addThis right after the element
-                return index;                                                       // return the index
+        // binary search for the position after the last element with a date at or before the date of addThis; the map is timely sequenced, children without date are skipped
+        int low = 0;                                                                // all dated children before low have a date at or before date
+        int high = count;                                                           // all dated children from high on have a date after date
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Double d = null;
+            int i = mid;
+            for (; i < high; ++i) {                                                 // find the first dated child at or after mid
+                d = Helper.getDate(map.getChild(i));
+                if (d != null)
+                    break;
+            }
+            if (d == null)                                                          // no dated child in [mid, high)
+                high = mid;
+            else if (d <= date)
+                low = i + 1;
+            else
+                high = i;
+        }
+
+        // insert right after the dated predecessor, not after undated elements that follow it
+        int index = low;
+        while ((index > 0) && (Helper.getDate(map.getChild(index - 1)) == null))
+            --index;
+
+        if (low == 0) {                                                             // either all dated elements are later than addThis or there are none at all
+            int first = 0;
+            while ((first < count) && (Helper.getDate(map.getChild(first)) == null))
+                ++first;
+            if (first == count) {                                                   // if there are no elements in the map with a date attribute
+                map.appendChild(addThis);                                           // simply append addThis to the end of the map
+                return count;                                                       // and return the index
             }
         }
 
-        // if all elements in the map had a date later than addThis's date
-        map.insertChild(addThis, 0);                                                // insert addThis at the front of the map (as first child)
-        return 0;                                                                   // return the index
+        map.insertChild(addThis, index);                                            // insert addThis at the position found (if all elements in the map had a date later than addThis's date, this is the front of the map)
+        return index;                                                               // return the index
+    }
+
+    /**
+     * a helper method for addToMap(), it returns the value of the date attribute of the node
+     * @param node
+     * @return the date or null if node is no element or has no date attribute
+     */
+    private static Double getDate(Node node) {
+        if (!(node instanceof Element))
+            return null;
+        String date = ((Element) node).getAttributeValue("date");
+        return (date == null) ? null : Double.parseDouble(date);
     }
 
     /**
@@ -316,7 +574,7 @@ public class Helper {
      */
     protected double getMidiTime() {
         if (this.currentPart != null)                                                       // if we are within a staff environment
-            return Double.parseDouble(this.currentPart.getAttributeValue("currentDate"));   // we have a more precise date somewhere within a measure
+            return this.getCurrentDate(this.currentPart);                                   // we have a more precise date somewhere within a measure
 
         if (this.currentMeasure != null)                                                    // if we are within a measure
             return Double.parseDouble(this.currentMeasure.getAttributeValue("date"));       // take it
@@ -328,7 +586,7 @@ public class Helper {
         Elements parts = this.currentMsmMovement.getChildElements("part");                  // get the list of all parts
         double latestDate = 0.0;                                                            // here comes the result
         for (int i = parts.size()-1; i >= 0; --i) {                                         // go through that list
-            double date = Double.parseDouble(parts.get(i).getAttributeValue("currentDate"));// get the part's date
+            double date = this.getCurrentDate(parts.get(i));                                // get the part's date
             if (latestDate < date)                                                          // if this part's date is later than latestDate so far
                 latestDate = date;                                                          // set latestDate to date
         }
@@ -341,7 +599,7 @@ public class Helper {
      */
     protected String getMidiTimeAsString() {
         if (this.currentPart != null)                                                       // if we are within a staff environment
-            return this.currentPart.getAttributeValue("currentDate");                       // we have a more precise date somewhere within a measure
+            return Double.toString(this.getCurrentDate(this.currentPart));                  // we have a more precise date somewhere within a measure
 
         if (this.currentMeasure != null)                                                    // if we are within a measure
             return this.currentMeasure.getAttributeValue("date");                           // take it
@@ -353,7 +611,7 @@ public class Helper {
         Elements parts = this.currentMsmMovement.getChildElements("part");                   // get the list of all parts
         double latestDate = 0.0;                                                            // here comes the result
         for (int i = parts.size()-1; i >= 0; --i) {                                         // go through that list
-            double date = Double.parseDouble(parts.get(i).getAttributeValue("currentDate"));// get the part's date
+            double date = this.getCurrentDate(parts.get(i));                                // get the part's date
             if (latestDate < date)                                                          // if this part's date is later than latestDate so far
                 latestDate = date;                                                          // set latestDate to date
         }
@@ -396,12 +654,17 @@ public class Helper {
      */
     protected double[] getCurrentTimeSignature(Element msmPartContext) {
         // get the value of one measure from the local or global timeSignatureMap
-        Elements es = null;
-        if (msmPartContext != null)                                                                                                                                           // we are within a part
-            es = msmPartContext.getFirstChildElement("dated").getFirstChildElement("timeSignatureMap").getChildElements();                                                    // try to get its timeSignature
-        if ((es == null) || (es.size() == 0))                                                                                                                                   // if we are outside a part or the local map is empty
-            es = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("timeSignatureMap").getChildElements();              // get global entries
-        if ((es.size() == 0) && (this.currentWork != null)) {                                                                                                                   // get the meter element from meiHead
+        Element ts = null;
+        Element context = null;
+        if (msmPartContext != null) {                                                                                                                                           // we are within a part
+            ts = Helper.getLastChildElement(msmPartContext.getFirstChildElement("dated").getFirstChildElement("timeSignatureMap"));                                           // try to get its timeSignature
+            context = msmPartContext;
+        }
+        if (ts == null) {                                                                                                                                                       // if we are outside a part or the local map is empty
+            ts = Helper.getLastChildElement(this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("timeSignatureMap"));     // get global entries
+            context = null;
+        }
+        if ((ts == null) && (this.currentWork != null)) {                                                                                                                       // get the meter element from meiHead
             Element meter = this.currentWork.getFirstChildElement("meter");
             if (meter != null) {
                 Attribute count = meter.getAttribute("count");
@@ -411,10 +674,29 @@ public class Helper {
         }
 
         // get length of one measure (4/4 is default if information is insufficient)
-        double denom = (es.size() == 0) ? 4.0 : Double.parseDouble(es.get(es.size()-1).getAttributeValue("denominator"));
-        double num = (es.size() == 0) ? 4.0 : Double.parseDouble(es.get(es.size()-1).getAttributeValue("numerator"));
+        if (ts == null)
+            return new double[]{4.0, 4.0};
+
+        Timeline timeline = this.getTimeline(context);
+        if (timeline.timeSignature != ts) {                                                                                                                                     // the values are parsed only once per timeSignature element
+            timeline.timeSignature = ts;
+            timeline.numerator = Double.parseDouble(ts.getAttributeValue("numerator"));
+            timeline.denominator = Double.parseDouble(ts.getAttributeValue("denominator"));
+        }
+        return new double[]{timeline.numerator, timeline.denominator};
+    }
 
-        return new double[]{num, denom};
+    /**
+     * get the last child element of an element
+     * @param ofThis
+     * @return the last child element or null if there is none
+     */
+    private static Element getLastChildElement(Element ofThis) {
+        for (int i = ofThis.getChildCount() - 1; i >= 0; --i) {
+            if (ofThis.getChild(i) instanceof Element)
+                return (Element) ofThis.getChild(i);
+        }
+        return null;
     }
 
     /**
@@ -649,12 +931,12 @@ public class Helper {
     }
 
     /**
-     * make the cleanup of one msm object; this removes all miscMaps, currentDate, tie, and layer and lots of further non-MSM confrom attributes
+     * make the cleanup of one msm object; this removes all miscMaps, currentDate, tie, layer, repeatSource and lots of further non-MSM confrom attributes
      * @param msm
      */
     public static void msmCleanup(Msm msm) {
         // delete all miscMaps and non-msm conform attributes
-        Nodes n = msm.getRootElement().query("descendant::*[local-name()='miscMap'] | descendant::*[attribute::currentDate]/attribute::currentDate | descendant::*[attribute::tie]/attribute::tie | descendant::*[attribute::layer]/attribute::layer | descendant::*[attribute::endid]/attribute::endid | descendant::*[attribute::tstamp2]/attribute::tstamp2 | descendant::*[local-name()='goto' and attribute::n]/attribute::n");
+        Nodes n = msm.getRootElement().query("descendant::*[local-name()='miscMap'] | descendant::*[attribute::currentDate]/attribute::currentDate | descendant::*[attribute::tie]/attribute::tie | descendant::*[attribute::layer]/attribute::layer | descendant::*[attribute::endid]/attribute::endid | descendant::*[attribute::tstamp2]/attribute::tstamp2 | descendant::*[attribute::repeatSource]/attribute::repeatSource | descendant::*[local-name()='goto' and attribute::n]/attribute::n");
         for (int i=0; i < n.size(); ++i) {
             if (n.get(i) instanceof Element)
                 n.get(i).getParent().removeChild(n.get(i));
@@ -881,16 +1163,11 @@ public class Helper {
     }
 
     /**
-     * return the first element in the endids list with an endid attribute value that equals id
-     * @param id
-     * @return the index in the endid list or -1 if not found
+     * add an element to the list of pending elements that will be terminated at the element that its endid attribute refers to
+     * @param e an msm or mpm element with attribute endid
      */
-    private int getEndid(String id) {
-        for (int i=0; i < this.endids.size(); ++i) {                        // go through the list of pending elements to be ended
-            if (this.endids.get(i).getAttributeValue("endid").equals(id))   // found
-                return i;                                                   // return it
-        }
-        return -1;
+    protected void addEndid(Element e) {
+        this.endids.computeIfAbsent(e.getAttributeValue("endid"), k -> new ArrayList<>()).add(e);
     }
 
     /**
@@ -899,11 +1176,37 @@ public class Helper {
      * @param e
      */
     protected void checkEndid(Element e) {
-        String id = "#" + Helper.getAttributeValue("id", e);                                                                            // get id of the current element
-        for (int j = this.getEndid(id); j >= 0; j = this.getEndid(id)) {                                                                // find all pending elements in the endid list to be finished at this element
-            this.endids.get(j).addAttribute(new Attribute("date.end", Double.toString(this.getMidiTime() + ((this.endids.get(j).getLocalName().equals("slur")) ? 0.0 : this.computeDuration(e)))));  // finish corresponding element, only slurs should not include the duration
-            this.endids.remove(j);                                                                                                      // remove element from list, it is finished
+        if (this.endids.isEmpty())                                                                                                      // no pending elements
+            return;                                                                                                                     // nothing to do
+
+        ArrayList<Element> pending = this.endids.remove("#" + Helper.getAttributeValue("id", e));                                       // get and remove all pending elements in the endid list to be finished at this element
+        if (pending == null)
+            return;
+
+        for (Element p : pending)
+            p.addAttribute(new Attribute("date.end", Double.toString(this.getMidiTime() + ((p.getLocalName().equals("slur")) ? 0.0 : this.computeDuration(e)))));  // finish corresponding element, only slurs should not include the duration
+    }
+
+    /**
+     * register a slur that has been added to a miscMap, so checkSlurs() can apply it to the notes
+     * @param slur the msm slur element, it must have been inserted into the miscMap already
+     * @param part the msm part whose miscMap contains the slur or null if it is in the global miscMap
+     */
+    protected void addSlur(Element slur, Element part) {
+        ArrayList<Element> slurs = (part == null) ? this.globalSlurs : this.localSlurs.computeIfAbsent(part, k -> new ArrayList<>());
+        double date = Double.parseDouble(slur.getAttributeValue("date"));
+
+        // keep the same order as in the miscMap (see addToMap()), i.e. insert after the last slur with a date at or before date
+        int low = 0;
+        int high = slurs.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Double.parseDouble(slurs.get(mid).getAttributeValue("date")) <= date)
+                low = mid + 1;
+            else
+                high = mid;
         }
+        slurs.add(low, slur);
     }
 
     /**
@@ -911,51 +1214,61 @@ public class Helper {
      * @param e
      */
     protected void checkSlurs(Element e) {
-        Elements slurs = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("slur");
+        double date = this.getMidiTime();
+        double measureDate = ((this.currentMeasure == null) || (this.currentMeasure.getAttribute("date") == null)) ? Double.NEGATIVE_INFINITY : Double.parseDouble(this.currentMeasure.getAttributeValue("date"));   // slurs that end before the current measure cannot apply to any upcoming note
 
+        ArrayList<Element> slurs = this.globalSlurs;
         for (int i = slurs.size() - 1; i >= 0; --i) {                                                                                                                   // go through the global slurs
-            if ((slurs.get(i).getAttributeValue("date") != null) && (Double.parseDouble(slurs.get(i).getAttributeValue("date")) > this.getMidiTime())) {                // if this slur element is after e
+            Element slur = slurs.get(i);
+            if (Double.parseDouble(slur.getAttributeValue("date")) > date) {                                                                                            // if this slur element is after e
                 continue;                                                                                                                                               // continue searching
             }
-            if (slurs.get(i).getAttribute("date.end") != null) {                                                                                                        // if it is before e
-                double endDate = Double.parseDouble(slurs.get(i).getAttributeValue("date.end"));
-                if (endDate < this.getMidiTime()) {                                                                                                                     // if the end date of this slur (if one is specified) is before e
+            if (slur.getAttribute("date.end") != null) {                                                                                                                // if it is before e
+                double endDate = Double.parseDouble(slur.getAttributeValue("date.end"));
+                if (endDate < date) {                                                                                                                                   // if the end date of this slur (if one is specified) is before e
+                    if (endDate < measureDate)                                                                                                                          // if it is even before the current measure
+                        slurs.remove(i);                                                                                                                                // it is done, no need to check it again
                     continue;
                 }
-                if (endDate == this.getMidiTime()) {                                                                                                                    // if the end date of this slur (if one is specified) is at e
+                if (endDate == date) {                                                                                                                                  // if the end date of this slur (if one is specified) is at e
                     e.addAttribute(new Attribute("slur", "t"));                                                                                                         // set the slur attribute to terminal
-                    this.addSlurId(slurs.get(i), e);
+                    this.addSlurId(slur, e);
                     return;                                                                                                                                             // no need to look for further slurs
                 }
             }
             e.addAttribute(new Attribute("slur", "im"));
-            this.addSlurId(slurs.get(i), e);
+            this.addSlurId(slur, e);
         }
 
         if (this.currentPart != null) {
+            slurs = this.localSlurs.get(this.currentPart);
+            if (slurs == null)
+                return;
             String layerId = getLayerId(getLayer(e));                                                                                                                   // get the current layer's id reference
-            slurs = this.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("slur");
 
             for (int i = slurs.size() - 1; i >= 0; --i) {                                                                                                               // go through the local slurs
-                if (!Helper.isSameLayer(slurs.get(i), layerId)) {                                                                                                       // check whether this slur is dedicated to a specific layer but not the current layer (layer of ofThis)
+                Element slur = slurs.get(i);
+                if (!Helper.isSameLayer(slur, layerId)) {                                                                                                               // check whether this slur is dedicated to a specific layer but not the current layer (layer of ofThis)
                     continue;
                 }
-                if ((slurs.get(i).getAttributeValue("date") != null) && (Double.parseDouble(slurs.get(i).getAttributeValue("date")) > this.getMidiTime())) {            // if this slur element is after ofThis
+                if (Double.parseDouble(slur.getAttributeValue("date")) > date) {                                                                                        // if this slur element is after ofThis
                     continue;
                 }
-                if (slurs.get(i).getAttribute("date.end") != null) {                                                                                                    // if it is before e
-                    double endDate = Double.parseDouble(slurs.get(i).getAttributeValue("date.end"));
-                    if (endDate < this.getMidiTime()) {                                                                                                                 // if the end date of this slur (if one is specified) is before e
+                if (slur.getAttribute("date.end") != null) {                                                                                                            // if it is before e
+                    double endDate = Double.parseDouble(slur.getAttributeValue("date.end"));
+                    if (endDate < date) {                                                                                                                               // if the end date of this slur (if one is specified) is before e
+                        if (endDate < measureDate)                                                                                                                      // if it is even before the current measure
+                            slurs.remove(i);                                                                                                                            // it is done, no need to check it again
                         continue;
                     }
-                    if (endDate == this.getMidiTime()) {                                                                                                                // if the end date of this slur (if one is specified) is at e
+                    if (endDate == date) {                                                                                                                              // if the end date of this slur (if one is specified) is at e
                         e.addAttribute(new Attribute("slur", "t"));                                                                                                     // set the slur attribute to terminal
-                        this.addSlurId(slurs.get(i), e);
+                        this.addSlurId(slur, e);
                         return;                                                                                                                                         // no need to look for further slurs
                     }
                 }
                 e.addAttribute(new Attribute("slur", "im"));
-                this.addSlurId(slurs.get(i), e);
+                this.addSlurId(slur, e);
             }
         }
     }
@@ -1744,16 +2057,9 @@ public class Helper {
             }
             else {
                 if (this.currentPart != null) {
-                    Elements octs = this.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("oct.default");                              // get all local default octave
-                    if (octs.size() == 0) {                                                                                                                                      // if there is none
-                        octs = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("oct.default");// get all global default octave
-                    }
-                    for (int i = octs.size() - 1; i >= 0; --i) {                                                                          // search from back to front
-                        if ((octs.get(i).getAttribute("layer") == null) || octs.get(i).getAttributeValue("layer").equals(layerId)) {  // for a default octave with no layer dependency or a matching layer
-                            oct = Double.parseDouble(octs.get(i).getAttributeValue("oct.default"));                                     // take this value
-                            break;                                                                                                    // break the for loop
-                        }
-                    }
+                    String defaultOct = this.getDefaultOctave(layerId);                                                                 // get the local or global default octave
+                    if (defaultOct != null)
+                        oct = Double.parseDouble(defaultOct);                                                                           // take this value
                 }
                 ofThis.addAttribute(new Attribute("oct", Double.toString(oct)));                                                 // there was no oct attribute, so fill the gap with the computed value
             }
@@ -1861,7 +2167,7 @@ public class Helper {
             // transposition; check for global and local transposition and addTransposition elements in the miscMaps; global and local transpositions add up; so-called addTranspositions (e.g. octaves) also add to the usual transpositions
             // go through all four lists and check for elements that apply here, global and local transpositions add up
             {
-                Elements globalTrans = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("transposition");
+                ArrayList<Element> globalTrans = this.getTimeline(null).transpositions;
                 for (int i = globalTrans.size() - 1; i >= 0; --i) {                                                                                                     // go through the global transpositions
                     if ((globalTrans.get(i).getAttributeValue("date") != null) && (Double.parseDouble(globalTrans.get(i).getAttributeValue("date")) > this.getMidiTime())) {  // if this transposition element is after ofThis
                         continue;                                                                                                                                       // continue searching
@@ -1877,7 +2183,7 @@ public class Helper {
                 }
             }
             {
-                Elements globalAddTrans = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("addTransposition");
+                ArrayList<Element> globalAddTrans = this.getTimeline(null).addTranspositions;
                 for (int i = globalAddTrans.size() - 1; i >= 0; --i) {                                                                                                  // go through the global addTranspositions
                     if ((globalAddTrans.get(i).getAttributeValue("date") != null) && (Double.parseDouble(globalAddTrans.get(i).getAttributeValue("date")) > this.getMidiTime())) {    // if this transposition element is after ofThis
                         continue;
@@ -1893,7 +2199,7 @@ public class Helper {
             }
             if (this.currentPart != null) {
                 {
-                    Elements localTrans = this.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("transposition");
+                    ArrayList<Element> localTrans = this.getTimeline(this.currentPart).transpositions;
                     for (int i = localTrans.size() - 1; i >= 0; --i) {                                                                                                      // go through the local transpositions
                         if ((localTrans.get(i).getAttributeValue("date") != null) && (Double.parseDouble(localTrans.get(i).getAttributeValue("date")) > this.getMidiTime())) {// if this transposition element is after ofThis
                             continue;
@@ -1909,7 +2215,7 @@ public class Helper {
                     }
                 }
                 {
-                    Elements localAddTrans = this.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("addTransposition");
+                    ArrayList<Element> localAddTrans = this.getTimeline(this.currentPart).addTranspositions;
                     for (int i = localAddTrans.size() - 1; i >= 0; --i) {                                                                                                  // go through the global addTranspositions
                         if ((localAddTrans.get(i).getAttributeValue("date") != null) && (Double.parseDouble(localAddTrans.get(i).getAttributeValue("date")) > this.getMidiTime())) {  // if this transposition element is after ofThis
                             continue;
@@ -21,13 +21,16 @@ import meico.supplementary.KeyValue;
 import meico.svg.SvgCollection;
 import nu.xom.*;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class holds the mei data from a source file in a XOM Document.
@@ -37,6 +40,7 @@ import java.util.*;
 public class Mei extends meico.xml.XmlBase {
 
     private Helper helper = null;                                   // some variables and methods to make life easier
+    private MeiIndex index = null;                                  // an index of the document that is created once and used throughout preprocessing and conversion, it is null outside of the conversion as the document might be changed
 
     /**
      * a default constructor that creates an empty Mei instance
@@ -339,12 +343,27 @@ public class Mei extends meico.xml.XmlBase {
      * @return the list of msm documents (movements) created
      */
     public synchronized KeyValue<List<Msm>, List<Mpm>> exportMsmMpm(int ppq, boolean dontUseChannel10, boolean ignoreExpansions, boolean cleanup) {
+        return this.exportMsmMpm(ppq, dontUseChannel10, ignoreExpansions, cleanup, false);
+    }
+
+    /**
+     * converts the mei data into msm and mpm format and returns a tuplet of lists, one with the msms (one per movement/mdiv), the other with the corresponding mpms
+     * @param ppq the ppq resolution for the conversion; this is counterchecked with the minimal required resolution to capture the shortest duration in the mei data; if a higher resolution is necessary, this input parameter is overridden
+     * @param dontUseChannel10 the flag says whether channel 10 (midi drum channel) shall be used or not; it is already dont here, at the mei2msm conversion, because the msm should align with the midi file later on
+     * @param ignoreExpansions set this true to have a 1:1 conversion of MEI to MSM without the rearrangement that MEI's expansion elements produce
+     * @param cleanup set true to return a clean msm file or false to keep all the crap from the conversion
+     * @param parallel set true to convert the mdivs concurrently, each with its own Helper; the results are returned in document order and are the same as with sequential conversion
+     * @return the list of msm documents (movements) created
+     */
+    public synchronized KeyValue<List<Msm>, List<Mpm>> exportMsmMpm(int ppq, boolean dontUseChannel10, boolean ignoreExpansions, boolean cleanup, boolean parallel) {
         long startTime = System.currentTimeMillis();                            // we measure the time that the conversion consumes
         System.out.println("\nConverting " + ((this.file != null) ? this.file.getName() : "MEI data") + " to MSM and MPM.");
 
         if (this.isEmpty() || (this.getMusic() == null) || (this.getMusic().getFirstChildElement("body", this.getMusic().getNamespaceURI()) == null))      // if no mei music data available
             return new KeyValue<>(new ArrayList<Msm>(), new ArrayList<Mpm>());  // return empty lists
 
+        this.index = new MeiIndex(this.getRootElement());                       // index the document once, this index is used by the preprocessing and the conversion
+
         // check whether the  shortest duration in the mei (note value can go down to 2048th) is captured by the defined ppq resolution; adjust ppq automatically and output a message
         int minPPQ = this.computeMinimalPPQ();                                  // compute the minimal required ppq resolution
         if (minPPQ > ppq) {                                                     // if it is greater than the specified resolution
@@ -356,7 +375,173 @@ public class Mei extends meico.xml.XmlBase {
         if (cleanup)
             orig = (Document)this.data.copy();                                  // the document will be altered during conversion, thus we keep the original to restore it after the process
 
+        KeyValue<List<Msm>, List<Mpm>> result = this.convertToMsmMpm(ppq, dontUseChannel10, ignoreExpansions, parallel);    // do the conversion
+        List<Msm> msms = result.getKey();
+        List<Mpm> mpms = result.getValue();
+
+        // cleanup
+        if (cleanup){
+            this.data = orig;                                                   // restore the unaltered version of the mei data
+            Helper.msmCleanup(msms);                                            // cleanup of the msm objects to remove all conversion related and no longer needed entries in the msm objects
+        }
+
+        this.setExportFileNames(msms, mpms);                                   // generate a dummy file name in the msm and mpm objects
+
+        System.out.println("MEI to MSM/MPM conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+
+        return new KeyValue<>(msms, mpms);
+    }
+
+    /**
+     * converts an mei file into msm and mpm format without building the whole XOM Document of the file;
+     * the file is parsed with a streaming builder and each top-level mdiv is converted as soon as it is complete and then dropped,
+     * so the peak memory is bounded by the size of the largest mdiv and not the size of the whole document;
+     * references (copyof, sameas, startid, endid, expansions) are resolved within the mdiv and the meiHead, references to other mdivs cannot be resolved in this mode;
+     * if the document structure does not allow streaming (e.g. the music is organized in group elements or there is a front element), the whole document is read and converted as with exportMsmMpm()
+     * @param file the mei file
+     * @param ppq the ppq resolution for the conversion; if an mdiv requires a higher resolution to capture its shortest duration, it is converted with that resolution instead
+     * @param dontUseChannel10 the flag says whether channel 10 (midi drum channel) shall be used or not
+     * @param ignoreExpansions set this true to have a 1:1 conversion of MEI to MSM without the rearrangement that MEI's expansion elements produce
+     * @param cleanup set true to return a clean msm file or false to keep all the crap from the conversion
+     * @return the list of msm documents (movements) and the list of mpm documents created
+     * @throws IOException
+     * @throws ParsingException
+     * @throws SAXException
+     * @throws ParserConfigurationException
+     */
+    public static KeyValue<List<Msm>, List<Mpm>> exportMsmMpmStreamed(File file, int ppq, boolean dontUseChannel10, boolean ignoreExpansions, boolean cleanup) throws IOException, ParsingException, SAXException, ParserConfigurationException {
+        long startTime = System.currentTimeMillis();                            // we measure the time that the conversion consumes
+        System.out.println("\nStreaming " + file.getName() + " to MSM and MPM.");
+
+        LinkedList<Msm> msms = new LinkedList<>();
+        LinkedList<Mpm> mpms = new LinkedList<>();
+
+        if (!file.exists()) {
+            System.err.println("No such file or directory: " + file.getPath());
+            return new KeyValue<>(msms, mpms);                                  // return empty lists
+        }
+
+        boolean[] fallback = {false};                                           // is set true if the document structure does not allow the streamed conversion
+        NodeFactory factory = new NodeFactory() {                               // this node factory converts each top-level mdiv when the parser has finished it
+            @Override
+            public Nodes finishMakingElement(Element element) {
+                ParentNode body = element.getParent();
+                if (fallback[0] || !element.getLocalName().equals("mdiv") || !(body instanceof Element) || !((Element) body).getLocalName().equals("body"))  // only top-level mdivs are converted, nested mdivs are part of these
+                    return super.finishMakingElement(element);                  // keep all other elements in the tree
+
+                if (!Mei.isStreamable((Element) body)) {                        // the body is not located where makeMdivDocument() expects it (e.g. in a group) or there is other music content (e.g. front) that the mdiv may refer to
+                    fallback[0] = true;                                         // stop converting, the file will be converted as a whole
+                    return super.finishMakingElement(element);
+                }
+
+                Mei mei = new Mei(Mei.makeMdivDocument((Element) element.copy(), (Element) body));  // an mei document that contains only the meiHead and a copy of this mdiv
+                mei.file = file;
+
+                mei.index = new MeiIndex(mei.getRootElement());                    // index the mdiv document once for the minimal ppq and the conversion
+                KeyValue<List<Msm>, List<Mpm>> result = mei.convertToMsmMpm(Math.max(ppq, mei.computeMinimalPPQ()), dontUseChannel10, ignoreExpansions, false);
+                if (cleanup)
+                    Helper.msmCleanup(result.getKey());                         // cleanup of the msm objects to remove all conversion related and no longer needed entries in the msm objects
+
+                msms.addAll(result.getKey());
+                mpms.addAll(result.getValue());
+                return new Nodes();                                             // the builder replaces the mdiv by these (no) nodes, so it can be garbage collected
+            }
+        };
+
+        SAXParserFactory parserFactory = SAXParserFactory.newInstance();        // create a SAX parser, same as in XmlBase.readFromFile()
+        XMLReader xmlreader = parserFactory.newSAXParser().getXMLReader();
+        xmlreader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);  // disable fetching of DTD
+        (new Builder(xmlreader, false, factory)).build(file);                  // parse the file, the conversion is done by the node factory
+
+        if (fallback[0]) {                                                      // the file could not be streamed
+            System.out.println("The structure of " + file.getName() + " does not allow streaming. Converting the whole document instead.");
+            return (new Mei(file)).exportMsmMpm(ppq, dontUseChannel10, ignoreExpansions, cleanup);
+        }
+
+        Mei mei = new Mei();
+        mei.file = file;
+        mei.setExportFileNames(msms, mpms);                                    // generate a dummy file name in the msm and mpm objects
+
+        System.out.println("MEI to MSM/MPM conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+
+        return new KeyValue<>(msms, mpms);
+    }
+
+    /**
+     * check whether the mdivs in the given body can be converted in streamed mode;
+     * this requires the ancestor chain body - music - root element and that the music element has no other children than body elements so far
+     * @param body the body element in the partially parsed document
+     * @return true if makeMdivDocument() can be used for the mdivs in this body
+     */
+    private static boolean isStreamable(Element body) {
+        ParentNode music = body.getParent();
+        if (!(music instanceof Element) || !((Element) music).getLocalName().equals("music"))
+            return false;
+        ParentNode root = music.getParent();
+        if (!(root instanceof Element) || !(root.getParent() instanceof Document))  // the music element must be a child of the root element, not of a group
+            return false;
+
+        Elements es = ((Element) music).getChildElements();
+        for (int i = 0; i < es.size(); ++i) {
+            if (!es.get(i).getLocalName().equals("body"))                       // front, group etc. are not part of the mdiv documents
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * create a document that contains the meiHead and the given mdiv; this is used by the streamed conversion
+     * @param mdiv the mdiv element, it must not have a parent
+     * @param body the body element in which the mdiv was located
+     * @return the new document
+     */
+    private static Document makeMdivDocument(Element mdiv, Element body) {
+        Element music = (Element) body.getParent();
+        Element root = (Element) music.getParent();
+
+        Element newRoot = Mei.shallowCopy(root);
+        Element meiHead = Helper.getFirstChildElement("meiHead", root);
+        if (meiHead != null)
+            newRoot.appendChild(meiHead.copy());                                // the meiHead is required for the title and the work element
+        Element newMusic = Mei.shallowCopy(music);
+        newRoot.appendChild(newMusic);
+        Element newBody = Mei.shallowCopy(body);
+        newMusic.appendChild(newBody);
+        newBody.appendChild(mdiv);
+
+        return new Document(newRoot);
+    }
+
+    /**
+     * copy an element with its attributes and namespace declarations but without its children
+     * @param element
+     * @return the copy
+     */
+    private static Element shallowCopy(Element element) {
+        Element copy = new Element(element.getQualifiedName(), element.getNamespaceURI());
+        for (int i = 0; i < element.getAttributeCount(); ++i)
+            copy.addAttribute(element.getAttribute(i).copy());
+        for (int i = 0; i < element.getNamespaceDeclarationCount(); ++i) {
+            String prefix = element.getNamespacePrefix(i);
+            if (!prefix.equals(element.getNamespacePrefix()))                  // the element's own namespace is already set
+                copy.addNamespaceDeclaration(prefix, element.getNamespaceURI(prefix));
+        }
+        return copy;
+    }
+
+    /**
+     * this method does the actual conversion of the mei data to msm and mpm, including the preprocessing of the mei data (resolving copyofs, rends and expansions);
+     * it alters the mei data, so the caller is responsible to keep a copy if the original is required afterwards
+     * @param ppq the ppq resolution for the conversion
+     * @param dontUseChannel10 the flag says whether channel 10 (midi drum channel) shall be used or not
+     * @param ignoreExpansions set this true to have a 1:1 conversion of MEI to MSM without the rearrangement that MEI's expansion elements produce
+     * @param parallel set true to convert the mdivs concurrently
+     * @return the lists of msms and mpms created
+     */
+    private KeyValue<List<Msm>, List<Mpm>> convertToMsmMpm(int ppq, boolean dontUseChannel10, boolean ignoreExpansions, boolean parallel) {
 //        long t = System.currentTimeMillis();
+        if (this.index == null)
+            this.index = new MeiIndex(this.getRootElement());                   // index the document once, the preprocessing methods will keep it up to date or drop it if it becomes invalid
         this.resolveCopyofsAndSameas();                                         // replace the slacker elements with copyof and sameas attributes by copies of the referred elements
         this.removeRendElements();                                              // only the content of the rend elements is relevant, move these one level up replacing the rend with it
         if (!ignoreExpansions) this.resolveExpansions();                        // if expansions should be realized, render expansion elements in the MEI score to a "through-composed"/regularized score without expansions
@@ -366,8 +551,13 @@ public class Mei extends meico.xml.XmlBase {
         this.helper.dontUseChannel10 = dontUseChannel10;                        // set the flag that says whether channel 10 (midi drum channel) shall be used or not; it is already dont here, at the mei2msm conversion, because the msm should align with the midi file later on
 
         Elements bodies = this.getMusic().getChildElements("body", this.getMusic().getNamespaceURI());  // get the list of body elements in the mei source
-        for (int b = 0; b < bodies.size(); ++b)                                 // for each body
-            this.convert(bodies.get(b));                                        // convert each body to msm, the resulting Msms can then be found in this.helper.movements
+        ArrayList<Element> mdivs = parallel ? this.getTopLevelMdivs(bodies) : null;                 // in parallel mode we need the mdivs that can be converted independently, null if the bodies contain more than just mdivs
+        if ((mdivs != null) && (mdivs.size() > 1))                              // parallel conversion makes only sense with more than one mdiv
+            this.convertMdivsInParallel(mdivs);                                 // convert them concurrently, the resulting Msms can then be found in this.helper.movements
+        else {
+            for (int b = 0; b < bodies.size(); ++b)                             // for each body
+                this.convert(bodies.get(b));                                    // convert each body to msm, the resulting Msms can then be found in this.helper.movements
+        }
 
         // the list of Msm instances, each one is an mdiv in mei
         LinkedList<Msm> msms = new LinkedList<>(this.helper.movements);         // get the resulting msms for further processing and returning
@@ -376,14 +566,17 @@ public class Mei extends meico.xml.XmlBase {
         Helper.mpmPostprocessing(mpms);                                         // finalize all mpm data
 
         this.helper = null;                                                     // as this is a class variable it would remain in memory after this method, so it has to be nulled for garbage collection
+        this.index = null;                                                      // the same for the index, it also becomes invalid when the document is changed afterwards
 
-        // cleanup
-        if (cleanup){
-            this.data = orig;                                                   // restore the unaltered version of the mei data
-            Helper.msmCleanup(msms);                                            // cleanup of the msm objects to remove all conversion related and no longer needed entries in the msm objects
-        }
+        return new KeyValue<>(msms, mpms);
+    }
 
-        // generate a dummy file name in the msm objects
+    /**
+     * generate file names for the msm and mpm objects from the mei file name; if there are multiple movements they are numbered
+     * @param msms
+     * @param mpms
+     */
+    private void setExportFileNames(List<Msm> msms, List<Mpm> mpms) {
         if (this.file != null) {
             if (msms.size() == 1)                                                                                           // if only one msm object (no numbering needed)
                 msms.get(0).setFile(Helper.getFilenameWithoutExtension(this.getFile().getPath()) + ".msm");                 // replace the file extension mei with msm and make this the filename
@@ -403,10 +596,83 @@ public class Mei extends meico.xml.XmlBase {
                 }
             }
         }
+    }
 
-        System.out.println("MEI to MSM/MPM conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+    /**
+     * collect the mdiv elements that are direct children of the given body elements;
+     * these can be converted independently from each other
+     * @param bodies the mei body elements
+     * @return the mdivs in document order or null if a body contains other elements than mdivs (in this case the conversion must be done sequentially)
+     */
+    private ArrayList<Element> getTopLevelMdivs(Elements bodies) {
+        ArrayList<Element> mdivs = new ArrayList<>();
+        for (int b = 0; b < bodies.size(); ++b) {                               // for each body
+            Elements es = bodies.get(b).getChildElements();
+            for (int i = 0; i < es.size(); ++i) {                               // for each of its children
+                if (!es.get(i).getLocalName().equals("mdiv"))                   // if it is no mdiv
+                    return null;                                                // there is something between the mdivs that the sequential conversion would process, so we cannot convert the mdivs independently
+                mdivs.add(es.get(i));
+            }
+        }
+        return mdivs;
+    }
 
-        return new KeyValue<>(msms, mpms);
+    /**
+     * convert the given mdivs concurrently; each mdiv is detached into its own document (see makeMdivDocument()) and processed by a worker with its own Helper and MeiIndex,
+     * so the workers share no mutable data; afterwards the mdivs are put back at their original positions;
+     * the resulting Msm and Mpm objects are added to this.helper.movements and this.helper.performances in the order of the input list
+     * @param mdivs the mdiv elements, they must be children of the body elements of this.getMusic()
+     */
+    private void convertMdivsInParallel(ArrayList<Element> mdivs) {
+        ArrayList<Text> placeholders = new ArrayList<>();
+        ArrayList<Element> bodies = new ArrayList<>();
+        ArrayList<Mei> workers = new ArrayList<>();
+        for (Element mdiv : mdivs) {                                            // for each mdiv
+            Element body = (Element) mdiv.getParent();
+            Text placeholder = new Text("");
+            body.replaceChild(mdiv, placeholder);                               // detach the mdiv and mark its position
+            placeholders.add(placeholder);
+            bodies.add(body);
+
+            Mei worker = new Mei(Mei.makeMdivDocument(mdiv, body));            // the processing methods work on this.helper and the document, so each mdiv gets its own Mei instance with its own document
+            worker.file = this.file;
+            worker.helper = new Helper(this.helper.ppq);                        // and its own helper
+            worker.helper.dontUseChannel10 = this.helper.dontUseChannel10;
+            workers.add(worker);
+        }
+
+        int threads = Math.min(mdivs.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Helper>> results = new ArrayList<>();
+        for (int i = 0; i < workers.size(); ++i) {
+            final Mei worker = workers.get(i);
+            final Element mdiv = mdivs.get(i);
+            results.add(executor.submit(new Callable<Helper>() {
+                @Override
+                public Helper call() {
+                    worker.index = new MeiIndex(worker.getRootElement());      // each worker indexes its own document
+                    worker.makeMovement(mdiv);
+                    return worker.helper;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        ArrayList<Helper> helpers;
+        try {
+            helpers = Helper.getResults(results, executor);                     // collect the results in document order, a failed mdiv fails the conversion as in sequential mode
+        } finally {
+            for (int i = 0; i < mdivs.size(); ++i) {                            // put the mdivs back into this document, as the sequential conversion leaves them there, too
+                Element mdiv = mdivs.get(i);
+                mdiv.detach();
+                bodies.get(i).replaceChild(placeholders.get(i), mdiv);
+            }
+        }
+
+        for (Helper h : helpers) {
+            this.helper.movements.addAll(h.movements);
+            this.helper.performances.addAll(h.performances);
+        }
     }
 
     /**
@@ -886,7 +1152,11 @@ public class Mei extends meico.xml.XmlBase {
         this.helper.currentMdiv = mdiv;                                             // store current mdiv for later reference
         this.helper.currentMsmMovement = msm.getRootElement();                      // store root of current MSM movement for later reference
         this.helper.currentPerformance = performance;                               // store the link to the current performance for later reference
-        this.helper.indexNotesAndChords(this.helper.currentMdiv);                   // create an index of all notes and chords in this mdiv, this makes things faster later on
+        HashMap<String, Element> notesAndChords = (this.index == null) ? null : this.index.getNotesAndChords(mdiv);
+        if (notesAndChords != null)
+            this.helper.allNotesAndChords.putAll(notesAndChords);                   // take the notes and chords of this mdiv from the document index
+        else
+            this.helper.indexNotesAndChords(this.helper.currentMdiv);               // create an index of all notes and chords in this mdiv, this makes things faster later on
 
         // find the corresponding work element in  meiHead
         String n = (mdiv.getAttribute("n") == null) ? null : mdiv.getAttributeValue("n");
@@ -935,6 +1205,7 @@ public class Mei extends meico.xml.XmlBase {
             return;
         }
         this.convert(mdiv);                         // process the content of the mdiv
+        this.helper.writeCurrentDates();            // the parts' currentDate attributes are written only now
 
         GenericMap globalTempoMap = this.helper.currentPerformance.getGlobal().getDated().getMap(Mpm.TEMPO_MAP);
         if (((globalTempoMap == null) || (globalTempoMap.getElementBeforeAt(0.0) == null)) && (this.helper.currentWork != null)) {  // if the global tempoMap has no initial tempo and if we have a work element in meiHead
@@ -996,6 +1267,7 @@ public class Mei extends meico.xml.XmlBase {
             d.addAttribute(new Attribute("oct", scoreDef.getAttributeValue("octave.default")));     // copy the value
             Helper.copyId(scoreDef, d);                                                             // copy the id
             Helper.addToMap(d, this.helper.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap"));   // make an entry in the miscMap
+            this.helper.addToTimeline(d, null);                                                     // register it for pitch computation
         }
 
         {   // if there is a transposition (we only support the trans.semi attribute, not trans.diat)
@@ -1007,6 +1279,7 @@ public class Mei extends meico.xml.XmlBase {
             d.addAttribute(new Attribute("semi", Double.toString(trans)));                          // copy the value or write "0" for no transposition (this is to cancel previous entries)
             Helper.copyId(scoreDef, d);                                                             // copy the id
             Helper.addToMap(d, this.helper.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap"));   // make an entry in the miscMap
+            this.helper.addToTimeline(d, null);                                                     // register it for pitch computation
         }
 
         // MIDI channel and port information are ignored as these are assigned automatically by this converter
@@ -1052,6 +1325,7 @@ public class Mei extends meico.xml.XmlBase {
             d.addAttribute(new Attribute("oct", staffDef.getAttributeValue("octave.default")));             // copy the value
             Helper.copyId(staffDef, d);                                                                     // copy the id
             Helper.addToMap(d, this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap"));  // make an entry in the miscMap
+            this.helper.addToTimeline(d, this.helper.currentPart);                                          // register it for pitch computation
         }
 
 
@@ -1064,6 +1338,7 @@ public class Mei extends meico.xml.XmlBase {
             d.addAttribute(new Attribute("date", this.helper.getMidiTimeAsString()));
             Helper.copyId(staffDef, d);                                                                     // copy the id
             Helper.addToMap(d, this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap"));  // make an entry in the miscMap
+            this.helper.addToTimeline(d, this.helper.currentPart);                                          // register it for pitch computation
         }
 
         // attribute ppq is ignored as the converter defines an own ppq resolution
@@ -1088,7 +1363,7 @@ public class Mei extends meico.xml.XmlBase {
 
         if (s != null) {
 //            s.addAttribute(new Attribute("currentDate", (this.helper.currentMeasure != null) ? this.helper.currentMeasure.getAttributeValue("date") : "0.0"));  // set currentDate of processing
-            s.addAttribute(new Attribute("currentDate", this.helper.getMidiTimeAsString()));    // set currentDate of processing
+            this.helper.setCurrentDate(s, this.helper.getMidiTime());                           // set currentDate of processing
             this.helper.currentPart = s;                                                        // if that part entry was found, return it
         }
         else {            // the part was not found, create one
@@ -1122,6 +1397,7 @@ public class Mei extends meico.xml.XmlBase {
             d.addAttribute(new Attribute("oct", layerDef.getAttributeValue("octave.default")));                     // copy the value
             Helper.copyId(layerDef, d);                                                                             // copy the id
             this.helper.addLayerAttribute(d);                                                                       // add an attribute that indicates the layer
+            this.helper.addToTimeline(d, this.helper.currentPart);                                                  // register it for pitch computation
         }
 
         if (this.helper.currentPart == null) {                                                                      // if the layer is globally defined
@@ -1140,25 +1416,25 @@ public class Mei extends meico.xml.XmlBase {
         Element parentLayer = this.helper.currentLayer;                                                                 // if we are already in a staff environment, store it, otherwise it is null
         this.helper.currentLayer = layer;                                                                               // keep track of this current layer as long as we process its children
 
-        String oldDate = this.helper.currentPart.getAttribute("currentDate").getValue();                                // store currentDate in oldDate for later use
+        double oldDate = this.helper.getCurrentDate(this.helper.currentPart);                                           // store currentDate in oldDate for later use
 
         this.convert(layer);                                                                                            // process everything within this environment
 
-        layer.addAttribute(new Attribute("currentDate", this.helper.currentPart.getAttribute("currentDate").getValue()));// store the currentDate in the layer element to later determine the latest of these dates as the staff's part's currentDate
+        layer.addAttribute(new Attribute("currentDate", Double.toString(this.helper.getCurrentDate(this.helper.currentPart))));  // store the currentDate in the layer element to later determine the latest of these dates as the staff's part's currentDate
         this.helper.accid.clear();                                                                                      // accidentals are valid only within one layer, so forget them
         this.helper.currentLayer = parentLayer;                                                                         // we are done processing this layer, get back to the parent layer or null
         if (Helper.getNextSiblingElement("layer", layer) != null)                                                       // if there are more layers in this staff environment
-            this.helper.currentPart.getAttribute("currentDate").setValue(oldDate);                                      // set back to the old currentDate, because each layer is a parallel to the other layers
+            this.helper.setCurrentDate(this.helper.currentPart, oldDate);                                               // set back to the old currentDate, because each layer is a parallel to the other layers
         else {                                                                                                          // no further layers in this staff environment, this was the last layer in this staff
             // take the latest layer-specific currentDate as THE definitive currentDate of this part
             Nodes layers = layer.getParent().query("child::*[local-name()='layer']");
-            double latestDate = Double.parseDouble(this.helper.currentPart.getAttribute("currentDate").getValue());
+            double latestDate = this.helper.getCurrentDate(this.helper.currentPart);
             for (int j = layers.size() - 1; j >= 0; --j) {
                 double date = Double.parseDouble(((Element)layers.get(j)).getAttributeValue("currentDate"));            // get the layer's date
                 if (latestDate < date)                                                                                  // if this layer's date is later than latestDate so far
                     latestDate = date;                                                                                  // set latestDate to date
             }
-            this.helper.currentPart.getAttribute("currentDate").setValue(Double.toString(latestDate));                  // write it to the part for later reference
+            this.helper.setCurrentDate(this.helper.currentPart, latestDate);                                            // write it to the part for later reference
         }
     }
 
@@ -1380,7 +1656,7 @@ public class Mei extends meico.xml.XmlBase {
                 this.helper.tstamp2s.add(phraseMapEntry);                                                       // add the element to the helper's tstamp2s list
             } else if (endid != null) {                                                                         // if this phrase element has to be terminated with at an endid-referenced element
                 phraseMapEntry.addAttribute(new Attribute("endid", endid.getValue()));                          // add the endid attribute to the element (must be deleted later!)
-                this.helper.endids.add(phraseMapEntry);                                                         // add the element to the helper's endids list
+                this.helper.addEndid(phraseMapEntry);                                                           // add the element to the helper's endids list
             }
 
             Element phraseMap = this.helper.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("phraseMap"); // find the global phraseMap (there is no local phraseMap as this cannot be encoded in MEI)
@@ -1415,7 +1691,7 @@ public class Mei extends meico.xml.XmlBase {
                         this.helper.tstamp2s.add(phraseMapEntry);                                               // add the element to the helper's tstamp2s list
                     } else if (endid != null) {                                                                 // if this phrase element has to be terminated with at an endid-referenced element
                         phraseMapEntry.addAttribute(new Attribute("endid", endid.getValue()));                  // add the endid attribute to the element (must be deleted later!)
-                        this.helper.endids.add(phraseMapEntry);                                                 // add the element to the helper's endids list
+                        this.helper.addEndid(phraseMapEntry);                                                   // add the element to the helper's endids list
                     }
 
                     Element phraseMap = parts.get(p).getFirstChildElement("dated").getFirstChildElement("phraseMap");
@@ -1511,11 +1787,11 @@ public class Mei extends meico.xml.XmlBase {
 
             double defaultLocalMeasureDuration = (ts == null) ? defaultGlobalMeasureDuration : this.helper.computeMeasureLength(Double.parseDouble(ts.getAttributeValue("numerator")), Double.parseDouble(ts.getAttributeValue("denominator")));  // compute the measure's (preliminary) length from the time signature
             partsDefaultDurations.put(part, defaultLocalMeasureDuration);
-            double actualPartMeasureDuration = Double.parseDouble(part.getAttributeValue("currentDate")) - startDate;   // compute the actual duration it has in this measure
+            double actualPartMeasureDuration = this.helper.getCurrentDate(part) - startDate;                    // compute the actual duration it has in this measure
 
             // if the duration matches the measure's default duration or it is less and has to be extended, in every other case we have to adapt the measure's duration to its actual fill state, so we set the part's measure duration accordingly
             double d = ((actualPartMeasureDuration == defaultLocalMeasureDuration) || ((actualPartMeasureDuration < defaultLocalMeasureDuration) && metcon)) ? defaultLocalMeasureDuration : actualPartMeasureDuration;
-            part.getAttribute("currentDate").setValue(Double.toString(d + startDate));                          // set the currentDate attribute
+            this.helper.setCurrentDate(part, d + startDate);                                                    // set the currentDate
             if (d > longestDuration)                                                                            // if this is longer than the longest duration so far
                 longestDuration = d;                                                                            // keep it
         }
@@ -1682,16 +1958,7 @@ public class Mei extends meico.xml.XmlBase {
                         oct = parentNote.getAttributeValue("oct.ges");                  // get its value string
                     } else {                                                            // no oct.ges on the note
                         if (this.helper.currentPart != null) {                          // try finding a default octave
-                            Elements octs = this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("oct.default");                              // get all local default octaves
-                            if (octs.size() == 0) {                                                                                                                                             // if there is none
-                                octs = this.helper.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("oct.default");// get all global default octaves
-                            }
-                            for (int i = octs.size() - 1; i >= 0; --i) {                                                                                                                        // search from back to front
-                                if ((octs.get(i).getAttribute("layer") == null) || octs.get(i).getAttributeValue("layer").equals(Helper.getLayerId(Helper.getLayer(accid)))) {                  // for a default octave with no layer dependency or a matching layer
-                                    oct = octs.get(i).getAttributeValue("oct.default");                                                                                                         // take this value
-                                    break;                                                                                                                                                      // break the for loop
-                                }
-                            }
+                            oct = this.helper.getDefaultOctave(Helper.getLayerId(Helper.getLayer(accid)));    // get the local or global default octave
                             if (oct == null)                                            // if no octave information was found
                                 return;                                                 // this accidental cannot be processed in Helper.computePitch(), so we stop here
                         }
@@ -1846,7 +2113,7 @@ public class Mei extends meico.xml.XmlBase {
 
         part = Msm.makePart(label, number, midiChannel, midiPort);                                              // create MSM part element
 
-        part.addAttribute(new Attribute("currentDate", (this.helper.currentMeasure != null) ? this.helper.currentMeasure.getAttributeValue("date") : "0.0"));    // set currentDate of processing
+        this.helper.setCurrentDate(part, (this.helper.currentMeasure != null) ? Double.parseDouble(this.helper.currentMeasure.getAttributeValue("date")) : 0.0);    // set currentDate of processing
 
         this.helper.currentMsmMovement.appendChild(part);                                                       // insert it into movement
 
@@ -2059,10 +2326,10 @@ public class Mei extends meico.xml.XmlBase {
             dur = this.helper.computeDuration(chord);                       // compute its duration
         }
         else {                                                              // if the dur attribute is missing
-            Nodes durs = chord.query("descendant::*[attribute::dur]");      // get all child elements with a dur attribute
+            ArrayList<Element> durs = Helper.getAllDescendantElements(chord, d -> d.getAttribute("dur") != null);  // get all child elements with a dur attribute
             double idur = 0.0;
             for (int i=0; i < durs.size(); ++i) {                           // for each child element with a dur attribute
-                idur = this.helper.computeDuration((Element)durs.get(i));   // compute its duration
+                idur = this.helper.computeDuration(durs.get(i));            // compute its duration
                 if (idur > dur) dur = idur;                                 // if it is longer than the longest duration so far, store this in variable dur
             }
         }
@@ -2072,14 +2339,14 @@ public class Mei extends meico.xml.XmlBase {
 
         this.helper.checkSlurs(chord);                                      // check pending slurs to find out if this chord should be legato articulated
 
-        if (chord.query("descendant::*[local-name()='artic']").size() > 0)  // if this chord has articulation children, these will potentially be relevant to all notes within this chord
+        if (!Helper.getAllDescendantElements(chord, a -> a.getLocalName().equals("artic")).isEmpty())   // if this chord has articulation children, these will potentially be relevant to all notes within this chord
             chord.addAttribute(new Attribute("hasArticulations", "true"));  // set a "flag" to signal this to the note processing in method processNote()
         this.processArtic(chord);                                           // if the chord has attributes artic.ges or artic, this method call makes sure these are processed
 
         this.convert(chord);                                                // process everything within this chord
         this.helper.currentChord = f;                                       // foget the pointer to this chord and return to the surrounding environment or nullptr
         if (this.helper.currentChord == null) {                             // we are done with all chord/bTrem/fTrem environments
-            this.helper.currentPart.getAttribute("currentDate").setValue(Double.toString((Double.parseDouble(this.helper.currentPart.getAttributeValue("currentDate")) + dur))); // draw currentDate
+            this.helper.setCurrentDate(this.helper.currentPart, this.helper.getCurrentDate(this.helper.currentPart) + dur);    // draw currentDate
         }
     }
 
@@ -2090,10 +2357,10 @@ public class Mei extends meico.xml.XmlBase {
      */
     private boolean processTuplet(Element tuplet) {
         if (tuplet.getAttribute("dur") != null) {
-            double cd = Double.parseDouble(this.helper.currentPart.getAttributeValue("currentDate"));   // store the current date for use afterwards
+            double cd = this.helper.getCurrentDate(this.helper.currentPart);                            // store the current date for use afterwards
             this.convert(tuplet);                                        // process the child elements
             double dur = this.helper.computeDuration(tuplet);
-            this.helper.currentPart.getAttribute("currentDate").setValue(Double.toString(cd + dur));    // this compensates for numeric problems with the single note durations within the tuplet
+            this.helper.setCurrentDate(this.helper.currentPart, cd + dur);                              // this compensates for numeric problems with the single note durations within the tuplet
             return true;
         }
         return false;
@@ -2134,7 +2401,7 @@ public class Mei extends meico.xml.XmlBase {
                 this.helper.tstamp2s.add(clone);                                                        // add the element to the helper's tstamp2s list
             } else if (endid != null) {                                                                 // if this element has to be terminated with an endid-referenced element
 //                clone.addAttribute(new Attribute("endid", endid.getValue()));                           // add the endid attribute to the element (must be deleted later!)
-                this.helper.endids.add(clone);                                                          // add the element to the helper's endids list
+                this.helper.addEndid(clone);                                                            // add the element to the helper's endids list
             }
 
             // add element to the local miscMap/tupletSpanMap; during duration computation (helper.computeDuration()) this map is scanned for applicable entries
@@ -2165,7 +2432,7 @@ public class Mei extends meico.xml.XmlBase {
                         this.helper.tstamp2s.add(clone);                                                // add the element to the helper's tstamp2s list
                     } else if (endid != null) {                                                         // if this pedal element has to be terminated with at an endid-referenced element
 //                        clone.addAttribute(new Attribute("endid", endid.getValue()));                   // add the endid attribute to the element (must be deleted later!)
-                        this.helper.endids.add(clone);                                                  // add the element to the helper's endids list
+                        this.helper.addEndid(clone);                                                    // add the element to the helper's endids list
                     }
 
                     // add element to the local miscMap/tupletSpanMap; during duration computation (helper.computeDuration()) this map is scanned for applicable entries
@@ -2336,7 +2603,7 @@ public class Mei extends meico.xml.XmlBase {
             this.helper.tstamp2s.add(dynamics);                                                             // add the element to the helper's tstamp2s list
         } else if (endid != null) {                                                                         // if this dynamics element has to be terminated with at an endid-referenced element
             dynamics.addAttribute(new Attribute("endid", endid.getValue()));                                // add the endid attribute to the element (must be deleted later!)
-            this.helper.endids.add(dynamics);                                                               // add the element to the helper's endids list
+            this.helper.addEndid(dynamics);                                                                 // add the element to the helper's endids list
         }
 
         return index;
@@ -2446,7 +2713,7 @@ public class Mei extends meico.xml.XmlBase {
             this.helper.tstamp2s.add(tempo);                                                        // add the element to the helper's tstamp2s list
         } else if (endid != null) {                                                                 // if this tempo element has to be terminated with at an endid-referenced element
             tempo.addAttribute(new Attribute("endid", endid.getValue()));                           // add the endid attribute to the element (must be deleted later!)
-            this.helper.endids.add(tempo);                                                          // add the element to the helper's endids list
+            this.helper.addEndid(tempo);                                                            // add the element to the helper's endids list
         }
 
         return index;
@@ -2513,10 +2780,10 @@ public class Mei extends meico.xml.XmlBase {
                 boolean multiIDs = false;
                 boolean multiSlurIDs = false;
                 // copy the artic to all notes within this chord that are not yet processed, for all others generate the articulation entry in MPM
-                Nodes notes = parent.query("descendant::*[local-name()='note']");                                                           // get all note elements within this chord
+                ArrayList<Element> notes = Helper.getAllDescendantElements(parent, n -> n.getLocalName().equals("note"));                   // get all note elements within this chord
                 for (int i = 0; i < notes.size(); ++i) {                                                                                    // for each note element
-                    Element note = (Element) notes.get(i);
-                    Nodes subArtics = note.query("descendant::*[local-name()='artic']");                                                    // get its child articulations
+                    Element note = notes.get(i);
+                    ArrayList<Element> subArtics = Helper.getAllDescendantElements(note, a -> a.getLocalName().equals("artic"));            // get its child articulations
                     if ((note.getAttribute("artic") != null) || (note.getAttribute("artic.ges") != null) || (subArtics.size() > 0))         // if the note has local articulation data
                         continue;                                                                                                           // it overwrites the present ones, hence we do not add the present articulation to that note
 
@@ -2837,7 +3104,7 @@ public class Mei extends meico.xml.XmlBase {
 
             if (endid != null) {                                                                        // if this element has to be terminated with an endid-referenced element
                 slurMisc.addAttribute(new Attribute("endid", endid.getValue()));                        // add the endid attribute to the element (must be deleted later!)
-                this.helper.endids.add(slurMisc);
+                this.helper.addEndid(slurMisc);
             }
 
             if (endDate != null)                                                                        // if there is an endDate known
@@ -2850,6 +3117,7 @@ public class Mei extends meico.xml.XmlBase {
 
             Element miscMap = this.helper.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap"); // find the global miscMap
             Helper.addToMap(slurMisc, miscMap);                                                         // insert in global miscMap
+            this.helper.addSlur(slurMisc, null);                                                        // register it so it will be applied to the notes
         }
         else {
             // there are staffs, hence, local slur
@@ -2877,7 +3145,7 @@ public class Mei extends meico.xml.XmlBase {
 
                     if (endid != null) {                                                                // if this element has to be terminated with an endid-referenced element
                         slurMisc.addAttribute(new Attribute("endid", endid.getValue()));                // add the endid attribute to the element (must be deleted later!)
-                        this.helper.endids.add(slurMisc);
+                        this.helper.addEndid(slurMisc);
                     }
 
                     if (endDate != null)
@@ -2890,6 +3158,7 @@ public class Mei extends meico.xml.XmlBase {
 
                     Element miscMap = parts.get(p).getFirstChildElement("dated").getFirstChildElement("miscMap");
                     Helper.addToMap(slurMisc, miscMap);
+                    this.helper.addSlur(slurMisc, parts.get(p));                                        // register it so it will be applied to the notes
                 }
             }
         }
@@ -2969,11 +3238,11 @@ public class Mei extends meico.xml.XmlBase {
                 else {                                                              // otherwise
                     first = Helper.cloneElement(es.get(es.size() - 2));             // get the second to last time signature element
                 }
-                first.addAttribute(new Attribute("date", this.helper.currentPart.getAttributeValue("currentDate")));  // draw date of first  to currentDate
+                first.addAttribute(new Attribute("date", Double.toString(this.helper.getCurrentDate(this.helper.currentPart))));  // draw date of first  to currentDate
 
                 // set date of the last time signature element to the beginning of currentDate + 1 measure
                 double timeframe2 = (4.0 * this.helper.ppq * Double.parseDouble(first.getAttributeValue("numerator"))) / Double.parseDouble(first.getAttributeValue("denominator"));// compute the length of one measure of time signature element first
-                second.getAttribute("date").setValue(Double.toString(Double.parseDouble(this.helper.currentPart.getAttributeValue("currentDate")) + timeframe2));                   // draw date of second time signature element
+                second.getAttribute("date").setValue(Double.toString(this.helper.getCurrentDate(this.helper.currentPart) + timeframe2));                                        // draw date of second time signature element
 
                 // add both instructions to the timeSignatureMap
                 Helper.addToMap(first, (Element)es.get(0).getParent());
@@ -3034,40 +3303,52 @@ public class Mei extends meico.xml.XmlBase {
     }
 
     /**
-     * repeats the material at the end of the score map, attribute timeframe specifies the length of the frame to be repeatetd (in midi ticks)
+     * repeats the material at the end of the score map, attribute timeframe specifies the length of the frame to be repeatetd (in midi ticks);
+     * the msm events of the timeframe are replayed with a date offset, their ids are derived from the source ids and the new date
      * @param timeframe the timeframe to be repeated in midi ticks
      */
     private void processRepeat(double timeframe) {
-        if ((this.helper.currentPart == null)                                                                                       // if no part
-        || (this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("score").getChildElements().size() == 0)) {  // or no music data
+        if (this.helper.currentPart == null)                                                                                        // if no part
+            return;                                                                                                                 // nothing to repeat, hence, cancel
+
+        Element score = this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("score");
+        Elements events = score.getChildElements();                                                                                 // the events in the score map, sorted by date
+        if (events.size() == 0)                                                                                                     // no music data
             return;                                                                                                                 // nothing to repeat, hence, cancel
-        }
 
-        double currentDate = Double.parseDouble(this.helper.currentPart.getAttributeValue("currentDate"));                          // get the current date
+        double currentDate = this.helper.getCurrentDate(this.helper.currentPart);                                                   // get the current date
         double startDate = currentDate - timeframe;                                                                                 // compute the date of the beginning of the timeframe to be repeated
         String layer = Helper.getLayerId(this.helper.currentLayer);                                                                 // get the id of the current layer
-        Stack<Element> els = new Stack<Element>();
 
-        // go back in the score map, copy all elements with date at and after the last beat, recalculate the date (date += beat value)
-        for (Element e = this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("score").getChildElements().get(this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("score").getChildElements().size()-1); e != null; e = Helper.getPreviousSiblingElement(e)) {
-            double date = Double.parseDouble(e.getAttributeValue("date"));                                                          // get date of the element
-            if (date < startDate) break;                                                                                            // if all elements from the previous beat were collected, break the for loop
-            if (layer.isEmpty() || ((e.getAttribute("layer") != null) && e.getAttributeValue("layer").equals(layer))) {             // if no need to consider layers or the layer of e matches the currentLayer
-                Element copy = Helper.cloneElement(e);                                                                              // make a new element
-                copy.getAttribute("date").setValue(Double.toString(date + timeframe));                                              // draw its date attribute
-                Attribute id = Helper.getAttribute("id", copy);                                                                     // get the id attribute
-                if (id != null)                                                                                                     // if the element has an id
-                    id.setValue("meico_repeats_" + id.getValue() + "_" + UUID.randomUUID().toString());                             // give it a new unique one of the following form: "meico_repeats_oldID_newUUID"
-                els.push(copy);                                                                                                     // push the copy onto the els stack
-            }
-        }
+        // go back in the score map to the first element at or after the beginning of the timeframe
+        int first = events.size();
+        while ((first > 0) && (Double.parseDouble(events.get(first - 1).getAttributeValue("date")) >= startDate))
+            --first;
+
+        // replay all elements of the timeframe with their date shifted by the timeframe
+        for (int i = first; i < events.size(); ++i) {
+            Element e = events.get(i);
+            if (!layer.isEmpty() && ((e.getAttribute("layer") == null) || !e.getAttributeValue("layer").equals(layer)))         // if we have to consider layers and the layer of e does not match the currentLayer
+                continue;
 
-        // append the elements in the els stack to the score map
-        for (; !els.empty(); els.pop()) {
-            Helper.addToMap(els.peek(), this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("score"));       // append element to score and pop from stack
+            double date = Double.parseDouble(e.getAttributeValue("date")) + timeframe;                                              // the date of the repetition
+            Element copy = Helper.cloneElement(e);                                                                                  // make a new element
+            copy.getAttribute("date").setValue(Double.toString(date));                                                              // draw its date attribute
+            Attribute id = Helper.getAttribute("id", copy);                                                                         // get the id attribute
+            if (id != null) {                                                                                                       // if the element has an id
+                Attribute sourceId = copy.getAttribute("repeatSource");                                                             // if e is a repetition itself, this holds the id of the original element
+                if (sourceId == null) {                                                                                             // e is an original element
+                    sourceId = new Attribute("repeatSource", id.getValue());                                                        // keep its id, so ids do not grow with the number of repetitions; the attribute is removed by Helper.msmCleanup()
+                    copy.addAttribute(sourceId);
+                }
+                id.setValue("meico_repeats_" + sourceId.getValue() + "_" + date);                                                   // derive a new unique one of the following form: "meico_repeats_oldID_date"
+            }
+            Helper.addToMap(copy, score);                                                                                           // insert the copy into the score map
+            if (copy.getAttribute("tie") != null)                                                                                   // if the copy is tied to its successor
+                this.helper.addOpenTie(copy, this.helper.currentPart);                                                              // register it
         }
 
-        this.helper.currentPart.getAttribute("currentDate").setValue(Double.toString(currentDate + timeframe));                     // draw currentDate counter
+        this.helper.setCurrentDate(this.helper.currentPart, currentDate + timeframe);                                               // draw currentDate counter
     }
 
 
@@ -3084,7 +3365,7 @@ public class Mei extends meico.xml.XmlBase {
             return;
 
         Helper.addToMap(rest, this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("score"));                     // insert in movement
-        this.helper.currentPart.getAttribute("currentDate").setValue(Double.toString(Double.parseDouble(this.helper.currentPart.getAttributeValue("currentDate")) + Double.parseDouble(rest.getAttributeValue("duration"))));  // draw currentDate
+        this.helper.setCurrentDate(this.helper.currentPart, this.helper.getCurrentDate(this.helper.currentPart) + Double.parseDouble(rest.getAttributeValue("duration")));  // draw currentDate
     }
 
     /**
@@ -3133,7 +3414,7 @@ public class Mei extends meico.xml.XmlBase {
         if (num > 1)                                                                        // if multiple measures (more than 1)
             rest.getAttribute("duration").setValue(Double.toString(Double.parseDouble(rest.getAttributeValue("duration")) * num));    // rest duration of one measure times the number of measures
 
-        this.helper.currentPart.getAttribute("currentDate").setValue(Double.toString(Double.parseDouble(this.helper.currentPart.getAttributeValue("currentDate")) + Double.parseDouble(rest.getAttributeValue("duration")))); // draw currentDate counter
+        this.helper.setCurrentDate(this.helper.currentPart, this.helper.getCurrentDate(this.helper.currentPart) + Double.parseDouble(rest.getAttributeValue("duration")));  // draw currentDate counter
     }
 
     /**
@@ -3150,7 +3431,7 @@ public class Mei extends meico.xml.XmlBase {
 
         s.addAttribute(new Attribute("duration", Double.toString(dur)));                                       // else store attribute
         this.helper.addLayerAttribute(s);                                                                           // add an attribute that indicates the layer
-        this.helper.currentPart.getAttribute("currentDate").setValue(Double.toString(Double.parseDouble(this.helper.currentPart.getAttributeValue("currentDate")) + dur));  // draw currentDate counter
+        this.helper.setCurrentDate(this.helper.currentPart, this.helper.getCurrentDate(this.helper.currentPart) + dur);                             // draw currentDate counter
         Helper.addToMap(s, this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("score"));    // insert the new note into the part->dated->score
 
         // this is just for the debugging in mei
@@ -3240,11 +3521,12 @@ public class Mei extends meico.xml.XmlBase {
                 this.helper.tstamp2s.add(trans);                                                        // add the element to the helper's tstamp2s list
             } else if (endid != null) {                                                                 // if this element has to be terminated with an endid-referenced element
                 trans.addAttribute(new Attribute("endid", endid.getValue()));                           // add the endid attribute to the element (must be deleted later!)
-                this.helper.endids.add(trans);                                                          // add the element to the helper's endids list
+                this.helper.addEndid(trans);                                                            // add the element to the helper's endids list
             }
 
             Element miscMap = this.helper.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap"); // find the global miscMap
             Helper.addToMap(trans, miscMap);                                                            // insert in global miscMap
+            this.helper.addToTimeline(trans, null);                                                     // register it for pitch computation
         }
         else {                                                                                          // there are staffs, hence, local octave transposition instruction
             String staffString = att.getValue();
@@ -3273,11 +3555,12 @@ public class Mei extends meico.xml.XmlBase {
                         this.helper.tstamp2s.add(trans);                                                // add the element to the helper's tstamp2s list
                     } else if (endid != null) {                                                         // if this pedal element has to be terminated with at an endid-referenced element
                         trans.addAttribute(new Attribute("endid", endid.getValue()));                   // add the endid attribute to the element (must be deleted later!)
-                        this.helper.endids.add(trans);                                                  // add the element to the helper's endids list
+                        this.helper.addEndid(trans);                                                    // add the element to the helper's endids list
                     }
 
                     Element miscMap = parts.get(p).getFirstChildElement("dated").getFirstChildElement("miscMap");
                     Helper.addToMap(trans, miscMap);
+                    this.helper.addToTimeline(trans, parts.get(p));                                     // register it for pitch computation
                     this.helper.addLayerAttribute(trans);                                               // add an attribute that indicates the layer (this will only take effect if the element has a @startid as this will cause the element to be placed within a layer during preprocessing)
                     multiIDs = true;
                 }
@@ -3325,7 +3608,7 @@ public class Mei extends meico.xml.XmlBase {
                 this.helper.tstamp2s.add(pedalMapEntry);                                                        // add the element to the helper's tstamp2s list
             } else if (endid != null) {                                                                         // if this pedal element has to be terminated with at an endid-referenced element
                 pedalMapEntry.addAttribute(new Attribute("endid", endid.getValue()));                           // add the endid attribute to the element (must be deleted later!)
-                this.helper.endids.add(pedalMapEntry);                                                          // add the element to the helper's endids list
+                this.helper.addEndid(pedalMapEntry);                                                            // add the element to the helper's endids list
             }
 
             Element pedalMap = this.helper.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("pedalMap"); // find the global pedalMap
@@ -3358,7 +3641,7 @@ public class Mei extends meico.xml.XmlBase {
                         this.helper.tstamp2s.add(pedalMapEntry);                                                // add the element to the helper's tstamp2s list
                     } else if (endid != null) {                                                                 // if this pedal element has to be terminated with at an endid-referenced element
                         pedalMapEntry.addAttribute(new Attribute("endid", endid.getValue()));                   // add the endid attribute to the element (must be deleted later!)
-                        this.helper.endids.add(pedalMapEntry);                                                  // add the element to the helper's endids list
+                        this.helper.addEndid(pedalMapEntry);                                                    // add the element to the helper's endids list
                     }
 
                     Element pedalMap = parts.get(p).getFirstChildElement("dated").getFirstChildElement("pedalMap");
@@ -3416,7 +3699,7 @@ public class Mei extends meico.xml.XmlBase {
 
         // draw currentDate counter
         if (this.helper.currentChord == null)                                   // the next instruction must be suppressed in the chord environment
-            this.helper.currentPart.getAttribute("currentDate").setValue(Double.toString(date + dur));  // draw currentDate counter
+            this.helper.setCurrentDate(this.helper.currentPart, date + dur);                           // draw currentDate counter
 
         //adding some attributes to the mei source, this is only for the debugging in mei
         note.addAttribute(new Attribute("pnum", String.valueOf(pitch)));
@@ -3437,20 +3720,18 @@ public class Mei extends meico.xml.XmlBase {
                 break;
             case 'i':                                                           // the tie starts here
                 s.addAttribute(new Attribute("tie", "true"));                   // indicate that this notes is tied to its successor (with same pitch)
+                this.helper.addOpenTie(s, this.helper.currentPart);             // register it, so the successor can find it
                 break;
             case 'm':                                                           // intermedieate tie
             case 't': {                                                        // the tie ends here
-                Nodes ps = this.helper.currentPart.getFirstChildElement("dated").getFirstChildElement("score").query("descendant::*[local-name()='note' and @tie]");    // select all preceding msm notes with a tie attribute
-                for (int i = ps.size() - 1; i >= 0; --i) {                                                                                                              // check each of them
-                    Element p = ((Element) ps.get(i));
-                    if (p.getAttributeValue("midi.pitch").equals(s.getAttributeValue("midi.pitch"))                                                                               // if the pitch is equal
-                            && ((Double.parseDouble(p.getAttributeValue("date")) + Double.parseDouble(p.getAttributeValue("duration"))) == date)                             // and the tie note and this note are next to each other (there is zero time between them and they do not overlap)
-                    ) {
-                        p.addAttribute(new Attribute("duration", Double.toString(Double.parseDouble(p.getAttributeValue("duration")) + dur)));                          // add this duration to the preceeding note with the same pitch
-                        if (tie == 't')                                         // terminal tie
-                            p.removeAttribute(p.getAttribute("tie"));           // delete tie attribute
-                        return;                                                 // this note is not to be stored in the score, it only extends its predecessor; remark: if no fitting note is found, this note will be stored in the score map because this line is not reached
-                    }
+                Element p = this.helper.removeOpenTie(s.getAttributeValue("midi.pitch"), date, this.helper.currentPart);    // find the preceding tied note with the same pitch that ends where this note starts (there is zero time between them and they do not overlap)
+                if (p != null) {
+                    p.addAttribute(new Attribute("duration", Double.toString(Double.parseDouble(p.getAttributeValue("duration")) + dur)));                              // add this duration to the preceeding note with the same pitch
+                    if (tie == 't')                                             // terminal tie
+                        p.removeAttribute(p.getAttribute("tie"));               // delete tie attribute
+                    else                                                        // intermediate tie
+                        this.helper.addOpenTie(p, this.helper.currentPart);     // the tie is still open, now it ends at the end of this note
+                    return;                                                     // this note is not to be stored in the score, it only extends its predecessor; remark: if no fitting note is found, this note will be stored in the score map because this line is not reached
                 }
             }
         }
@@ -3479,17 +3760,9 @@ public class Mei extends meico.xml.XmlBase {
         Element e = this.getMusic();                                            // get the music element
         if (e == null) return 0;                                                // none found, no music, return 0
 
-        // traverse the mei tree, starting at the music element, and find the shortest duration (greatest value of dur/dur.ges attribute)
-//        Nodes durs = e.query(".//*[@dur]");                                     // get all nodes that have a dur attribute
-        Nodes durs = e.query("descendant::*[attribute::dur]");                  // get all nodes that have a dur attribute
-        double dur = 4.0;                                                       // initial value is "long"
-        for (int i = durs.size()-1; i >= 0; --i) {
-            double d = (((Element) durs.get(i)).getAttribute("dur") != null) ? Helper.duration2decimal(((Element) durs.get(i)).getAttributeValue("dur")) : 4.0;  // get the dur value
-            int dots = (((Element)durs.get(i)).getAttribute("dots") != null) ? Integer.parseInt(((Element)durs.get(i)).getAttributeValue("dots")) : 0;          // dotted values require the prcision to be doubled
-            for (; dots > 0; --dots)                                            // for each dot; variable d holds what has to be added to the dur value
-                d /= 2;                                                         // half d
-            if (dur > d) dur = d;
-        }
+        // the index holds the shortest duration (greatest value of dur attribute, dots included) within the music element
+        MeiIndex index = (this.index == null) ? new MeiIndex(this.getRootElement()) : this.index;
+        double dur = index.getMinimalDuration();
 
         double result = 0.25 / dur;                                             // this is the result, how much ticks are the minimum required to represent the shortest note value in the mei
 
@@ -3515,88 +3788,130 @@ public class Mei extends meico.xml.XmlBase {
         Element e = this.getRootElement();                                                              // this also includes the meiHead section, not only the music section, as there might be reference from music into the head
         if (e == null) return null;
 
-        ArrayList<String> notResolved = new ArrayList<String>();                                             // store those ids that are not resolved
-        HashMap<Element, String> previousPlaceholders = new HashMap<Element, String>();                               // this is a copy of the placeholders hashmap in the while loop; if it does not change from one iteration to the next, there is a placeholder refering to another placeholder refering back to the first; this cannot be resolved and leads to an infinite loop; this hashmap here is to detect this situation
+        ArrayList<String> notResolved = new ArrayList<String>();                                        // store those ids that are not resolved
+        HashMap<String, Element> elements = new HashMap<String, Element>();                             // this hashmap will be filled with elements and their ids
+        LinkedHashMap<Element, String> placeholders = new LinkedHashMap<Element, String>();             // this hashmap will be filled with placeholder elements that have a copyof attribute and the id in the copyof, in document order
 
         System.out.print("Resolving copyofs and sameas's:");
 
-        while (true) {                                                                                  // this loop can only be exited if no placeholders are left (it is possible that multiple runs are necessary when placeholders are within placeholders)
-            HashMap<String, Element> elements = new HashMap<String, Element>();                                       // this hashmap will be filled with elements and their ids
-            HashMap<Element, String> placeholders = new HashMap<Element, String>();                                   // this hashmap will be filled with placeholder elements that have a copyof attribute and the id in the copyof
-
-            Nodes all = e.query("descendant::*[attribute::copyof or attribute::sameas or attribute::xml:id]");  // get all elements with a copyof, sameas or xml:id attribute
-            for (int i = 0; i < all.size(); ++i) {                                                      // for each of them
-                Element element = (Element) all.get(i);                                                 // make an Element out of it
-
-                Attribute a = element.getAttribute("copyof");                                           // get the copyof attribute, if there is one
-                if (a == null)                                                                          // no copyof attribute?
-                    a = element.getAttribute("sameas");                                                 // then maybe a sameas
-                if (a != null) {                                                                        // if there is a copyof or sameas attribute
-                    String copyof = a.getValue();                                                       // get its value
-                    if (copyof.charAt(0) == '#') copyof = copyof.substring(1);                          // local references within the document usually start with #; this must be excluded when searching for the id
-                    placeholders.put(element, copyof);                                                  // put that entry on the placeholder hashmap
-                    //continue;                                                                         // this element may also have an xml:id, so it must be added to the other list as well and we later on have the possibility to resolve references of placeholders to other placeholders
-                }
-
-                a = element.getAttribute("id", "http://www.w3.org/XML/1998/namespace");                 // get the element's xml:id
-                if (a != null) {                                                                        // if it has one
-                    elements.put(a.getValue(), element);                                                // put it on the elements hashmap
-                }
+        // get the elements with a copyof, sameas or xml:id attribute from the document index
+        MeiIndex index = (this.index == null) ? new MeiIndex(e) : this.index;
+        elements.putAll(index.getIds());                                                                // put all elements with an xml:id on the elements hashmap
+        for (Element element : index.getPlaceholders()) {                                               // for each element with a copyof or sameas attribute
+            Attribute a = element.getAttribute("copyof");                                               // get the copyof attribute, if there is one
+            if (a == null)                                                                              // no copyof attribute?
+                a = element.getAttribute("sameas");                                                     // then maybe a sameas
+            String copyof = a.getValue();                                                               // get its value
+            if (copyof.charAt(0) == '#') copyof = copyof.substring(1);                                  // local references within the document usually start with #; this must be excluded when searching for the id
+            placeholders.put(element, copyof);                                                          // put that entry on the placeholder hashmap
+        }
+
+        if (placeholders.isEmpty()) {                                                                   // nothing to do
+            System.out.println(" done");
+            return notResolved;
+        }
+
+        System.out.print(" " + placeholders.size() + " copyofs and sameas's ...");
+        this.index = null;                                                                              // the document will be changed, so the index has to be recreated afterwards
+
+        // placeholders that refer to ids that do not exist cannot be resolved
+        HashMap<Element, ArrayList<Element>> referencedBy = new HashMap<Element, ArrayList<Element>>(); // for each referred element the placeholders that want a copy of it
+        for (Iterator<Map.Entry<Element, String>> it = placeholders.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Element, String> placeholder = it.next();
+            Element found = elements.get(placeholder.getValue());                                       // search the elements hashmap for the id
+            if (found == null) {                                                                        // if no element with this id has been found
+                notResolved.add(placeholder.getKey().toXML());                                          // add entry to the return list
+                placeholder.getKey().detach();                                                          // delete the placeholder from the xml, we cannot process it anyway
+                it.remove();
+                continue;
             }
+            referencedBy.computeIfAbsent(found, k -> new ArrayList<>()).add(placeholder.getKey());
+        }
 
-            if (placeholders.size() == 0) break;                                                        // we are done, this stops the while loop
-
-            // detect placeholders that cannot be resolved but lead to infinite loops because of circular references
-            if ((placeholders.values().containsAll(previousPlaceholders.values()))
-                    && previousPlaceholders.values().containsAll(placeholders.values())) {              // if the same copyof references recur
-                for (Map.Entry<Element, String> placeholder : placeholders.entrySet()) {
-                    notResolved.add(placeholder.getKey().toXML());                                      // add all entries to the return list
-                    placeholder.getKey().getParent().removeChild(placeholder.getKey());                 // delete all placeholders from the xml, we cannot resolve them anyway
-                }
-                System.err.print(" circular copyof or sameas referencing detected, cannot be resolved,");
-                break;                                                                                  // stop the while loop
+        // build the dependency graph: a placeholder can only be resolved after all placeholders in the subtree of its referred element are resolved
+        HashMap<Element, ArrayList<Element>> dependents = new HashMap<Element, ArrayList<Element>>();   // placeholder -> placeholders that have to wait for it
+        HashMap<Element, Integer> pending = new HashMap<Element, Integer>();                            // placeholder -> number of placeholders it still waits for
+        for (Element placeholder : placeholders.keySet())
+            pending.put(placeholder, 0);
+        for (Element placeholder : placeholders.keySet()) {
+            for (ParentNode ancestor = placeholder; ancestor instanceof Element; ancestor = ancestor.getParent()) {    // the placeholder itself and all its ancestors may be referred to
+                ArrayList<Element> refs = referencedBy.get(ancestor);
+                if (refs == null)
+                    continue;
+                dependents.computeIfAbsent(placeholder, k -> new ArrayList<>()).addAll(refs);
+                for (Element ref : refs)
+                    pending.put(ref, pending.get(ref) + 1);
             }
-            previousPlaceholders = placeholders;
-
-            System.out.print(" " + placeholders.size() + " copyofs and sameas's ...");
+        }
 
-            // replace alle placeholders in the xml tree by copies of the source
-            for (Map.Entry<Element, String> placeholder : placeholders.entrySet()) {                    // for each placeholder
-                Element found = elements.get(placeholder.getValue());                                   // search the elements hashmap for the id
+        // topological sort of the placeholders; those that are resolvable go into the queue, in document order
+        ArrayDeque<Element> queue = new ArrayDeque<Element>();
+        for (Element placeholder : placeholders.keySet())
+            if (pending.get(placeholder) == 0)
+                queue.add(placeholder);
 
-                if (found == null) {                                                                    // if no element with this id has been found
-                    notResolved.add(placeholder.getKey().toXML());                                      // add entry to the return list
-                    placeholder.getKey().getParent().removeChild(placeholder.getKey());                 // delete the placeholder from the xml, we cannot process it anyway
-                    continue;                                                                           // continue with the next placeholder
-                }
+        HashMap<Element, Element> replacements = new HashMap<Element, Element>();                      // placeholder -> the copy that replaced it, needed if a placeholder refers to another placeholder
+        HashMap<String, String> sourceIds = new HashMap<String, String>();                              // generated id -> the id of the original element it was derived from
+        while (!queue.isEmpty()) {
+            Element placeholder = queue.poll();
 
-                // make the replacement
-                Element copy = found.copy();                                                               // make a deep copy of the source
+            Element found = elements.get(placeholders.get(placeholder));                                // get the referred element
+            Element replacement = replacements.get(found);
+            if (replacement != null)                                                                    // if the referred element was a placeholder itself, it has already been replaced
+                found = replacement;                                                                    // so we copy its replacement
 
-                try {
-                    placeholder.getKey().getParent().replaceChild(placeholder.getKey(), copy);          // replace the placeholder by it
-//                System.out.println("replacing: " + placeholder.getKey().toElement() + "\nby\n" + copy.toElement() + "\n\n");
-                } catch (NoSuchChildException | NullPointerException | IllegalAddException error) {     // if something went wrong, I don't know why as none of these exceptions should occur, just to be sure
-                    error.printStackTrace();                                                            // print error
-                    notResolved.add(placeholder.getKey().toXML());                                      // add entry to the return list
-                    continue;
-                }
+            // make the replacement
+            Element copy = found.copy();                                                                // make a deep copy of the source, all placeholders in it are already resolved
+            try {
+                placeholder.getParent().replaceChild(placeholder, copy);                                // replace the placeholder by it
+                replacements.put(placeholder, copy);
+            } catch (NoSuchChildException | NullPointerException | IllegalAddException error) {         // if something went wrong, I don't know why as none of these exceptions should occur, just to be sure
+                error.printStackTrace();                                                                // print error
+                notResolved.add(placeholder.toXML());                                                   // add entry to the return list
+            }
 
+            if (replacements.containsKey(placeholder)) {
                 // generate new ids for those elements with a copied id
                 Nodes ids = copy.query("descendant-or-self::*[@xml:id]");                                                   // get all the nodes with an xml:id attribute
                 for (int j = 0; j < ids.size(); ++j) {                                                                      // go through all the nodes
                     Element idElement = (Element) ids.get(j);
-                    String uuid = idElement.getAttributeValue("id", "http://www.w3.org/XML/1998/namespace") + "_meico_" + UUID.randomUUID().toString();   // generate new ids for them
+                    String copiedId = idElement.getAttributeValue("id", "http://www.w3.org/XML/1998/namespace");
+                    String sourceId = sourceIds.getOrDefault(copiedId, copiedId);                                          // if the copied element is a copy itself, derive the new id from the original id, so ids do not grow with the nesting depth
+                    String uuid = sourceId + "_meico_" + UUID.randomUUID().toString();                                      // generate new ids for them
                     idElement.getAttribute("id", "http://www.w3.org/XML/1998/namespace").setValue(uuid);                    // and write into the attribute
+                    sourceIds.put(uuid, sourceId);
                 }
 
                 // but keep the possibly existing placeholder id for the copy's root node
-                Attribute id = placeholder.getKey().getAttribute("id", "http://www.w3.org/XML/1998/namespace");             // get the placeholder's xml:id
+                Attribute id = placeholder.getAttribute("id", "http://www.w3.org/XML/1998/namespace");                      // get the placeholder's xml:id
                 if (id != null) {                                                                                           // if the placeholder has one
-                    copy.getAttribute("id", "http://www.w3.org/XML/1998/namespace").setValue(id.getValue());     // set the copy's id to the id of the placeholder
+                    copy.getAttribute("id", "http://www.w3.org/XML/1998/namespace").setValue(id.getValue());                // set the copy's id to the id of the placeholder
                 }
             }
+
+            // the placeholders that waited for this one may now be ready
+            ArrayList<Element> waiting = dependents.get(placeholder);
+            if (waiting == null)
+                continue;
+            for (Element w : waiting) {
+                int p = pending.get(w) - 1;
+                pending.put(w, p);
+                if (p == 0)
+                    queue.add(w);
+            }
+        }
+
+        // placeholders that are still pending are part of or depend on circular references
+        boolean circular = false;
+        for (Element placeholder : placeholders.keySet()) {
+            if (pending.get(placeholder) == 0)
+                continue;
+            circular = true;
+            notResolved.add(placeholder.toXML());                                                       // add all entries to the return list
+            placeholder.detach();                                                                       // delete all placeholders from the xml, we cannot resolve them anyway
         }
+        if (circular)
+            System.err.print(" circular copyof or sameas referencing detected, cannot be resolved,");
 
         System.out.println(" done");
 
@@ -3624,18 +3939,24 @@ public class Mei extends meico.xml.XmlBase {
 
         System.out.print("Replacing rend elements by their values:");
 
+        if (this.index == null)
+            this.index = new MeiIndex(this.getRootElement());
+
         int count = 0;
-        Nodes rends = e.query("descendant::*[local-name()='rend']");    // get all rend elements
-        for (int i = 0; i < rends.size(); ++i) {                        // for each of them
-            Element r = (Element) rends.get(i);                         // make an Element from it
+        boolean structureChanged = false;
+        for (Element r : this.index.getRends()) {                       // for each rend element
             Element parent = (Element) r.getParent();                   // get its parent
             if (parent == null)
                 continue;
 
+            structureChanged |= (r.getChildElements().size() > 0);      // if the rend contains elements, these are gone afterwards
             parent.appendChild(r.getValue());
             parent.removeChild(r);
             count++;
         }
+        this.index.getRends().clear();                                  // the rends are all gone
+        if (structureChanged)                                           // the index does no longer correspond to the document
+            this.index = null;                                          // drop it
 
         System.out.println(" done, " + count + " rends replaced");
     }
@@ -3646,59 +3967,65 @@ public class Mei extends meico.xml.XmlBase {
      */
     public synchronized void resolveExpansions() {
         System.out.print("Resolving Expansions:");
-        this.getRootElement().replaceChild(this.getMusic(), this.resolveExpansions(this.getMusic()));   // replace the whole music subtree by its regularized version
+        if ((this.index != null) && this.index.getElements("expansion").isEmpty()) {                    // the index tells us that there are no expansions to resolve
+            System.out.println(" done");
+            return;
+        }
+        this.resolveExpansions(this.getMusic());                                                        // regularize the whole music subtree
+        this.index = null;                                                                              // the index refers to the old music subtree
         System.out.println(" done");
     }
 
     /**
      * Expansion elements in MEI indicate the sequence in which sibling section and ending elements have to be arranged.
-     * This method creates a regularized, i.e. "through-composed", MEI that renders the expansions.
-     * The MEI tree is scanned recursively and expansions are resolved.
+     * This method regularizes, i.e. "through-composes", the subtree of root in place.
+     * The MEI tree is scanned recursively and expansions are resolved. The existing elements are rearranged,
+     * only those that occur more than once in a plist are copied, and the copies get derived ids.
      * @param root from this element on the whole subtree will be resolved
-     * @return the regularized version root (can be used to replace root)
      */
-    private synchronized Element resolveExpansions(Element root) {
-        Element regularizedRoot = (Element) root.copy();                                    // create a deep copy of root to be edited and returned
-        Element expansion = Helper.getFirstChildElement("expansion", regularizedRoot);      // this will hold the expansion element to resolve, or null if there is none
+    private synchronized void resolveExpansions(Element root) {
+        Element expansion = Helper.getFirstChildElement("expansion", root);                 // this will hold the expansion element to resolve, or null if there is none
         List<String> plist = null;                                                          // this will hold all the xml:id's from the expansion's plist in the order to be played, i.e., the plist says how to rearrange the expansion's siblings
+        HashSet<String> plistIds = null;                                                    // the same ids for quick lookup
 
         // first some cleanup, find and remove stuff so it causes no processing effort later on
         if (expansion != null) {
-            // remove all expansion elements from this regularizedRoot
-            Elements expansions = regularizedRoot.getChildElements("expansion");            // get all expansion elements that are present as direct children of regularizedRoot
-            for (int i = expansions.size() - 1; i >= 0; --i)                                // delete all expansion elements from the regularizedRoot
-                regularizedRoot.removeChild(expansions.get(i));
+            // remove all expansion elements from this root
+            Elements expansions = root.getChildElements("expansion");                       // get all expansion elements that are present as direct children of root
+            for (int i = expansions.size() - 1; i >= 0; --i)                                // delete all expansion elements from the root
+                root.removeChild(expansions.get(i));
 
             // parse the plist and write its content to expansionSequence
             if (expansion.getAttribute("plist") != null) {                                  // if the expansion has a plist attribute
                 plist = Arrays.asList(expansion.getAttributeValue("plist").trim().replaceAll("#","").split("\\s+")); // fill plist with the xml:id's from the plist attribute; before this, leading and trailing whitespaces are removed, multiple whitespaces are reduced, # are removed, what remains are the pure xml:id's stored in a List object
+                plistIds = new HashSet<>(plist);
             }
             else                                                                            // an expansion with no plist is not valid (meico does not interpret this as an empty plist which would simply clear the whole subtree)
                 expansion = null;                                                           // set expansion to null so it won't cause further processing effort
         }
 
         // for efficiency reasons we make a depth first recursive resolution, this means bottom-up, first go down, then do the resolution
-        Elements children = regularizedRoot.getChildElements();                             // get all child elements of regularizedRoot
-        for (int i = children.size() - 1; i >= 0; --i) {                                    // go through all children of regularizedRoot
+        Elements children = root.getChildElements();                                        // get all child elements of root
+        for (int i = children.size() - 1; i >= 0; --i) {                                    // go through all children of root
             Element child = children.get(i);                                                // get the current child element
 
             if (expansion != null) {                                                        // if there is an expression element with a plist attribute
                 Attribute childId = Helper.getAttribute("id", child);                       // get the child's id
-                if (childId == null || !plist.contains(childId.getValue())) {               // if it does not have one, it cannot be in the plist and will not be played or the id is not in the plist, again the child will not be played
-                    regularizedRoot.removeChild(child);                                     // hence, delete it
+                if (childId == null || !plistIds.contains(childId.getValue())) {            // if it does not have one, it cannot be in the plist and will not be played or the id is not in the plist, again the child will not be played
+                    root.removeChild(child);                                                // hence, delete it
                     continue;                                                               // continue with the next child
                 }
             }
 
-            regularizedRoot.replaceChild(child, this.resolveExpansions(child));             // replace this child by its regularization
+            this.resolveExpansions(child);                                                  // regularize this child
         }
 
-        // now do the regularization on the current regularizedRoot's children, i.e. duplicate and rearrange its children as indicated by the plist
+        // now do the regularization on the current root's children, i.e. duplicate and rearrange its children as indicated by the plist
         if (expansion != null) {                                                            // if there is an expansion element
-            HashMap<String, Element> childHash = new HashMap<String, Element>();            // HashMap with (id, element) pairs to be filled with the children of regularizedRoot
+            HashMap<String, Element> childHash = new HashMap<String, Element>();            // HashMap with (id, element) pairs to be filled with the children of root
 
-            // detache all children from regularizedRoot and put them into the HashMap
-            for (Element child = Helper.getFirstChildElement(regularizedRoot); child != null; child = Helper.getFirstChildElement(regularizedRoot)) {
+            // detache all children from root and put them into the HashMap
+            for (Element child = Helper.getFirstChildElement(root); child != null; child = Helper.getFirstChildElement(root)) {
                 child.detach();                                                             // detach the child
                 String id = Helper.getAttributeValue("id", child);                          // get its id
                 childHash.put(id, child);                                                   // fill the HashMap
@@ -3707,26 +4034,32 @@ public class Mei extends meico.xml.XmlBase {
             // now append the former children according to the plist
             for (String aPlist : plist) {                                                   // for each plist entry
                 Element child = childHash.get(aPlist);                                      // get the child with the id from the HashMap
-                if (child != null) {
-                    try {
-                        regularizedRoot.appendChild(child);                                 // try to append it to regularizedRoot, this will fail if it has already been added
-                    } catch (MultipleParentException e) {                                   // when it has already been added
-                        Element copy = (Element) child.copy();                              // make a deep copy of child
-
-                        Nodes cs = copy.query("descendant-or-self::*[@xml:id or @id]");     // find all elements with an id attribute
-                        for (int i = 0; i < cs.size(); ++i) {                               // give them all unique ids
-                            Element c = (Element) cs.get(i);
-                            Attribute id = Helper.getAttribute("id", c);
-                            id.setValue("meico_expansion_of_" + id.getValue() + "_" + UUID.randomUUID().toString()); // the new IDs are of the following form: "meico_oldID_newUUID"
-                        }
-
-                        regularizedRoot.appendChild(copy);                                  // add the copy
-                    }
+                if (child == null)
+                    continue;
+                if (child.getParent() == null)                                              // the first occurrence of child
+                    root.appendChild(child);                                                // is the original
+                else {                                                                      // each further occurrence is a copy
+                    Element copy = child.copy();                                            // make a deep copy of child
+                    Mei.deriveExpansionIds(copy, "_" + UUID.randomUUID().toString());       // give all elements in it unique ids of the following form: "meico_expansion_of_oldID_newUUID"
+                    root.appendChild(copy);                                                 // add the copy
                 }
             }
         }
+    }
 
-        return regularizedRoot;
+    /**
+     * a helper method for resolveExpansions(), it gives the element and all its descendants with an id new ids that derive from the old ones
+     * @param e
+     * @param suffix a suffix that is unique for this copy
+     */
+    private static void deriveExpansionIds(Element e, String suffix) {
+        Attribute id = Helper.getAttribute("id", e);
+        if (id != null)
+            id.setValue("meico_expansion_of_" + id.getValue() + suffix);
+        for (int i = 0; i < e.getChildCount(); ++i) {
+            if (e.getChild(i) instanceof Element)
+                Mei.deriveExpansionIds((Element) e.getChild(i), suffix);
+        }
     }
 
     /** this method adds ids to note, rest, ... and chord elements in mei, as far as they do not have an id
@@ -3741,16 +4074,18 @@ public class Mei extends meico.xml.XmlBase {
             return 0;
         }
 
-        Nodes e = root.query("descendant::*[(local-name()='measure' or local-name()='note' or local-name()='rest' or local-name()='mRest' or local-name()='multiRest' or local-name()='chord' or local-name()='tuplet' or local-name()='mdiv' or local-name()='reh' or local-name()='section') and not(@xml:id)]");
-        for (int i = 0; i < e.size(); ++i) {                                    // go through all the nodes
+        List<Element> e = ((this.index == null) ? new MeiIndex(root) : this.index).getMissingIds();    // get all measure, note, rest, mRest, multiRest, chord, tuplet, mdiv, reh and section elements without an xml:id
+        for (Element element : e) {                                             // go through all the nodes
             String uuid = "meico_" + UUID.randomUUID().toString();              // generate new ids for them
             Attribute a = new Attribute("id", uuid);                            // create an attribute
             a.setNamespace("xml", "http://www.w3.org/XML/1998/namespace");      // set its namespace to xml
-            ((Element) e.get(i)).addAttribute(a);                               // add attribute to the node
+            element.addAttribute(a);                                            // add attribute to the node
         }
+        int count = e.size();
+        this.index = null;                                                      // the index does not know the new ids
 
         System.out.println(" done");
 
-        return e.size();
+        return count;
     }
 }
\ No newline at end of file
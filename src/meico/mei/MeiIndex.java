@@ -0,0 +1,159 @@
+package meico.mei;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class indexes an MEI document in one single traversal of the tree.
+ * The preprocessing and conversion in class Mei use it instead of running several XPath queries over the whole document.
+ * The index reflects the document at the time of its creation. After structural changes of the document it has to be dropped and recreated.
+ * @author Axel Berndt.
+ */
+class MeiIndex {
+    private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+    private static final HashSet<String> ID_REQUIRED = new HashSet<>(Arrays.asList("measure", "note", "rest", "mRest", "multiRest", "chord", "tuplet", "mdiv", "reh", "section"));    // the elements that addIds() provides with ids
+
+    private final HashMap<String, ArrayList<Element>> elementsByName = new HashMap<>();        // all elements (descendants of the root) by local name, in document order
+    private final HashMap<String, Element> ids = new HashMap<>();                               // all elements with an xml:id, by their xml:id
+    private final ArrayList<Element> placeholders = new ArrayList<>();                          // elements with a copyof or sameas attribute, in document order
+    private final ArrayList<Element> rends = new ArrayList<>();                                 // the rend elements within music, in document order
+    private final ArrayList<Element> missingIds = new ArrayList<>();                            // elements that addIds() should provide with an xml:id, in document order
+    private final HashMap<Element, HashMap<String, Element>> notesAndChords = new HashMap<>();  // for each mdiv the notes and chords with an xml:id within it
+    private double minimalDuration = 4.0;                                                       // the shortest duration (incl. dots) of an element with a dur attribute within music, 4.0 (i.e., "long") is the initial value as in Mei.computeMinimalPPQ()
+
+    /**
+     * constructor, this traverses the subtree of root and fills the index
+     * @param root usually the root element of the mei document
+     */
+    protected MeiIndex(Element root) {
+        if (root == null)
+            return;
+        ArrayList<HashMap<String, Element>> mdivs = new ArrayList<>();
+        for (int i = 0; i < root.getChildCount(); ++i) {
+            Node child = root.getChild(i);
+            if (child instanceof Element)
+                this.index((Element) child, false, mdivs);
+        }
+    }
+
+    /**
+     * the recursive traversal of the tree
+     * @param e the element to be indexed together with its subtree
+     * @param inMusic true if e is within the music element
+     * @param mdivs the note and chord indices of all mdivs that enclose e
+     */
+    private void index(Element e, boolean inMusic, ArrayList<HashMap<String, Element>> mdivs) {
+        String name = e.getLocalName();
+        this.elementsByName.computeIfAbsent(name, k -> new ArrayList<>()).add(e);
+
+        if ((e.getAttribute("copyof") != null) || (e.getAttribute("sameas") != null))
+            this.placeholders.add(e);
+
+        Attribute xmlid = e.getAttribute("id", XML_NAMESPACE);
+        if (xmlid != null)
+            this.ids.put(xmlid.getValue(), e);
+        else if (ID_REQUIRED.contains(name))
+            this.missingIds.add(e);
+
+        if (inMusic) {
+            if (name.equals("rend"))
+                this.rends.add(e);
+
+            if (e.getAttribute("dur") != null) {                                            // compute the duration as Mei.computeMinimalPPQ() did before
+                double d = Helper.duration2decimal(e.getAttributeValue("dur"));
+                int dots = (e.getAttribute("dots") != null) ? Integer.parseInt(e.getAttributeValue("dots")) : 0;
+                for (; dots > 0; --dots)
+                    d /= 2;
+                if (this.minimalDuration > d)
+                    this.minimalDuration = d;
+            }
+
+            if ((xmlid != null) && (name.equals("note") || name.equals("chord"))) {
+                String id = Helper.getAttributeValue("id", e);
+                for (HashMap<String, Element> mdiv : mdivs)
+                    mdiv.put(id, e);
+            }
+        }
+        else if (name.equals("music")) {
+            inMusic = true;
+        }
+
+        boolean isMdiv = inMusic && name.equals("mdiv");
+        if (isMdiv) {
+            HashMap<String, Element> mdiv = new HashMap<>();
+            this.notesAndChords.put(e, mdiv);
+            mdivs.add(mdiv);
+        }
+
+        for (int i = 0; i < e.getChildCount(); ++i) {
+            Node child = e.getChild(i);
+            if (child instanceof Element)
+                this.index((Element) child, inMusic, mdivs);
+        }
+
+        if (isMdiv)
+            mdivs.remove(mdivs.size() - 1);
+    }
+
+    /**
+     * get all elements with the given local name
+     * @param localName
+     * @return the elements in document order, the list may be empty but is never null
+     */
+    protected List<Element> getElements(String localName) {
+        ArrayList<Element> es = this.elementsByName.get(localName);
+        return (es == null) ? Collections.emptyList() : es;
+    }
+
+    /**
+     * @return the elements with an xml:id, by their xml:id
+     */
+    protected Map<String, Element> getIds() {
+        return this.ids;
+    }
+
+    /**
+     * @return the elements with a copyof or sameas attribute in document order
+     */
+    protected List<Element> getPlaceholders() {
+        return this.placeholders;
+    }
+
+    /**
+     * @return the rend elements within music in document order
+     */
+    protected List<Element> getRends() {
+        return this.rends;
+    }
+
+    /**
+     * @return the elements that addIds() has to provide with an xml:id, in document order
+     */
+    protected List<Element> getMissingIds() {
+        return this.missingIds;
+    }
+
+    /**
+     * @param mdiv
+     * @return the notes and chords with an xml:id within the mdiv, by their id, or null if the mdiv is not indexed
+     */
+    protected HashMap<String, Element> getNotesAndChords(Element mdiv) {
+        return this.notesAndChords.get(mdiv);
+    }
+
+    /**
+     * @return the shortest duration value (dots included) within music
+     */
+    protected double getMinimalDuration() {
+        return this.minimalDuration;
+    }
+}
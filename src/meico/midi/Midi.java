@@ -19,7 +19,8 @@ import java.net.URLDecoder;
 public class Midi {
 
     private File file = null;               // the midi file
-    private Sequence sequence = null;       // the midi sequence
+    private Sequence sequence = null;       // the midi sequence, it is created from smf on demand
+    private Smf smf = null;                 // the midi data in the compact form of the standard midi file codec, as long as no sequence is required
 
     /**
      * the most primitive constructor creates an empty MIDI sequence with default PPQ of 720
@@ -55,6 +56,26 @@ public class Midi {
         this.sequence = sequence;
     }
 
+    /**
+     * constructor, instantiates a Midi object from standard midi file data and sets the midi file (a possibly existing file is not loaded and writeMidi() will overwrite it)
+     *
+     * @param smf
+     * @param midifile target midi file
+     */
+    public Midi(Smf smf, File midifile) {
+        this.smf = smf;
+        this.file = midifile;
+    }
+
+    /**
+     * constructor, instantiates this class from standard midi file data
+     *
+     * @param smf
+     */
+    public Midi(Smf smf) {
+        this.smf = smf;
+    }
+
     /**
      * this constructor instantiates a Midi object from a midi file
      * @param midifile
@@ -66,13 +87,14 @@ public class Midi {
     }
 
     /**
-     * read a Midi file into the sequence
+     * read a Midi file; the sequence is not created before it is needed
      * @param file
      * @throws InvalidMidiDataException
      * @throws IOException
      */
     protected synchronized void readMidiFile(File file) throws InvalidMidiDataException, IOException {
-        this.sequence = MidiSystem.getSequence(file);
+        this.smf = Smf.read(file);
+        this.sequence = null;
         this.file = file;
     }
 
@@ -81,7 +103,7 @@ public class Midi {
      * @return
      */
     public boolean isEmpty() {
-        return (this.sequence == null);
+        return (this.sequence == null) && (this.smf == null);
     }
 
     /**
@@ -115,6 +137,12 @@ public class Midi {
      * @return
      */
     public synchronized int getMidiFileFormat() {
+        if (this.smf != null) {
+            if (this.smf.isFromFile())                                                                      // the codec knows the format of the file that was read
+                return this.smf.getFormat();
+            return (this.smf.getTrackCount() == 1) ? 0 : 1;                                                 // generated data with just one track are format 0, otherwise format 1
+        }
+
         int midiFileType;
         if ((this.file != null) && this.file.exists()) {                                                    // if there is a midi file
             try {
@@ -152,11 +180,19 @@ public class Midi {
     }
 
     /**
-     * this getter returns the midi sequence
+     * this getter returns the midi sequence; if the midi data are still in the compact form of the standard midi file codec, the sequence is created now
      *
      * @return the midi sequence
      */
-    public Sequence getSequence() {
+    public synchronized Sequence getSequence() {
+        if ((this.sequence == null) && (this.smf != null)) {
+            try {
+                this.sequence = this.smf.toSequence();
+                this.smf = null;                                                        // from now on the sequence holds the data, it may be altered by the application
+            } catch (InvalidMidiDataException e) {
+                e.printStackTrace();
+            }
+        }
         return this.sequence;
     }
 
@@ -166,6 +202,7 @@ public class Midi {
      */
     public synchronized void setSequence(Sequence sequence) {
         this.sequence = sequence;
+        this.smf = null;
     }
 
     /**
@@ -174,7 +211,11 @@ public class Midi {
      * @throws Exception
      */
     public synchronized int getPPQ() throws Exception {
-        if (this.sequence.getDivisionType() == Sequence.PPQ) {
+        if (this.smf != null) {
+            if (this.smf.isPPQ())
+                return this.smf.getResolution();
+        }
+        else if (this.getSequence().getDivisionType() == Sequence.PPQ) {
             return this.sequence.getResolution();
         }
         throw new Exception("Error: MIDI timing is in SMTPE, not PPQ!");
@@ -189,6 +230,21 @@ public class Midi {
         if (tempoMap == null)
             return null;
 
+        if (this.smf != null) {                                                         // read the tempo events directly from the compact data
+            for (int t = 0; t < this.smf.getTrackCount(); ++t) {
+                for (int e = 0; e < this.smf.getEventCount(t); ++e) {
+                    if (this.smf.getMetaType(t, e) == EventMaker.META_Set_Tempo) {
+                        java.nio.ByteBuffer data = this.smf.getData(t, e);
+                        byte[] bytes = new byte[data.remaining()];
+                        data.get(bytes);
+                        double bpm = 60000000.0 / EventMaker.byteArrayToInt(bytes);
+                        tempoMap.addTempo(this.smf.getTick(t, e), Double.toString(bpm), 0.25);
+                    }
+                }
+            }
+            return tempoMap;
+        }
+
         Track[] tracks = this.sequence.getTracks();                                     // get the individual tracks from the sequence
         for (Track track : tracks) {                                                    // go through all tracks
             for (int e = 0; e < track.size(); ++e) {                                    // for all the events in the track
@@ -212,6 +268,8 @@ public class Midi {
      * @return
      */
     public synchronized long getTickLength() {
+        if (this.smf != null)
+            return this.smf.getTickLength();
         return this.sequence.getTickLength();
     }
 
@@ -220,7 +278,7 @@ public class Midi {
      * @return
      */
     public synchronized long getMicrosecondLength() {
-        return this.sequence.getMicrosecondLength();
+        return this.getSequence().getMicrosecondLength();
     }
 
     /**
@@ -282,7 +340,7 @@ public class Midi {
      * @return the number of events changed
      */
     public synchronized int noteOns2NoteOffs() {
-        return Midi.noteOns2NoteOffs(this.sequence);
+        return Midi.noteOns2NoteOffs(this.getSequence());
     }
 
     /**
@@ -318,7 +376,7 @@ public class Midi {
      * @return the number of events changed
      */
     public synchronized int noteOffs2NoteOns() {
-        return Midi.noteOffs2NoteOns(this.sequence);
+        return Midi.noteOffs2NoteOns(this.getSequence());
     }
 
     /**
@@ -400,17 +458,21 @@ public class Midi {
     }
 
     /**
-     * write the sequence to a midi file
+     * write the sequence to a midi file (standard midi file format 1)
      * @param file
      * @return true if success, false if an error occurred
      */
     public synchronized boolean writeMidi(File file) {
+        Smf smf = (this.smf != null) ? this.smf : Smf.fromSequence(this.sequence);
+        int format = smf.getFormat();
         try {
-            file.createNewFile();                                   // create the file if it does not already exist
-            MidiSystem.write(this.sequence, 1, file);
+            smf.setFormat(1);
+            smf.write(file);
         } catch (IOException | SecurityException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            smf.setFormat(format);
         }
 
         return true;
@@ -457,7 +519,7 @@ public class Midi {
 
         AudioInputStream stream = null;             // the stream that the renerer fills
         try {
-            stream = renderer.renderMidi2Audio(this.sequence, soundbankFile);   // do rendering of midi sequence into audio stream
+            stream = renderer.renderMidi2Audio(this.getSequence(), soundbankFile);   // do rendering of midi sequence into audio stream
         } catch (MidiUnavailableException e) {
             e.printStackTrace();
         }
@@ -521,7 +583,17 @@ public class Midi {
         int midiFileFormat = this.getMidiFileFormat();
         System.out.println("MIDI file format " + midiFileFormat + " detected.");
 
-        Midi2MsmConverter converter = new Midi2MsmConverter(midiFileFormat, useDefaultInstrumentNames, this.sequence, msm);          // create a midi to msm converter instance
+        Midi2MsmConverter converter;
+        if (this.smf != null) {                                                                             // the converter gets a new sequence from the compact data, so it need not copy it
+            try {
+                converter = new Midi2MsmConverter(midiFileFormat, useDefaultInstrumentNames, this.smf.toSequence(), msm, false);
+            } catch (InvalidMidiDataException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        else
+            converter = new Midi2MsmConverter(midiFileFormat, useDefaultInstrumentNames, this.sequence, msm, true);       // create a midi to msm converter instance
         converter.convert();                                                                                // do the conversion, msm will hold the result
 
         // cleanup the msm code, remove empty maps
@@ -40,10 +40,22 @@ public class Midi2MsmConverter {
      * @param msm a minimal Msm instance to be filled with data, this will be the result
      */
     public Midi2MsmConverter(int midiFileFormat, boolean useDefaultInstrumentNames, Sequence sequence, Msm msm) {
+        this(midiFileFormat, useDefaultInstrumentNames, sequence, msm, true);
+    }
+
+    /**
+     * constructor
+     * @param midiFileFormat
+     * @param useDefaultInstrumentNames
+     * @param sequence
+     * @param msm
+     * @param copySequence set false if the sequence is a working copy already (e.g. created by Smf.toSequence()), it will be altered during the conversion
+     */
+    public Midi2MsmConverter(int midiFileFormat, boolean useDefaultInstrumentNames, Sequence sequence, Msm msm, boolean copySequence) {
         this.midiFileFormat = midiFileFormat;
         this.useDefaultInstrumentNames = useDefaultInstrumentNames;
 
-        this.sequence = Midi.cloneSequence(sequence);           // make a working copy of the midi sequence
+        this.sequence = copySequence ? Midi.cloneSequence(sequence) : sequence;  // make a working copy of the midi sequence
         if (this.sequence == null)                              // if failed to make a working copy
             this.sequence = sequence;                           // do the work with the original sequence (it may be altered and stay altered afterwards, hence, better the cloning works)
 
@@ -0,0 +1,652 @@
+package meico.midi;
+
+import javax.sound.midi.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class reads and writes Standard MIDI Files without the javax.sound.midi object model.
+ * The events of each track are held in primitive arrays (tick and packed channel message). The data of meta and sysex events are not copied when reading, they refer to the buffer of the file data (which may be memory-mapped, see readMapped()).
+ * A javax.sound.midi.Sequence is created only on demand, see toSequence().
+ * @author Axel Berndt
+ */
+public class Smf {
+    public static final int META_END_OF_TRACK = 0x2F;
+
+    private int format = 1;                                             // the standard midi file format (0, 1 or 2)
+    private boolean fromFile = false;                                   // true if the data were read from a midi file, then format is the format of that file
+    private int division;                                               // the division word of the header; positive values are pulses per quarter, otherwise the high byte is the negative SMPTE format and the low byte the ticks per frame
+    private final ArrayList<TrackData> tracks = new ArrayList<>();      // the tracks
+
+    /**
+     * this holds the events of one track
+     */
+    private static class TrackData {
+        private long[] ticks = new long[64];                            // the tick of each event
+        private int[] messages = new int[64];                           // channel messages packed as (status | data1 << 8 | data2 << 16), meta and sysex events as -(index in the data arrays + 1)
+        private int size = 0;                                           // the number of events
+        private long endTick = 0;                                       // the tick of the end of track event, it is not stored with the other events
+
+        private ByteBuffer data = null;                                 // the buffer that the data of meta and sysex events refer to
+        private byte[] ownData = null;                                  // if the data are not read from a file they are collected here
+        private int ownDataSize = 0;
+        private int[] dataTypes = new int[8];                           // the meta type (0-127) of meta events, 0xF0 or 0xF7 for sysex events
+        private int[] dataOffsets = new int[8];                         // the position of the data in the buffer
+        private int[] dataLengths = new int[8];                         // the length of the data
+        private int dataCount = 0;                                      // the number of meta and sysex events
+
+        /**
+         * add a channel message
+         * @param tick
+         * @param message packed as (status | data1 << 8 | data2 << 16)
+         */
+        private void add(long tick, int message) {
+            if (this.size == this.ticks.length) {
+                this.ticks = Arrays.copyOf(this.ticks, this.size * 2);
+                this.messages = Arrays.copyOf(this.messages, this.size * 2);
+            }
+            this.ticks[this.size] = tick;
+            this.messages[this.size] = message;
+            ++this.size;
+            if (tick > this.endTick)
+                this.endTick = tick;
+        }
+
+        /**
+         * add a meta or sysex event whose data are located in this.data
+         * @param tick
+         * @param type meta type or sysex status
+         * @param offset
+         * @param length
+         */
+        private void add(long tick, int type, int offset, int length) {
+            if (this.dataCount == this.dataTypes.length) {
+                this.dataTypes = Arrays.copyOf(this.dataTypes, this.dataCount * 2);
+                this.dataOffsets = Arrays.copyOf(this.dataOffsets, this.dataCount * 2);
+                this.dataLengths = Arrays.copyOf(this.dataLengths, this.dataCount * 2);
+            }
+            this.dataTypes[this.dataCount] = type;
+            this.dataOffsets[this.dataCount] = offset;
+            this.dataLengths[this.dataCount] = length;
+            ++this.dataCount;
+            this.add(tick, -this.dataCount);
+        }
+
+        /**
+         * add a meta or sysex event, its data are copied into this track's own buffer
+         * @param tick
+         * @param type meta type or sysex status
+         * @param bytes
+         */
+        private void add(long tick, int type, byte[] bytes) {
+            if (this.ownData == null) {
+                this.ownData = new byte[Math.max(256, bytes.length)];
+                this.data = null;
+            }
+            if (this.ownDataSize + bytes.length > this.ownData.length)
+                this.ownData = Arrays.copyOf(this.ownData, Math.max(this.ownData.length * 2, this.ownDataSize + bytes.length));
+            System.arraycopy(bytes, 0, this.ownData, this.ownDataSize, bytes.length);
+            this.add(tick, type, this.ownDataSize, bytes.length);
+            this.ownDataSize += bytes.length;
+            this.data = null;                                           // the buffer has to be wrapped again
+        }
+
+        /**
+         * @return the buffer that holds the meta and sysex data
+         */
+        private ByteBuffer getData() {
+            if ((this.data == null) && (this.ownData != null))
+                this.data = ByteBuffer.wrap(this.ownData, 0, this.ownDataSize);
+            return this.data;
+        }
+    }
+
+    /**
+     * constructor, creates an empty format 1 file
+     * @param ppq pulses per quarter
+     */
+    public Smf(int ppq) {
+        this.division = ppq;
+    }
+
+    /**
+     * read a midi file; the file is read into memory completely, so the result does not depend on the file and it may be overwritten
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws InvalidMidiDataException
+     */
+    public static Smf read(File file) throws IOException, InvalidMidiDataException {
+        return Smf.read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    }
+
+    /**
+     * read a midi file, the file is memory-mapped; this avoids copying the file data, e.g. when scanning a large corpus;
+     * the meta and sysex data of the result refer to the mapping, so the file must not be truncated or rewritten in place as long as the result is in use
+     * (write() replaces a file atomically, but other programs may not); Midi uses read(File) as it may save to the same file
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws InvalidMidiDataException
+     */
+    public static Smf readMapped(File file) throws IOException, InvalidMidiDataException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());   // the mapping remains valid after the channel is closed
+            return Smf.read(buffer);
+        }
+    }
+
+    /**
+     * parse midi file data; the meta and sysex data of the result refer to the buffer, so it should not be changed afterwards
+     * @param buffer
+     * @return
+     * @throws InvalidMidiDataException
+     */
+    public static Smf read(ByteBuffer buffer) throws InvalidMidiDataException {
+        ByteBuffer in = buffer.duplicate();
+        in.order(java.nio.ByteOrder.BIG_ENDIAN);
+        try {
+            if (in.getInt() != 0x4D546864)                                                      // "MThd"
+                throw new InvalidMidiDataException("Invalid MIDI file: missing header chunk.");
+            int headerLength = in.getInt();
+            if (headerLength < 6)
+                throw new InvalidMidiDataException("Invalid MIDI file: header chunk too short.");
+            int headerEnd = in.position() + headerLength;
+            Smf smf = new Smf(0);
+            smf.fromFile = true;
+            smf.format = in.getShort() & 0xFFFF;
+            int trackCount = in.getShort() & 0xFFFF;
+            smf.division = in.getShort() & 0xFFFF;
+            in.position(headerEnd);
+
+            while ((smf.tracks.size() < trackCount) && (in.remaining() >= 8)) {
+                int chunkType = in.getInt();
+                int chunkLength = in.getInt();
+                if ((chunkLength < 0) || (chunkLength > in.remaining()))
+                    throw new InvalidMidiDataException("Invalid MIDI file: chunk exceeds the file.");
+                int chunkEnd = in.position() + chunkLength;
+                if (chunkType == 0x4D54726B)                                                    // "MTrk"
+                    smf.tracks.add(Smf.readTrack(buffer, in, chunkEnd));
+                in.position(chunkEnd);                                                          // unknown chunks are skipped
+            }
+            return smf;
+        } catch (java.nio.BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {    // position() throws IllegalArgumentException
+            throw new InvalidMidiDataException("Invalid MIDI file: unexpected end of data.");
+        }
+    }
+
+    /**
+     * parse the events of a track chunk
+     * @param buffer the file buffer, the meta and sysex data refer to it
+     * @param in positioned at the first event
+     * @param end the end of the chunk
+     * @return
+     * @throws InvalidMidiDataException
+     */
+    private static TrackData readTrack(ByteBuffer buffer, ByteBuffer in, int end) throws InvalidMidiDataException {
+        TrackData track = new TrackData();
+        track.data = buffer;
+        long tick = 0;
+        int runningStatus = -1;
+
+        while (in.position() < end) {
+            tick += Smf.readVarInt(in);
+            int status = in.get() & 0xFF;
+            if (status < 0x80) {                                                                // running status, the byte is already the first data byte
+                if (runningStatus < 0)
+                    throw new InvalidMidiDataException("Invalid MIDI file: data byte without status at tick " + tick + ".");
+                in.position(in.position() - 1);
+                status = runningStatus;
+            }
+
+            if (status < 0xF0) {                                                                // channel message
+                runningStatus = status;
+                int data1 = in.get() & 0x7F;
+                int data2 = (Smf.getDataLength(status) > 1) ? (in.get() & 0x7F) : 0;
+                if (in.position() > end)
+                    throw new InvalidMidiDataException("Invalid MIDI file: channel message at tick " + tick + " exceeds the track chunk.");
+                track.add(tick, status | (data1 << 8) | (data2 << 16));
+            }
+            else if (status == 0xFF) {                                                          // meta event
+                int type = in.get() & 0xFF;
+                int length = Smf.readLength(in, end, tick);
+                if (type == META_END_OF_TRACK) {                                                // the rest of the chunk is ignored
+                    track.endTick = Math.max(track.endTick, tick);
+                    break;
+                }
+                track.add(tick, type, in.position(), length);
+                in.position(in.position() + length);
+            }
+            else if ((status == 0xF0) || (status == 0xF7)) {                                    // sysex event
+                int length = Smf.readLength(in, end, tick);
+                track.add(tick, status, in.position(), length);
+                in.position(in.position() + length);
+            }
+            else {
+                throw new InvalidMidiDataException("Invalid MIDI file: unexpected status byte " + status + " at tick " + tick + ".");
+            }
+        }
+        return track;
+    }
+
+    /**
+     * read the length of a meta or sysex event and check that its data are located within the chunk
+     * @param in positioned at the length
+     * @param end the end of the chunk
+     * @param tick the tick of the event, for the error message
+     * @return the length
+     * @throws InvalidMidiDataException
+     */
+    private static int readLength(ByteBuffer in, int end, long tick) throws InvalidMidiDataException {
+        long length = Smf.readVarInt(in);
+        if ((length < 0) || (length > end - in.position()))
+            throw new InvalidMidiDataException("Invalid MIDI file: event data at tick " + tick + " exceed the track chunk.");
+        return (int) length;
+    }
+
+    /**
+     * read a variable-length quantity
+     * @param in
+     * @return
+     */
+    private static long readVarInt(ByteBuffer in) {
+        long value = 0;
+        int b;
+        do {
+            b = in.get() & 0xFF;
+            value = (value << 7) | (b & 0x7F);
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * @param status
+     * @return the number of data bytes of a channel message with this status
+     */
+    private static int getDataLength(int status) {
+        switch (status & 0xF0) {
+            case 0xC0:
+            case 0xD0:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * convert a javax.sound.midi Sequence
+     * @param sequence
+     * @return
+     */
+    public static Smf fromSequence(Sequence sequence) {
+        int division;
+        float divisionType = sequence.getDivisionType();
+        if (divisionType == Sequence.PPQ)
+            division = sequence.getResolution();
+        else {
+            int frames = (divisionType == Sequence.SMPTE_30DROP) ? 29 : Math.round(divisionType);
+            division = (((-frames) & 0xFF) << 8) | (sequence.getResolution() & 0xFF);
+        }
+
+        Smf smf = new Smf(division);
+        for (Track t : sequence.getTracks()) {
+            TrackBuilder builder = new TrackBuilder();
+            for (int i = 0; i < t.size(); ++i)
+                builder.add(t.get(i));
+            builder.build(smf);
+        }
+        return smf;
+    }
+
+    /**
+     * append a new and empty track; it is filled by TrackBuilder.build()
+     * @return the index of the track
+     */
+    protected int createTrack() {
+        this.tracks.add(new TrackData());
+        return this.tracks.size() - 1;
+    }
+
+    /**
+     * append the tracks of another instance, e.g. tracks that were created concurrently; the tracks are not copied, so the other instance should not be altered afterwards
+     * @param other an instance with the same division
+     */
+    public void appendTracks(Smf other) {
+        this.tracks.addAll(other.tracks);
+    }
+
+    /**
+     * add a channel message to a track, the events must be added in the order of their ticks
+     * @param track
+     * @param tick
+     * @param message packed as (status | data1 << 8 | data2 << 16)
+     */
+    protected void addShortMessage(int track, long tick, int message) {
+        this.tracks.get(track).add(tick, message);
+    }
+
+    /**
+     * add an event to a track, the events must be added in the order of their ticks
+     * @param track
+     * @param event
+     */
+    protected void addEvent(int track, MidiEvent event) {
+        MidiMessage message = event.getMessage();
+        TrackData t = this.tracks.get(track);
+        if (message instanceof ShortMessage) {
+            ShortMessage m = (ShortMessage) message;
+            t.add(event.getTick(), m.getStatus() | (m.getData1() << 8) | (m.getData2() << 16));
+        }
+        else if (message instanceof MetaMessage) {
+            if (((MetaMessage) message).getType() == META_END_OF_TRACK) {                       // as in Track.add() the end of track event is not added but may extend the track
+                t.endTick = Math.max(t.endTick, event.getTick());
+                return;
+            }
+            t.add(event.getTick(), ((MetaMessage) message).getType(), ((MetaMessage) message).getData());
+        }
+        else if (message instanceof SysexMessage) {
+            t.add(event.getTick(), message.getStatus(), ((SysexMessage) message).getData());
+        }
+        else {
+            System.err.println("Unsupported MIDI message " + message.getClass() + " at tick " + event.getTick() + " is omitted.");
+        }
+    }
+
+    /**
+     * @return the standard midi file format
+     */
+    public int getFormat() {
+        return this.format;
+    }
+
+    /**
+     * @return true if the data were read from a midi file, false if they were generated
+     */
+    public boolean isFromFile() {
+        return this.fromFile;
+    }
+
+    /**
+     * @param format the standard midi file format (0, 1 or 2) that will be written to the header
+     */
+    public void setFormat(int format) {
+        this.format = format;
+    }
+
+    /**
+     * @return the division word of the header
+     */
+    public int getDivision() {
+        return this.division;
+    }
+
+    /**
+     * @return true if the timing is in pulses per quarter, false if SMPTE
+     */
+    public boolean isPPQ() {
+        return (this.division & 0x8000) == 0;
+    }
+
+    /**
+     * @return the timing resolution, pulses per quarter or ticks per frame
+     */
+    public int getResolution() {
+        return this.isPPQ() ? this.division : (this.division & 0xFF);
+    }
+
+    /**
+     * @return the number of tracks
+     */
+    public int getTrackCount() {
+        return this.tracks.size();
+    }
+
+    /**
+     * @param track
+     * @return the number of events in the track
+     */
+    public int getEventCount(int track) {
+        return this.tracks.get(track).size;
+    }
+
+    /**
+     * @param track
+     * @param event
+     * @return the tick of the event
+     */
+    public long getTick(int track, int event) {
+        return this.tracks.get(track).ticks[event];
+    }
+
+    /**
+     * @param track
+     * @param event
+     * @return the status byte of the event, 0xFF for meta events
+     */
+    public int getStatus(int track, int event) {
+        TrackData t = this.tracks.get(track);
+        int message = t.messages[event];
+        if (message >= 0)
+            return message & 0xFF;
+        int type = t.dataTypes[-message - 1];
+        return ((type == 0xF0) || (type == 0xF7)) ? type : 0xFF;
+    }
+
+    /**
+     * @param track
+     * @param event
+     * @return the first data byte of a channel message, -1 for other events
+     */
+    public int getData1(int track, int event) {
+        int message = this.tracks.get(track).messages[event];
+        return (message < 0) ? -1 : ((message >> 8) & 0x7F);
+    }
+
+    /**
+     * @param track
+     * @param event
+     * @return the second data byte of a channel message, -1 for other events
+     */
+    public int getData2(int track, int event) {
+        int message = this.tracks.get(track).messages[event];
+        return (message < 0) ? -1 : ((message >> 16) & 0x7F);
+    }
+
+    /**
+     * @param track
+     * @param event
+     * @return the meta type of a meta event, -1 for other events (the end of track events are not among the events, see getEndTick())
+     */
+    public int getMetaType(int track, int event) {
+        TrackData t = this.tracks.get(track);
+        int message = t.messages[event];
+        if (message >= 0)
+            return -1;
+        int type = t.dataTypes[-message - 1];
+        return ((type == 0xF0) || (type == 0xF7)) ? -1 : type;
+    }
+
+    /**
+     * @param track
+     * @param event
+     * @return a read-only view of the data of a meta or sysex event (without status, type and length), null for channel messages
+     */
+    public ByteBuffer getData(int track, int event) {
+        TrackData t = this.tracks.get(track);
+        int message = t.messages[event];
+        if (message >= 0)
+            return null;
+        int index = -message - 1;
+        ByteBuffer data = t.getData().asReadOnlyBuffer();
+        data.limit(t.dataOffsets[index] + t.dataLengths[index]);
+        data.position(t.dataOffsets[index]);
+        return data.slice();
+    }
+
+    /**
+     * @param track
+     * @return the tick of the track's end of track event
+     */
+    public long getEndTick(int track) {
+        return this.tracks.get(track).endTick;
+    }
+
+    /**
+     * @return the length of the longest track in ticks
+     */
+    public long getTickLength() {
+        long length = 0;
+        for (TrackData t : this.tracks)
+            if (t.endTick > length)
+                length = t.endTick;
+        return length;
+    }
+
+    /**
+     * create a javax.sound.midi Sequence from the data, e.g. for playback
+     * @return
+     * @throws InvalidMidiDataException
+     */
+    public Sequence toSequence() throws InvalidMidiDataException {
+        Sequence sequence;
+        if (this.isPPQ())
+            sequence = new Sequence(Sequence.PPQ, this.division);
+        else {
+            int frames = -((byte) (this.division >> 8));
+            float divisionType = (frames == 24) ? Sequence.SMPTE_24 : (frames == 25) ? Sequence.SMPTE_25 : (frames == 29) ? Sequence.SMPTE_30DROP : Sequence.SMPTE_30;
+            sequence = new Sequence(divisionType, this.division & 0xFF);
+        }
+
+        for (TrackData t : this.tracks) {
+            Track track = sequence.createTrack();
+            ByteBuffer data = t.getData();
+            for (int i = 0; i < t.size; ++i) {
+                int message = t.messages[i];
+                MidiMessage m;
+                if (message >= 0) {
+                    int status = message & 0xFF;
+                    m = (Smf.getDataLength(status) > 1) ? new ShortMessage(status, (message >> 8) & 0x7F, (message >> 16) & 0x7F) : new ShortMessage(status, (message >> 8) & 0x7F, 0);
+                }
+                else {
+                    int index = -message - 1;
+                    byte[] bytes = new byte[t.dataLengths[index]];
+                    ByteBuffer d = data.duplicate();
+                    d.position(t.dataOffsets[index]);
+                    d.get(bytes);
+                    int type = t.dataTypes[index];
+                    if ((type == 0xF0) || (type == 0xF7))
+                        m = new SysexMessage(type, bytes, bytes.length);
+                    else
+                        m = new MetaMessage(type, bytes, bytes.length);
+                }
+                track.add(new MidiEvent(m, t.ticks[i]));                                        // the events are in tick order, so this appends
+            }
+            track.add(new MidiEvent(new MetaMessage(META_END_OF_TRACK, new byte[0], 0), t.endTick));   // moves the end of track event if necessary
+        }
+        return sequence;
+    }
+
+    /**
+     * write the midi file; the data are written to a temporary file first that replaces the file only if writing succeeded
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        File temp = File.createTempFile(file.getName() + "_", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                this.write(out);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());                                                // if writing failed
+        }
+    }
+
+    /**
+     * write the midi file data to the stream; channel messages are written with running status
+     * @param out
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(0x4D546864);                                                               // "MThd"
+        dos.writeInt(6);
+        dos.writeShort(this.format);
+        dos.writeShort(this.tracks.size());
+        dos.writeShort(this.division);
+
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        for (TrackData t : this.tracks) {
+            chunk.reset();
+            ByteBuffer data = t.getData();
+            long lastTick = 0;
+            int runningStatus = -1;
+            for (int i = 0; i < t.size; ++i) {
+                long tick = t.ticks[i];
+                Smf.writeVarInt(chunk, tick - lastTick);
+                lastTick = tick;
+
+                int message = t.messages[i];
+                if (message >= 0) {                                                             // channel message
+                    int status = message & 0xFF;
+                    if (status != runningStatus) {
+                        chunk.write(status);
+                        runningStatus = status;
+                    }
+                    chunk.write((message >> 8) & 0x7F);
+                    if (Smf.getDataLength(status) > 1)
+                        chunk.write((message >> 16) & 0x7F);
+                    continue;
+                }
+
+                runningStatus = -1;                                                             // meta and sysex events cancel the running status
+                int index = -message - 1;
+                int type = t.dataTypes[index];
+                if ((type == 0xF0) || (type == 0xF7))
+                    chunk.write(type);
+                else {
+                    chunk.write(0xFF);
+                    chunk.write(type);
+                }
+                int length = t.dataLengths[index];
+                Smf.writeVarInt(chunk, length);
+                for (int b = t.dataOffsets[index], last = b + length; b < last; ++b)
+                    chunk.write(data.get(b));
+            }
+            Smf.writeVarInt(chunk, t.endTick - lastTick);                                       // every track ends with an end of track event
+            chunk.write(0xFF);
+            chunk.write(META_END_OF_TRACK);
+            chunk.write(0);
+
+            dos.writeInt(0x4D54726B);                                                           // "MTrk"
+            dos.writeInt(chunk.size());
+            chunk.writeTo(dos);
+        }
+        dos.flush();
+    }
+
+    /**
+     * write a variable-length quantity
+     * @param out
+     * @param value
+     */
+    private static void writeVarInt(ByteArrayOutputStream out, long value) {
+        int shift = 63 - Long.numberOfLeadingZeros(value | 1);                                  // the highest set bit
+        for (int s = (shift / 7) * 7; s > 0; s -= 7)
+            out.write((int) ((value >> s) & 0x7F) | 0x80);
+        out.write((int) (value & 0x7F));
+    }
+}
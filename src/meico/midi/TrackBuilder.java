@@ -0,0 +1,188 @@
+package meico.midi;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class collects the events of a MIDI track before the track is created.
+ * Channel messages are stored in primitive arrays. All events are sorted only once (stable, so events at the same tick keep their order) and then appended to the track.
+ * This avoids the ordered insertion of Track.add() for each single event.
+ * @author Axel Berndt
+ */
+public class TrackBuilder {
+    private long[] ticks = new long[256];                   // the tick of each event
+    private int[] messages = new int[256];                  // the channel messages packed as (status | data1 << 8 | data2 << 16), other events are stored as -(index in events + 1)
+    private final ArrayList<MidiEvent> events = new ArrayList<>();   // all events that are not channel messages
+    private int size = 0;                                   // the number of events
+
+    /**
+     * constructor
+     */
+    public TrackBuilder() {
+    }
+
+    /**
+     * @return the number of events collected so far
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * add an event, null is ignored as in Track.add()
+     * @param event
+     */
+    public void add(MidiEvent event) {
+        if (event == null)
+            return;
+        this.events.add(event);
+        this.append(event.getTick(), -this.events.size());
+    }
+
+    /**
+     * add a channel message; it is checked for validity when the track is built, invalid messages are skipped then
+     * @param command e.g. EventMaker.NOTE_ON
+     * @param channel
+     * @param tick
+     * @param data1
+     * @param data2
+     */
+    public void addShortMessage(int command, int channel, long tick, int data1, int data2) {
+        if ((command < 0x80) || (command > 0xEF) || (channel < 0) || (channel > 15) || (data1 < 0) || (data1 > 127) || (data2 < 0) || (data2 > 127)) {   // ShortMessage would not accept this
+            try {
+                new ShortMessage(command, channel, data1, data2);   // produce the same exception as EventMaker would
+            } catch (InvalidMidiDataException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        this.append(tick, (command & 0xF0) | channel | (data1 << 8) | (data2 << 16));
+    }
+
+    /**
+     * add a note on message, the velocity is clipped to [0, 127] as in EventMaker.createNoteOn()
+     * @param chan
+     * @param date
+     * @param pitch
+     * @param vel
+     */
+    public void addNoteOn(int chan, long date, int pitch, int vel) {
+        this.addShortMessage(EventMaker.NOTE_ON, chan, date, pitch, Math.max(0, Math.min(127, vel)));
+    }
+
+    /**
+     * add a note off message, the velocity is clipped to [0, 127] as in EventMaker.createNoteOff()
+     * @param chan
+     * @param date
+     * @param pitch
+     * @param vel
+     */
+    public void addNoteOff(int chan, long date, int pitch, int vel) {
+        this.addShortMessage(EventMaker.NOTE_OFF, chan, date, pitch, Math.max(0, Math.min(127, vel)));
+    }
+
+    /**
+     * store an event in the arrays
+     * @param tick
+     * @param message
+     */
+    private void append(long tick, int message) {
+        if (this.size == this.ticks.length) {
+            this.ticks = Arrays.copyOf(this.ticks, this.size * 2);
+            this.messages = Arrays.copyOf(this.messages, this.size * 2);
+        }
+        this.ticks[this.size] = tick;
+        this.messages[this.size] = message;
+        ++this.size;
+    }
+
+    /**
+     * sort the events by tick and append them to the track; the builder can be reused afterwards
+     * @param track usually a new and empty track
+     * @return the track
+     */
+    public Track build(Track track) {
+        int[] order = this.sort();
+        for (int i : order) {
+            int message = this.messages[i];
+            if (message < 0) {                                                  // not a channel message
+                track.add(this.events.get(-message - 1));
+                continue;
+            }
+            try {
+                track.add(new MidiEvent(new ShortMessage(message & 0xF0, message & 0x0F, (message >> 8) & 0x7F, (message >> 16) & 0x7F), this.ticks[i]));
+            } catch (InvalidMidiDataException e) {                              // cannot happen as the data are checked in addShortMessage()
+                e.printStackTrace();
+            }
+        }
+
+        this.size = 0;
+        this.events.clear();
+        return track;
+    }
+
+    /**
+     * sort the events by tick and append them as a new track to the standard midi file data; the builder can be reused afterwards
+     * @param smf
+     * @return the index of the new track
+     */
+    public int build(Smf smf) {
+        int track = smf.createTrack();
+        int[] order = this.sort();
+        for (int i : order) {
+            int message = this.messages[i];
+            if (message < 0)                                                    // not a channel message
+                smf.addEvent(track, this.events.get(-message - 1));
+            else
+                smf.addShortMessage(track, this.ticks[i], message);
+        }
+
+        this.size = 0;
+        this.events.clear();
+        return track;
+    }
+
+    /**
+     * stable sort of the event indices by tick
+     * @return the event indices in the order of their ticks
+     */
+    private int[] sort() {
+        int[] order = new int[this.size];
+        boolean sorted = true;
+        for (int i = 0; i < this.size; ++i) {
+            order[i] = i;
+            if ((i > 0) && (this.ticks[i] < this.ticks[i - 1]))
+                sorted = false;
+        }
+        if (sorted)                                                             // typically the case for the global track
+            return order;
+
+        // bottom-up merge sort, it is stable
+        int[] buffer = new int[this.size];
+        for (int width = 1; width < this.size; width *= 2) {
+            for (int left = 0; left < this.size; left += 2 * width) {
+                int mid = Math.min(left + width, this.size);
+                int right = Math.min(left + 2 * width, this.size);
+                int i = left, j = mid, k = left;
+                if ((mid >= right) || (this.ticks[order[mid - 1]] <= this.ticks[order[mid]])) {  // already in order
+                    System.arraycopy(order, left, buffer, left, right - left);
+                    continue;
+                }
+                while ((i < mid) && (j < right))
+                    buffer[k++] = (this.ticks[order[j]] < this.ticks[order[i]]) ? order[j++] : order[i++];
+                while (i < mid)
+                    buffer[k++] = order[i++];
+                while (j < right)
+                    buffer[k++] = order[j++];
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+}
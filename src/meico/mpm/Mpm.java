@@ -5,6 +5,7 @@ import meico.mpm.elements.metadata.Author;
 import meico.mpm.elements.metadata.Metadata;
 import meico.mpm.elements.Performance;
 import meico.msm.AbstractMsm;
+import meico.xml.BinaryXml;
 import nu.xom.*;
 import org.xml.sax.SAXException;
 
@@ -138,6 +139,30 @@ public class Mpm extends AbstractMsm {
         this.parseData();
     }
 
+    /**
+     * read an mpm that was written with writeBinaryFile()
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Mpm readBinaryFile(File file) throws IOException {
+        Mpm mpm = new Mpm(new BinaryXml(file).getDocument());
+        mpm.setFile(Helper.getFilenameWithoutExtension(file.getPath()) + ".mpm");
+        return mpm;
+    }
+
+    /**
+     * read a single performance of an mpm that was written with writeBinaryFile(), the other performances are skipped
+     * @param file
+     * @param name the name of the performance
+     * @return the performance or null if there is no performance with this name
+     * @throws IOException
+     */
+    public static Performance readBinaryPerformance(File file, String name) throws IOException {
+        Element xml = new BinaryXml(file).getChildElement("performance", "name", name);
+        return (xml == null) ? null : Performance.createPerformance(xml);
+    }
+
     /**
      * an Mpm factory
      * @return
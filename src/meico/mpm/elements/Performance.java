@@ -5,6 +5,7 @@ import meico.midi.Midi;
 import meico.mpm.Mpm;
 import meico.mpm.elements.maps.*;
 import meico.msm.Msm;
+import meico.msm.MsmOverlay;
 import meico.supplementary.KeyValue;
 import meico.xml.AbstractXmlSubtree;
 import nu.xom.Attribute;
@@ -12,7 +13,9 @@ import nu.xom.Element;
 import nu.xom.Elements;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.concurrent.*;
 
 /**
  * This class represents an mpm performance. One mpm document can hold several performances.
@@ -318,6 +321,29 @@ public class Performance extends AbstractXmlSubtree {
         this.setPulsesPerQuarter(ppq);
     }
 
+    /**
+     * create a converter between symbolic dates and milliseconds dates on the basis of the global rubatoMap and tempoMap
+     * @return
+     */
+    public TimingConverter createTimingConverter() {
+        return this.createTimingConverter(null);
+    }
+
+    /**
+     * create a converter between symbolic dates and milliseconds dates on the basis of the part's rubatoMap and tempoMap; if the part has none, the global maps are used as in perform()
+     * @param part the part or null for the global maps
+     * @return
+     */
+    public TimingConverter createTimingConverter(Part part) {
+        RubatoMap rubatoMap = (part == null) ? null : (RubatoMap) part.getDated().getMap(Mpm.RUBATO_MAP);
+        TempoMap tempoMap = (part == null) ? null : (TempoMap) part.getDated().getMap(Mpm.TEMPO_MAP);
+        if (rubatoMap == null)
+            rubatoMap = (RubatoMap) this.getGlobal().getDated().getMap(Mpm.RUBATO_MAP);
+        if (tempoMap == null)
+            tempoMap = (TempoMap) this.getGlobal().getDated().getMap(Mpm.TEMPO_MAP);
+        return new TimingConverter(rubatoMap, tempoMap, this.getPPQ());
+    }
+
     /**
      * this generates an Msm object from the input midi data and adds expression data (such as millisecond dates, durations, and velocity values) to it;
      * performance rendering will keep MIDI compliance
@@ -330,11 +356,21 @@ public class Performance extends AbstractXmlSubtree {
     }
 
     /**
-     * this add expression data (such as millisecond dates, durations, and velocity values) to the specified MSM
+     * this add expression data (such as millisecond dates, durations, and velocity values) to the specified MSM; the parts are rendered concurrently
      * @param msm
      * @return an augmented MSM with performance related data
      */
     public Msm perform(Msm msm) {
+        return this.perform(msm, true);
+    }
+
+    /**
+     * this add expression data (such as millisecond dates, durations, and velocity values) to the specified MSM
+     * @param msm
+     * @param parallel set true to render the parts concurrently or false for sequential rendering (e.g. for debugging); the results are the same
+     * @return an augmented MSM with performance related data
+     */
+    public Msm perform(Msm msm, boolean parallel) {
         long startTime = System.currentTimeMillis();                                                            // we measure the time that the conversion consumes
         System.out.println("\nRendering performance \"" + this.getName() + "\" into \"" + msm.getTitle() + "\".");
 
@@ -346,6 +382,7 @@ public class Performance extends AbstractXmlSubtree {
         // get global msm maps
         RubatoMap globalRubatoMap = (RubatoMap) this.getGlobal().getDated().getMap(Mpm.RUBATO_MAP);                                         // get the global rubatoMap
         TempoMap globalTempoMap = (TempoMap) this.getGlobal().getDated().getMap(Mpm.TEMPO_MAP);                                             // get the global tempoMap
+        TempoTimeline globalTempoTimeline = (globalTempoMap == null) ? null : globalTempoMap.compile(this.getPPQ());                      // compile it once for all maps that use it
         AsynchronyMap globalAsynchronyMap = (AsynchronyMap) this.getGlobal().getDated().getMap(Mpm.ASYNCHRONY_MAP);                         // get the global asynchronyMap
         ImprecisionMap globalImprecisionMap_timing = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_TIMING);       // get the global timing imprecisionMap
         ImprecisionMap globalImprecisionMap_dynamics = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_DYNAMICS);   // get the global dynamics imprecisionMap
@@ -386,13 +423,14 @@ public class Performance extends AbstractXmlSubtree {
         GenericMap globalPedalMap = Performance.addMsmMapToList("pedalMap", globalDated, maps);
         for (GenericMap m : maps) {                                                                     // for all maps in the list of maps for timing processing
             RubatoMap.renderRubatoToMap(m, globalRubatoMap);
-            TempoMap.renderTempoToMap(m, this.getPPQ(), globalTempoMap);                                // compute millisecond dates and end dates
+            TempoTimeline.renderTempoToMap(m, this.getPPQ(), globalTempoTimeline);                      // compute millisecond dates and end dates
         }
         AsynchronyMap.renderAsynchronyToMap(globalPedalMap, globalAsynchronyMap);                       // add asynchrony offsets to the millisecond dates
         ImprecisionMap.renderImprecisionToMap(globalPedalMap, globalImprecisionMap_timing, true);       // add imprecision
 
         // process the msm parts
         Elements parts = clone.getParts();                                                                  // get the parts from the msm
+        LinkedHashMap<Object, ArrayList<KeyValue<Element, Part>>> groups = new LinkedHashMap<>();         // msm parts that correspond to the same mpm part are rendered one after the other, as they alter the maps of the mpm part
         for (int p = 0; p < parts.size(); ++p) {
             Element msmPart = parts.get(p);
 
@@ -409,127 +447,218 @@ public class Performance extends AbstractXmlSubtree {
             else
                 System.out.println("Performing part " + mpmPart.getNumber() + ": " + mpmPart.getName() /*+ ", midi channel " + mpmPart.getMidiChannel() + ", midi port " + mpmPart.getMidiPort()*/);
 
-            // retrieve all msm maps in this part to be processed
-            Element dated = Helper.getFirstChildElement("dated", msmPart);
-            if (dated == null) continue;
-            maps = new ArrayList<>();
-            GenericMap score = Performance.addMsmMapToList("score", dated, maps);
-            Performance.addMsmMapToList("keySignatureMap", dated, maps);
-            GenericMap timeSignatureMap = Performance.addMsmMapToList("timeSignatureMap", dated, maps);
-            Performance.addMsmMapToList("sectionMap", dated, maps);
-            Performance.addMsmMapToList("sequencingMap", dated, maps);
-            Performance.addMsmMapToList("markerMap", dated, maps);
-            Performance.addMsmMapToList("programChangeMap", dated, maps);
-            GenericMap pedalMap = Performance.addMsmMapToList("pedalMap", dated, maps);
-
-            RubatoMap rubatoMap = null;
-            TempoMap tempoMap = null;
-            AsynchronyMap asynchronyMap = null;
-            DynamicsMap dynamicsMap = null;
-            MetricalAccentuationMap metricalAccentuationMap = null;
-            ArticulationMap articulationMap = null;
-            ImprecisionMap imprecisionMap_timing = null;
-            ImprecisionMap imprecisionMap_dynamics = null;
-            ImprecisionMap imprecisionMap_toneduration = null;
-            ImprecisionMap imprecisionMap_tuning = null;
-            if (mpmPart != null) {                                                                                      // if the performance has information for this part, get them, otherwise it applies only the global ones by default
-                rubatoMap = (RubatoMap) mpmPart.getDated().getMap(Mpm.RUBATO_MAP);                                      // get rubatoMap
-                tempoMap = (TempoMap) mpmPart.getDated().getMap(Mpm.TEMPO_MAP);                                         // get tempoMap
-                asynchronyMap = (AsynchronyMap) mpmPart.getDated().getMap(Mpm.ASYNCHRONY_MAP);                          // get asynchronyMap
-                dynamicsMap = (DynamicsMap) mpmPart.getDated().getMap(Mpm.DYNAMICS_MAP);                                // get dynamicsMap
-                metricalAccentuationMap = (MetricalAccentuationMap) mpmPart.getDated().getMap(Mpm.METRICAL_ACCENTUATION_MAP);   // get metricalAccentuationMap
-                articulationMap = (ArticulationMap) mpmPart.getDated().getMap(Mpm.ARTICULATION_MAP);                    // get articulationMap
-                imprecisionMap_timing = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TIMING);         // get imprecisionMap.timing
-                imprecisionMap_dynamics = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_DYNAMICS);     // get imprecisionMap.dynamics
-                imprecisionMap_toneduration = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TONEDURATION); // get imprecisionMap.toneduration
-                imprecisionMap_tuning = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TUNING);         // get imprecisionMap.tuning
-            }
+            Object groupKey = (mpmPart == null) ? msmPart : mpmPart;
+            if (!groups.containsKey(groupKey))
+                groups.put(groupKey, new ArrayList<>());
+            groups.get(groupKey).add(new KeyValue<>(msmPart, mpmPart));
+        }
 
-            // if no local map choose global
-            if (rubatoMap == null)
-                rubatoMap = globalRubatoMap;
-            if (tempoMap == null)
-                tempoMap = globalTempoMap;
-            if (asynchronyMap == null)
-                asynchronyMap = globalAsynchronyMap;
-            if (dynamicsMap == null)
-                dynamicsMap = globalDynamicsMap;
-            if (metricalAccentuationMap == null)
-                metricalAccentuationMap = glbalMetricalAccentuationMap;
-            if (articulationMap == null)
-                articulationMap = globalArticulationMap;
-            // the global imprecisionMaps have already milliseconds dates (required), the local does not, hence, they must be added to maps and to the cleanup list so the milliseconds attributes get deleted afterwards
-            if (imprecisionMap_timing == null)
-                imprecisionMap_timing = globalImprecisionMap_timing;
-            else {
-                maps.add(imprecisionMap_timing);
-                cleanupList.addAll(imprecisionMap_timing.getAllElements());
-            }
-            if (imprecisionMap_dynamics == null)
-                imprecisionMap_dynamics = globalImprecisionMap_dynamics;
-            else {
-                maps.add(imprecisionMap_dynamics);
-                cleanupList.addAll(imprecisionMap_dynamics.getAllElements());
-            }
-            if (imprecisionMap_toneduration == null)
-                imprecisionMap_toneduration = globalImprecisionMap_toneduration;
-            else {
-                maps.add(imprecisionMap_toneduration);
-                cleanupList.addAll(imprecisionMap_toneduration.getAllElements());
-            }
-            if (imprecisionMap_tuning == null)
-                imprecisionMap_tuning = globalImprecisionMap_tuning;
-            else {
-                maps.add(imprecisionMap_tuning);
-                cleanupList.addAll(imprecisionMap_tuning.getAllElements());
-            }
+        GlobalMaps globalMaps = new GlobalMaps();                                                           // the global maps are only read during the rendering of the parts
+        globalMaps.rubatoMap = globalRubatoMap;
+        globalMaps.tempoTimeline = globalTempoTimeline;
+        globalMaps.asynchronyMap = globalAsynchronyMap;
+        globalMaps.imprecisionMap_timing = globalImprecisionMap_timing;
+        globalMaps.imprecisionMap_dynamics = globalImprecisionMap_dynamics;
+        globalMaps.imprecisionMap_toneduration = globalImprecisionMap_toneduration;
+        globalMaps.imprecisionMap_tuning = globalImprecisionMap_tuning;
+        globalMaps.dynamicsMap = globalDynamicsMap;
+        globalMaps.metricalAccentuationMap = glbalMetricalAccentuationMap;
+        globalMaps.articulationMap = globalArticulationMap;
+        globalMaps.timeSignatureMap = globalTimeSignatureMap;
+        cleanupList.addAll(this.performParts(new ArrayList<>(groups.values()), globalMaps, parallel));
 
-            // here comes the performance rendering of the part
-            // some things should be done before the timing transformations
-            GenericMap channelVolumeMap = DynamicsMap.renderDynamicsToMap(score, dynamicsMap);  // add dynamics data, must be done first because the tick timing will be altered by some articulations and rubato
-            if (channelVolumeMap != null)                                                       // there could be a new map with sub-note dynamics controllers to be added to maps
-                dated.appendChild(channelVolumeMap.getXml());                                   // add it to the MSM
+        // cleanup: remove attribute milliseconds.date from all elements in the cleanup list
+        for (KeyValue<Double, Element> e : cleanupList) {
+            Attribute ms = Helper.getAttribute("milliseconds.date", e.getValue());
+            if (ms != null)
+                e.getValue().removeAttribute(ms);
+        }
 
-            MetricalAccentuationMap.renderMetricalAccentuationToMap(score, metricalAccentuationMap, ((timeSignatureMap != null) ? timeSignatureMap : globalTimeSignatureMap), this.getPPQ());  // add metrical accentuations; we do this before the rubato transformation as this shifts the symbolic dates of the events
-            ArticulationMap.renderArticulationToMap_noMillisecondModifiers(score, articulationMap); // add articulations except for millisecond modifiers
+        System.out.println("Performance rendering finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
 
-            // rubato and tempo transformations apply to all maps
-            for (GenericMap m : maps) {                                                         // for all maps in the list of maps for timing processing
-                RubatoMap.renderRubatoToMap(m, rubatoMap);                                      // rubato
-                TempoMap.renderTempoToMap(m, this.getPPQ(), tempoMap);                          // compute millisecond dates and end dates
-                // further performance features are applied only to specific maps, thus not processed here
-            }
+        return clone;
+    }
 
-            // pedalMap
-            AsynchronyMap.renderAsynchronyToMap(pedalMap, asynchronyMap);                       // add asynchrony offsets to the millisecond dates to the pedalMap
-            ImprecisionMap.renderImprecisionToMap(pedalMap, imprecisionMap_timing, true);       // add imprecision to the pedalMap
+    /**
+     * this renders the performance into the specified MSM but keeps only the performance related data as an overlay of it;
+     * this is useful to hold several performances of the same MSM in memory, the full performed MSM is created only on demand (see MsmOverlay.materialize())
+     * @param msm the source MSM, it must not be altered as long as the overlay is in use
+     * @return the overlay
+     */
+    public MsmOverlay performOverlay(Msm msm) {
+        return this.performOverlay(msm, true);
+    }
 
-            // channelVolumeMap
-            TempoMap.renderTempoToMap(channelVolumeMap, this.getPPQ(), tempoMap);               // channelVolumeMap gets trandformed by the tempoMap but not the rubatoMap as the latter would create higher-frequency variations in the dynamics curve
-            AsynchronyMap.renderAsynchronyToMap(channelVolumeMap, asynchronyMap);               // add asynchrony offsets to the millisecond dates to the channelVolumeMap
+    /**
+     * this renders the performance into the specified MSM but keeps only the performance related data as an overlay of it
+     * @param msm the source MSM, it must not be altered as long as the overlay is in use
+     * @param parallel set true to render the parts concurrently or false for sequential rendering
+     * @return the overlay
+     */
+    public MsmOverlay performOverlay(Msm msm, boolean parallel) {
+        Msm performed = this.perform(msm, parallel);                // the rendering works on a copy of the msm, it is released when the overlay is created
+        return new MsmOverlay(msm, performed);
+    }
 
-            // score
-            if (score == null)      // if this msm part has no score
-                continue;           // continue with the next msm part
-            AsynchronyMap.renderAsynchronyToMap(score, asynchronyMap);                          // add asynchrony offsets to the millisecond dates
-            ArticulationMap.renderArticulationToMap_millisecondModifiers(score, articulationMap); // apply articulations' millisecond modifiers
+    /**
+     * render the msm parts, concurrently if parallel is true and there are several groups
+     * @param groups the msm parts with their corresponding mpm parts (or null), the parts in a group are rendered one after the other
+     * @param globalMaps
+     * @param parallel
+     * @return the elements whose attribute milliseconds.date has to be removed after the rendering
+     */
+    private ArrayList<KeyValue<Double, Element>> performParts(ArrayList<ArrayList<KeyValue<Element, Part>>> groups, GlobalMaps globalMaps, boolean parallel) {
+        ArrayList<KeyValue<Double, Element>> cleanupList = new ArrayList<>();
+        int threads = parallel ? Math.min(groups.size(), Runtime.getRuntime().availableProcessors()) : 1;
+
+        if (threads <= 1) {                                                     // no need for a worker pool
+            for (ArrayList<KeyValue<Element, Part>> group : groups)
+                for (KeyValue<Element, Part> part : group)
+                    cleanupList.addAll(this.performPart(part.getKey(), part.getValue(), globalMaps));
+            return cleanupList;
+        }
 
-            ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_timing, true);          // add timing imprecision
-            ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_dynamics, true);        // add dynamics imprecision
-            ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_toneduration, true);    // add toneduration imprecision
-            ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_tuning, true);          // add tuning imprecision
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<ArrayList<KeyValue<Double, Element>>>> results = new ArrayList<>();
+        for (ArrayList<KeyValue<Element, Part>> group : groups) {               // each group is rendered by a worker, the workers edit only the subtrees of their msm parts
+            results.add(executor.submit(new Callable<ArrayList<KeyValue<Double, Element>>>() {
+                @Override
+                public ArrayList<KeyValue<Double, Element>> call() {
+                    ArrayList<KeyValue<Double, Element>> groupCleanupList = new ArrayList<>();
+                    for (KeyValue<Element, Part> part : group)
+                        groupCleanupList.addAll(performPart(part.getKey(), part.getValue(), globalMaps));
+                    return groupCleanupList;
+                }
+            }));
         }
+        executor.shutdown();
 
-        // cleanup: remove attribute milliseconds.date from all elements in the cleanup list
-        for (KeyValue<Double, Element> e : cleanupList) {
-            Attribute ms = Helper.getAttribute("milliseconds.date", e.getValue());
-            if (ms != null)
-                e.getValue().removeAttribute(ms);
+        for (ArrayList<KeyValue<Double, Element>> groupCleanupList : Helper.getResults(results, executor))  // collect the results in the order of the parts, a failed part fails the rendering as in sequential mode
+            cleanupList.addAll(groupCleanupList);
+        return cleanupList;
+    }
+
+    /**
+     * render the performance of one msm part
+     * @param msmPart
+     * @param mpmPart the corresponding mpm part or null
+     * @param globalMaps
+     * @return the elements whose attribute milliseconds.date has to be removed after the rendering
+     */
+    private ArrayList<KeyValue<Double, Element>> performPart(Element msmPart, Part mpmPart, GlobalMaps globalMaps) {
+        ArrayList<KeyValue<Double, Element>> cleanupList = new ArrayList<>();
+
+        // retrieve all msm maps in this part to be processed
+        Element dated = Helper.getFirstChildElement("dated", msmPart);
+        if (dated == null)
+            return cleanupList;
+        ArrayList<GenericMap> maps = new ArrayList<>();
+        GenericMap score = Performance.addMsmMapToList("score", dated, maps);
+        Performance.addMsmMapToList("keySignatureMap", dated, maps);
+        GenericMap timeSignatureMap = Performance.addMsmMapToList("timeSignatureMap", dated, maps);
+        Performance.addMsmMapToList("sectionMap", dated, maps);
+        Performance.addMsmMapToList("sequencingMap", dated, maps);
+        Performance.addMsmMapToList("markerMap", dated, maps);
+        Performance.addMsmMapToList("programChangeMap", dated, maps);
+        GenericMap pedalMap = Performance.addMsmMapToList("pedalMap", dated, maps);
+
+        RubatoMap rubatoMap = null;
+        TempoMap tempoMap = null;
+        AsynchronyMap asynchronyMap = null;
+        DynamicsMap dynamicsMap = null;
+        MetricalAccentuationMap metricalAccentuationMap = null;
+        ArticulationMap articulationMap = null;
+        ImprecisionMap imprecisionMap_timing = null;
+        ImprecisionMap imprecisionMap_dynamics = null;
+        ImprecisionMap imprecisionMap_toneduration = null;
+        ImprecisionMap imprecisionMap_tuning = null;
+        if (mpmPart != null) {                                                                                      // if the performance has information for this part, get them, otherwise it applies only the global ones by default
+            rubatoMap = (RubatoMap) mpmPart.getDated().getMap(Mpm.RUBATO_MAP);                                      // get rubatoMap
+            tempoMap = (TempoMap) mpmPart.getDated().getMap(Mpm.TEMPO_MAP);                                         // get tempoMap
+            asynchronyMap = (AsynchronyMap) mpmPart.getDated().getMap(Mpm.ASYNCHRONY_MAP);                          // get asynchronyMap
+            dynamicsMap = (DynamicsMap) mpmPart.getDated().getMap(Mpm.DYNAMICS_MAP);                                // get dynamicsMap
+            metricalAccentuationMap = (MetricalAccentuationMap) mpmPart.getDated().getMap(Mpm.METRICAL_ACCENTUATION_MAP);   // get metricalAccentuationMap
+            articulationMap = (ArticulationMap) mpmPart.getDated().getMap(Mpm.ARTICULATION_MAP);                    // get articulationMap
+            imprecisionMap_timing = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TIMING);         // get imprecisionMap.timing
+            imprecisionMap_dynamics = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_DYNAMICS);     // get imprecisionMap.dynamics
+            imprecisionMap_toneduration = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TONEDURATION); // get imprecisionMap.toneduration
+            imprecisionMap_tuning = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TUNING);         // get imprecisionMap.tuning
         }
 
-        System.out.println("Performance rendering finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+        // if no local map choose global
+        if (rubatoMap == null)
+            rubatoMap = globalMaps.rubatoMap;
+        TempoTimeline tempoTimeline = (tempoMap == null) ? globalMaps.tempoTimeline : tempoMap.compile(this.getPPQ());   // the global tempoMap is compiled already
+        if (asynchronyMap == null)
+            asynchronyMap = globalMaps.asynchronyMap;
+        if (dynamicsMap == null)
+            dynamicsMap = globalMaps.dynamicsMap;
+        if (metricalAccentuationMap == null)
+            metricalAccentuationMap = globalMaps.metricalAccentuationMap;
+        if (articulationMap == null)
+            articulationMap = globalMaps.articulationMap;
+        // the global imprecisionMaps have already milliseconds dates (required), the local does not, hence, they must be added to maps and to the cleanup list so the milliseconds attributes get deleted afterwards
+        if (imprecisionMap_timing == null)
+            imprecisionMap_timing = globalMaps.imprecisionMap_timing;
+        else {
+            maps.add(imprecisionMap_timing);
+            cleanupList.addAll(imprecisionMap_timing.getAllElements());
+        }
+        if (imprecisionMap_dynamics == null)
+            imprecisionMap_dynamics = globalMaps.imprecisionMap_dynamics;
+        else {
+            maps.add(imprecisionMap_dynamics);
+            cleanupList.addAll(imprecisionMap_dynamics.getAllElements());
+        }
+        if (imprecisionMap_toneduration == null)
+            imprecisionMap_toneduration = globalMaps.imprecisionMap_toneduration;
+        else {
+            maps.add(imprecisionMap_toneduration);
+            cleanupList.addAll(imprecisionMap_toneduration.getAllElements());
+        }
+        if (imprecisionMap_tuning == null)
+            imprecisionMap_tuning = globalMaps.imprecisionMap_tuning;
+        else {
+            maps.add(imprecisionMap_tuning);
+            cleanupList.addAll(imprecisionMap_tuning.getAllElements());
+        }
 
-        return clone;
+        // here comes the performance rendering of the part
+        // some things should be done before the timing transformations
+        GenericMap channelVolumeMap = DynamicsMap.renderDynamicsToMap(score, dynamicsMap);  // add dynamics data, must be done first because the tick timing will be altered by some articulations and rubato
+        if (channelVolumeMap != null)                                                       // there could be a new map with sub-note dynamics controllers to be added to maps
+            dated.appendChild(channelVolumeMap.getXml());                                   // add it to the MSM
+
+        MetricalAccentuationMap.renderMetricalAccentuationToMap(score, metricalAccentuationMap, ((timeSignatureMap != null) ? timeSignatureMap : globalMaps.timeSignatureMap), this.getPPQ());  // add metrical accentuations; we do this before the rubato transformation as this shifts the symbolic dates of the events
+        ArticulationMap.renderArticulationToMap_noMillisecondModifiers(score, articulationMap); // add articulations except for millisecond modifiers
+
+        // rubato and tempo transformations apply to all maps
+        for (GenericMap m : maps) {                                                         // for all maps in the list of maps for timing processing
+            RubatoMap.renderRubatoToMap(m, rubatoMap);                                      // rubato
+            TempoTimeline.renderTempoToMap(m, this.getPPQ(), tempoTimeline);                // compute millisecond dates and end dates
+            // further performance features are applied only to specific maps, thus not processed here
+        }
+
+        // pedalMap
+        AsynchronyMap.renderAsynchronyToMap(pedalMap, asynchronyMap);                       // add asynchrony offsets to the millisecond dates to the pedalMap
+        ImprecisionMap.renderImprecisionToMap(pedalMap, imprecisionMap_timing, true);       // add imprecision to the pedalMap
+
+        // channelVolumeMap
+        TempoTimeline.renderTempoToMap(channelVolumeMap, this.getPPQ(), tempoTimeline);     // channelVolumeMap gets trandformed by the tempoMap but not the rubatoMap as the latter would create higher-frequency variations in the dynamics curve
+        AsynchronyMap.renderAsynchronyToMap(channelVolumeMap, asynchronyMap);               // add asynchrony offsets to the millisecond dates to the channelVolumeMap
+
+        // score
+        if (score == null)      // if this msm part has no score
+            return cleanupList; // we are done with this msm part
+        AsynchronyMap.renderAsynchronyToMap(score, asynchronyMap);                          // add asynchrony offsets to the millisecond dates
+        ArticulationMap.renderArticulationToMap_millisecondModifiers(score, articulationMap); // apply articulations' millisecond modifiers
+
+        ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_timing, true);          // add timing imprecision
+        ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_dynamics, true);        // add dynamics imprecision
+        ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_toneduration, true);    // add toneduration imprecision
+        ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_tuning, true);          // add tuning imprecision
+
+        return cleanupList;
     }
 
     /**
@@ -550,4 +679,21 @@ public class Performance extends AbstractXmlSubtree {
         }
         return null;
     }
+
+    /**
+     * the global maps of a performance that apply to all parts without their own maps
+     */
+    private static class GlobalMaps {
+        private RubatoMap rubatoMap = null;
+        private TempoTimeline tempoTimeline = null;
+        private AsynchronyMap asynchronyMap = null;
+        private ImprecisionMap imprecisionMap_timing = null;
+        private ImprecisionMap imprecisionMap_dynamics = null;
+        private ImprecisionMap imprecisionMap_toneduration = null;
+        private ImprecisionMap imprecisionMap_tuning = null;
+        private DynamicsMap dynamicsMap = null;
+        private MetricalAccentuationMap metricalAccentuationMap = null;
+        private ArticulationMap articulationMap = null;
+        private GenericMap timeSignatureMap = null;
+    }
 }
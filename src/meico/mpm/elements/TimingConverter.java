@@ -0,0 +1,59 @@
+package meico.mpm.elements;
+
+import meico.mpm.elements.maps.RubatoMap;
+import meico.mpm.elements.maps.RubatoTimeline;
+import meico.mpm.elements.maps.TempoMap;
+import meico.mpm.elements.maps.TempoTimeline;
+
+/**
+ * This class converts symbolic dates (ticks) into milliseconds dates and vice versa, as defined by a rubatoMap and a tempoMap,
+ * e.g. for score following and playback cursors. Asynchrony and imprecision are not considered.
+ * Both maps are compiled on construction, each conversion takes O(log n) for n rubato and tempo instructions.
+ * Instances are immutable and can be used by concurrent threads. Instances are created via Performance.createTimingConverter().
+ * @author Axel Berndt.
+ */
+
+public class TimingConverter {
+    private final int ppq;                          // the timing resolution
+    private final RubatoTimeline rubato;            // the compiled rubatoMap or null
+    private final TempoTimeline tempo;              // the compiled tempoMap or null, in the latter case 1 tick = 1 millisecond (as in TempoMap.renderTempoToMap())
+
+    /**
+     * constructor
+     * @param rubatoMap the rubatoMap or null
+     * @param tempoMap the tempoMap or null
+     * @param ppq the pulses per quarter timing resolution
+     */
+    protected TimingConverter(RubatoMap rubatoMap, TempoMap tempoMap, int ppq) {
+        this.ppq = ppq;
+        this.rubato = (rubatoMap == null) ? null : rubatoMap.compile();
+        this.tempo = (tempoMap == null) ? null : tempoMap.compile(ppq);
+    }
+
+    /**
+     * @return the timing resolution
+     */
+    public int getPPQ() {
+        return this.ppq;
+    }
+
+    /**
+     * convert a symbolic date into a milliseconds date
+     * @param date the date in ticks
+     * @return the milliseconds date or NaN if the date is not covered by the tempoMap
+     */
+    public double getMilliseconds(double date) {
+        double transformedDate = (this.rubato == null) ? date : this.rubato.getTransformedDate(date);
+        return (this.tempo == null) ? transformedDate : this.tempo.getMilliseconds(transformedDate);
+    }
+
+    /**
+     * convert a milliseconds date into a symbolic date
+     * @param milliseconds
+     * @return the date in ticks or NaN if the milliseconds date is not covered by the tempoMap
+     */
+    public double getDate(double milliseconds) {
+        double transformedDate = (this.tempo == null) ? milliseconds : this.tempo.getDate(milliseconds);
+        return ((this.rubato == null) || Double.isNaN(transformedDate)) ? transformedDate : this.rubato.getDate(transformedDate);
+    }
+}
@@ -321,13 +321,27 @@ public class RubatoMap extends GenericMap {
      * @param rubatoData
      * @return
      */
-    private static double computeRubatoTransformation(double date, RubatoData rubatoData) {
+    static double computeRubatoTransformation(double date, RubatoData rubatoData) {
         double localDate = (date - rubatoData.startDate) % rubatoData.frameLength;      // compute the position of the map element within the rubato frame
         double d = (Math.pow(localDate / rubatoData.frameLength, rubatoData.intensity) * (rubatoData.earlyEnd - rubatoData.lateStart) + rubatoData.lateStart) * rubatoData.frameLength;
 //        System.out.println("Rubato: date=" + date + ", startDate=" + rubatoData.startDate + ", frameLength=" + rubatoData.frameLength + ", localDate=" + localDate + ", d=" + d);
         return date + d - localDate;
     }
 
+    /**
+     * parse the rubato instructions of this rubatoMap
+     * @return a timeline that applies the rubato transformation to single dates and inverts it
+     */
+    public RubatoTimeline compile() {
+        ArrayList<RubatoData> rubati = new ArrayList<>();
+        for (int rubIndex = 0; rubIndex < this.size(); ++rubIndex) {
+            RubatoData rd = this.getRubatoDataOf(rubIndex);
+            if (rd != null)
+                rubati.add(rd);
+        }
+        return new RubatoTimeline(rubati);
+    }
+
     /**
      * on the basis of this rubatoMap, apply the rubato transformations to all date and duration attributes of each map element
      * @param map
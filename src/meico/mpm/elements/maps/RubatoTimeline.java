@@ -0,0 +1,170 @@
+package meico.mpm.elements.maps;
+
+import meico.mpm.elements.maps.data.RubatoData;
+
+import java.util.ArrayList;
+
+/**
+ * This is a compiled form of a rubatoMap. It applies the rubato transformation to single dates and inverts it, both via binary search over the rubato instructions.
+ * A timeline is immutable and can be used from concurrent threads. Instances are created via RubatoMap.compile().
+ * @author Axel Berndt.
+ */
+
+public class RubatoTimeline {
+    private final RubatoData[] rubati;              // the valid rubato instructions in the order of the rubatoMap
+    private final double[] startDates;              // the start date of each rubato instruction
+    private final double[] scopeEnds;               // the date at which the scope of each rubato instruction ends (exclusive), i.e. the date of the subsequent rubato instruction or, for oneshot rubatos, the end of the frame
+    private final double[] transformedStartDates;   // the transformed start date of each rubato instruction
+    private final boolean monotone;                 // true if the transformed scopes do not overlap, otherwise (e.g. a frame that reaches beyond the subsequent rubato instruction) getDate() cannot use binary search
+
+    /**
+     * constructor
+     * @param rubati the rubato instructions
+     */
+    protected RubatoTimeline(ArrayList<RubatoData> rubati) {
+        int n = rubati.size();
+        this.rubati = rubati.toArray(new RubatoData[n]);
+        this.startDates = new double[n];
+        this.scopeEnds = new double[n];
+        this.transformedStartDates = new double[n];
+
+        for (int i = 0; i < n; ++i) {
+            RubatoData rd = this.rubati[i];
+            this.startDates[i] = rd.startDate;
+            this.scopeEnds[i] = rd.loop ? rd.endDate : Math.min(rd.endDate, rd.startDate + rd.frameLength);
+            this.transformedStartDates[i] = rd.startDate + (rd.lateStart * rd.frameLength);
+        }
+
+        boolean monotone = true;
+        for (int i = 0; (i < n - 1) && monotone; ++i) {
+            double next = (this.scopeEnds[i] < this.startDates[i + 1]) ? this.scopeEnds[i] : this.transformedStartDates[i + 1];   // the subsequent range is either transformed by the identity or by the next rubato instruction
+            monotone = this.getTransformedScopeEnd(i) <= next;
+        }
+        this.monotone = monotone;
+    }
+
+    /**
+     * compute the date to which the end of the scope of a rubato instruction is transformed, i.e. the maximum of the transformed dates in the scope
+     * @param i the index of the rubato instruction
+     * @return
+     */
+    private double getTransformedScopeEnd(int i) {
+        RubatoData rd = this.rubati[i];
+        double frameStart = rd.startDate + (Math.ceil((this.scopeEnds[i] - rd.startDate) / rd.frameLength) - 1.0) * rd.frameLength;   // the start of the last frame in the scope
+        double localDate = (this.scopeEnds[i] - frameStart) / rd.frameLength;
+        return frameStart + ((Math.pow(localDate, rd.intensity) * (rd.earlyEnd - rd.lateStart)) + rd.lateStart) * rd.frameLength;
+    }
+
+    /**
+     * @return true if there are no rubato instructions, so the transformation is the identity
+     */
+    public boolean isEmpty() {
+        return this.rubati.length == 0;
+    }
+
+    /**
+     * find the last index whose value in the specified array is at or before the date
+     * @param values a non-decreasing array
+     * @param date
+     * @return the index or -1
+     */
+    private static int getIndexBeforeAt(double[] values, double date) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= date)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo - 1;
+    }
+
+    /**
+     * apply the rubato transformation to a date, this is the same transformation as in RubatoMap.renderRubatoToMap()
+     * @param date
+     * @return the transformed date
+     */
+    public double getTransformedDate(double date) {
+        int i = RubatoTimeline.getIndexBeforeAt(this.startDates, date);
+        if ((i < 0) || (date >= this.scopeEnds[i]))                                 // the date is not in the scope of a rubato instruction
+            return date;
+        return RubatoMap.computeRubatoTransformation(date, this.rubati[i]);
+    }
+
+    /**
+     * invert the rubato transformation; the transformation leaves gaps (lateStart and earlyEnd shift the frame boundaries), for transformed dates in such a gap the earliest date after it is returned
+     * @param transformedDate
+     * @return the date that is transformed to transformedDate
+     */
+    public double getDate(double transformedDate) {
+        if (!this.monotone) {                                                       // binary search would not find the right rubato instruction
+            double date = this.getDateByLinearScan(transformedDate);
+            if (!Double.isNaN(date))
+                return date;
+        }
+
+        int i = RubatoTimeline.getIndexBeforeAt(this.transformedStartDates, transformedDate);
+
+        if (i >= 0) {
+            double date = this.getDateInScope(transformedDate, i, false);
+            if (!Double.isNaN(date))
+                return date;
+        }
+
+        // the date is between the scopes of two rubato instructions where the transformation is the identity
+        double lowerBound = (i < 0) ? Double.NEGATIVE_INFINITY : this.scopeEnds[i];
+        double upperBound = (i + 1 < this.startDates.length) ? this.startDates[i + 1] : Double.POSITIVE_INFINITY;
+        return Math.min(Math.max(transformedDate, lowerBound), upperBound);
+    }
+
+    /**
+     * invert the rubato transformation within the scope of one rubato instruction
+     * @param transformedDate
+     * @param i the index of the rubato instruction
+     * @param exact if true, transformed dates in the gaps between the frames give NaN instead of the date after the gap
+     * @return the date or NaN if no date in the scope of the rubato instruction is transformed to transformedDate
+     */
+    private double getDateInScope(double transformedDate, int i, boolean exact) {
+        if (transformedDate < this.transformedStartDates[i])
+            return Double.NaN;
+
+        RubatoData rd = this.rubati[i];
+        double frameLength = rd.frameLength;
+        int frame = (int) Math.floor((transformedDate - this.transformedStartDates[i]) / frameLength);
+        double frameStart = rd.startDate + (frame * frameLength);
+        if (frameStart >= this.scopeEnds[i])
+            return Double.NaN;
+
+        double d = ((transformedDate - frameStart) / frameLength);                  // the transformed position within the frame
+        double date;
+        if (d > rd.earlyEnd) {                                                      // in the gap after the frame
+            if (exact)
+                return Double.NaN;
+            date = frameStart + frameLength;
+        }
+        else
+            date = frameStart + (Math.pow((d - rd.lateStart) / (rd.earlyEnd - rd.lateStart), 1.0 / rd.intensity) * frameLength);
+        return (date < this.scopeEnds[i]) ? date : Double.NaN;
+    }
+
+    /**
+     * invert the rubato transformation by checking the scopes of all rubato instructions and the ranges between them in the order of their dates;
+     * this is required if the scopes overlap after the transformation, in this case the earliest date that is transformed to transformedDate is returned
+     * @param transformedDate
+     * @return the date or NaN if no date is transformed to transformedDate (e.g. it is in a gap), then getDate() proceeds as if the scopes did not overlap
+     */
+    private double getDateByLinearScan(double transformedDate) {
+        double lowerBound = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < this.rubati.length; ++i) {
+            if ((transformedDate >= lowerBound) && (transformedDate < this.startDates[i]))   // in the range before the rubato instruction where the transformation is the identity
+                return transformedDate;
+            double date = this.getDateInScope(transformedDate, i, true);
+            if (!Double.isNaN(date))
+                return date;
+            lowerBound = this.scopeEnds[i];
+        }
+        return (transformedDate >= lowerBound) ? transformedDate : Double.NaN;
+    }
+}
@@ -10,12 +10,16 @@ import nu.xom.Attribute;
 import nu.xom.Element;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class interfaces MPM's tempoMaps
  * @author Axel Berndt
  */
 public class TempoMap extends GenericMap {
+    private static final double[] GAUSS_NODES = {-0.9061798459386640, -0.5384693101056831, 0.0, 0.5384693101056831, 0.9061798459386640};     // 5-point Gauss-Legendre quadrature
+    private static final double[] GAUSS_WEIGHTS = {0.2369268850561891, 0.4786286704993665, 0.5688888888888889, 0.4786286704993665, 0.2369268850561891};
+
     /**
      * constructor, generates an empty tempoMap
      * @throws Exception
@@ -316,7 +320,7 @@ public class TempoMap extends GenericMap {
      * @param tempoData the application should make sure that date is in the scope of tempoData
      * @return the tempo or 100.0 bpm if date lies out of scope or tempo data is insufficient
      */
-    private static double getTempoAt(double date, TempoData tempoData) {
+    static double getTempoAt(double date, TempoData tempoData) {
         if (tempoData == null)                                              // if no tempo data given
             return 100.0;                                                   // return default tempo 100.0 bpm
 
@@ -335,103 +339,24 @@ public class TempoMap extends GenericMap {
     }
 
     /**
-     * iterate through the specified map, compute the milliseconds dates for all elements and add the results as attributes milliseconds.date and milliseconds.date.end
+     * iterate through the specified map, compute the milliseconds dates for all elements and add the results as attributes milliseconds.date and milliseconds.date.end;
+     * to render several maps with the same tempoMap, compile it once and use TempoTimeline.renderTempoToMap() instead
      * @param map An instance of GenericMap, typically an MSM score element that has been parsed into such (e.g., GenericMap.createGenericMap(score)).
      * @param ppq the pulses per quarter timing resolution
      */
     public void renderTempoToMap(GenericMap map, int ppq) {
         if (map == null)
             return;
+        this.compile(ppq).renderTempoToMap(map);
+    }
 
-        int mapIndex = 0;
-
-        // processing for the case of an empty tempoMap
-        if (this.elements.isEmpty()) {
-            for (; mapIndex < map.size(); ++mapIndex) {                                 // traverse the map elements
-                KeyValue<Double, Element> mapEntry = map.elements.get(mapIndex);        // get the current map entry
-
-                // convert the date
-                double milliseconds = TempoMap.computeMillisecondsForNoTempo(mapEntry.getKey(), ppq);
-                mapEntry.getValue().addAttribute(new Attribute("milliseconds.date", Double.toString(milliseconds)));        // add the attribute
-
-                // convert the duration
-                Attribute durAtt = Helper.getAttribute("duration", mapEntry.getValue());
-                if (durAtt == null)
-                    continue;
-                double endDate = mapEntry.getKey() + Double.parseDouble(durAtt.getValue());                     // get the tick date of the end of the map element
-                milliseconds = TempoMap.computeMillisecondsForNoTempo(endDate, ppq);                            // compute the millisecond end date
-                mapEntry.getValue().addAttribute(new Attribute("milliseconds.date.end", Double.toString(milliseconds)));    // add the attribute
-            }
-            return;
-        }
-
-        // process the mape elements on the basis of this non-empty tempoMap
-        ArrayList<TempoData> tempi = new ArrayList<>();
-        ArrayList<KeyValue<Double, Integer>> pendingDurations = new ArrayList<>();
-
-        for (int tempoIndex = 0; tempoIndex < this.size(); ++tempoIndex) {              // traverse the elements of this tempoMap
-            TempoData td = this.getTempoDataOf(tempoIndex);                             // get the current tempo data
-            if (td == null)                                                             // if the index did not point to a tempo element (could have been a style switch instead)
-                continue;                                                               // take the next element until it is a tempo element to continue with the timing computations
-
-            // compute the milliseconds date of the tempo instruction and add it to the tempi list so we do not have to do this again later on
-            if (tempi.isEmpty())                                                                // if this is the first tempo instruction
-                td.startDateMilliseconds = TempoMap.renderTempoToMap(td.startDate, ppq, null);
-            else {
-                TempoData prevTd = tempi.get(tempi.size() - 1);                                 // the milliseconds date must be computed on the basis of the previous tempo instruction
-                td.startDateMilliseconds = TempoMap.renderTempoToMap(td.startDate, ppq, prevTd);
-                td.startDateMilliseconds += tempi.get(tempi.size() - 1).startDateMilliseconds;  // add the previous tempo instruction's time to get the final timing
-            }
-            tempi.add(td);
-
-            // compute the milliseconds dates of all map elements that fall under this tempo instruction
-            double milliseconds;
-            for (; mapIndex < map.size(); ++mapIndex) {                                 // traverse the map elements
-                KeyValue<Double, Element> mapEntry = map.elements.get(mapIndex);        // get the current map entry
-                if (mapEntry.getKey() > td.endDate)                                     // if the current map element is out of the scope of the current tempo data
-                    break;                                                              // stop here and find the next tempo element first before continuing
-
-                // compute the milliseconds dates
-                if (mapEntry.getKey() <= td.startDate)                                                      // if we are before the current tempo instruction
-                    milliseconds = TempoMap.renderTempoToMap(mapEntry.getKey(), ppq, null);
-                else
-                    milliseconds = TempoMap.renderTempoToMap(mapEntry.getKey(), ppq, td) + td.startDateMilliseconds;
-                mapEntry.getValue().addAttribute(new Attribute("milliseconds.date", Double.toString(milliseconds)));    // add the attribute
-
-                // duration has to be converted, too, but if this element has already a date.end attribute, we go on with this
-                Attribute dateEndAtt = Helper.getAttribute("date.end", mapEntry.getValue());        // some elements have already a date.end attribute (e.g. section and all notes and rests that were processed by RubatoMap.renderRubatoToMap())
-                if (dateEndAtt != null) {
-                    double endDate = Double.parseDouble(dateEndAtt.getValue());                     // get the tick date of the end of the map element
-                    pendingDurations.add(new KeyValue<>(endDate, mapIndex));                        // keep the mapIndex in the pendingDurations list to get back to it later
-                    continue;
-                }
-                Attribute durAtt = Helper.getAttribute("duration", mapEntry.getValue());            // if there was no date.end attribute, we check the presence of a duration attribute and generate date.end from it
-                if (durAtt != null) {
-                    double endDate = mapEntry.getKey() + Double.parseDouble(durAtt.getValue());     // get the tick date of the end of the map element
-                    mapEntry.getValue().addAttribute(new Attribute("date.end", Double.toString(endDate)));      // add attribute date.end
-                    pendingDurations.add(new KeyValue<>(endDate, mapIndex));                        // keep the mapIndex in the pendingDurations list to get back to it later
-                }
-            }
-
-            // check pending durations to fall under this tempo instruction and be processed now
-            for (int i=0; i < pendingDurations.size(); ++i) {
-                KeyValue<Double, Integer> pd = pendingDurations.get(i);
-                double endDate = pd.getKey();
-                if (endDate > td.endDate)
-                    continue;
-                if (endDate <= td.startDate)                                                    // if we are before the current tempo instruction
-                    milliseconds = TempoMap.renderTempoToMap(endDate, ppq, null);
-                else {
-                    milliseconds = TempoMap.renderTempoToMap(endDate, ppq, td) + td.startDateMilliseconds;
-                }
-                map.elements.get(pd.getValue()).getValue().addAttribute(new Attribute("milliseconds.date.end", Double.toString(milliseconds)));    // add the attribute
-                pendingDurations.remove(pd);
-                --i;
-            }
-
-            if ((mapIndex >= map.size()) && pendingDurations.isEmpty())     // all map elements have been processed and no pending durations to be converted by future tempo instructions
-                break;                                                      // no need to continue with remaining tempo elements
-        }
+    /**
+     * parse the tempo instructions of this tempoMap and compute their timing
+     * @param ppq the pulses per quarter timing resolution
+     * @return a timeline that converts tick dates to milliseconds dates
+     */
+    public TempoTimeline compile(int ppq) {
+        return new TempoTimeline(this.computeTimingOfTempoMap(ppq), ppq, this.elements.isEmpty());
     }
 
     /**
@@ -504,7 +429,7 @@ public class TempoMap extends GenericMap {
      * @param tempoData a TempoData instance or null (if no tempo information is geiven)
      * @return date in milliseconds (in case of tempoData != null the result is the difference between the actual milliseconds date and the milliseconds date of the tempo instruction)
      */
-    private static double renderTempoToMap(double date, int ppq, TempoData tempoData) {
+    static double renderTempoToMap(double date, int ppq, TempoData tempoData) {
         // no tempo data
         if (tempoData == null)
             return TempoMap.computeMillisecondsForNoTempo(date, ppq);
@@ -523,7 +448,7 @@ public class TempoMap extends GenericMap {
      * @param ppq
      * @return date in milliseconds
      */
-    private static double computeMillisecondsForNoTempo(double date, int ppq) {
+    static double computeMillisecondsForNoTempo(double date, int ppq) {
         return (600.0 * date) / ppq;
     }
 
@@ -539,30 +464,53 @@ public class TempoMap extends GenericMap {
     }
 
     /**
-     * timing computation for continuous tempo transition; this method uses Simpson's rule for numerical integration
+     * timing computation for continuous tempo transition;
+     * the integral of 1/tempo is tabulated in steps of a 16th (each step is integrated with 5-point Gauss-Legendre quadrature) and cached in the tempoData,
+     * so each call needs only one table lookup and the integration of the remainder
      * @param date
      * @param ppq
      * @param tempoData
      * @return the milliseconds difference between tempoData.startDate and date
      */
     private static double computeMillisecondsForTempoTransition(double date, int ppq, TempoData tempoData) {
-        // the number of iterations of the Simpson's rule = N/2; 16th precision; N must be even!
-        double N = 2.0 * (long)((date - tempoData.startDate) / (((double)ppq) / 4));
-        if (N == 0.0)
-            N = 2.0;
-
-        // compute some often needed values
-        double n = N / 2.0;                                                                                 // often needed, no need to compute it repetedly
-        double x = (date - tempoData.startDate) / N;                                                        // often needed, too
-
-        // compute Simpson's sum
-        double resultConst = ((date - tempoData.startDate) * 5000.0) / (N * tempoData.beatLength * ppq);    // the constant part of the formula
-        double resultSum = 1.0 / tempoData.bpm + 1.0 / TempoMap.getTempoAt(date, tempoData);
-        for (int k = 1; k < n; ++k)                                                                         // the sum of all even pieces of the Simpson's sum
-            resultSum += 2.0 / TempoMap.getTempoAt(tempoData.startDate + 2 * k * x, tempoData);
-        for (int k = 1; k <= n; ++k)                                                                        // the sum of all uneven pieces of the Simpson's sum
-            resultSum += 4.0 / TempoMap.getTempoAt(tempoData.startDate + (2 * k - 1) * x, tempoData);
-
-        return resultConst * resultSum;
+        double step = ((double) ppq) / 4;                                                                   // 16th precision
+        if ((tempoData.transitionIntegral == null) || (tempoData.transitionIntegralStep != step)) {         // initialize the table
+            tempoData.transitionIntegral = new double[16];
+            tempoData.transitionIntegral[0] = 0.0;
+            tempoData.transitionIntegralSize = 1;
+            tempoData.transitionIntegralStep = step;
+        }
+
+        int index = (int) Math.max(0.0, Math.floor((date - tempoData.startDate) / step));                  // the table entry at or before date
+        if (index >= tempoData.transitionIntegralSize) {                                                    // extend the table
+            if (index >= tempoData.transitionIntegral.length)
+                tempoData.transitionIntegral = Arrays.copyOf(tempoData.transitionIntegral, Math.max(index + 1, tempoData.transitionIntegral.length * 2));
+            for (int i = tempoData.transitionIntegralSize; i <= index; ++i) {
+                double from = tempoData.startDate + ((i - 1) * step);
+                tempoData.transitionIntegral[i] = tempoData.transitionIntegral[i - 1] + TempoMap.integrateInverseTempo(from, from + step, tempoData);
+            }
+            tempoData.transitionIntegralSize = index + 1;
+        }
+
+        double integral = tempoData.transitionIntegral[index] + TempoMap.integrateInverseTempo(tempoData.startDate + (index * step), date, tempoData);
+        return (integral * 15000.0) / (tempoData.beatLength * ppq);
+    }
+
+    /**
+     * integrate 1/tempo over a (short) date interval with 5-point Gauss-Legendre quadrature
+     * @param from
+     * @param to
+     * @param tempoData
+     * @return
+     */
+    static double integrateInverseTempo(double from, double to, TempoData tempoData) {
+        if (from == to)
+            return 0.0;
+        double halfLength = (to - from) / 2.0;
+        double center = from + halfLength;
+        double sum = 0.0;
+        for (int i = 0; i < GAUSS_NODES.length; ++i)
+            sum += GAUSS_WEIGHTS[i] / TempoMap.getTempoAt(center + (halfLength * GAUSS_NODES[i]), tempoData);
+        return sum * halfLength;
     }
 }
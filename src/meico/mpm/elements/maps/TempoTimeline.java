@@ -0,0 +1,252 @@
+package meico.mpm.elements.maps;
+
+import meico.mei.Helper;
+import meico.mpm.elements.maps.data.TempoData;
+import meico.supplementary.KeyValue;
+import nu.xom.Attribute;
+import nu.xom.Element;
+
+import java.util.ArrayList;
+
+/**
+ * This is a compiled form of a tempoMap for a specific ppq resolution. The tempo instructions are parsed once and their timing
+ * (start and end dates, milliseconds start dates) is stored in primitive arrays, so the milliseconds date of a tick date is found via binary search.
+ * A timeline is immutable and can be reused for all maps that are rendered with the same tempoMap, also from concurrent threads.
+ * Instances are created via TempoMap.compile().
+ * @author Axel Berndt.
+ */
+
+public class TempoTimeline {
+    private final int ppq;                          // the timing resolution
+    private final boolean empty;                    // true if the tempoMap has no elements at all, in this case the default tempo applies everywhere
+    private final TempoData[] tempi;                // the valid tempo instructions in the order of the tempoMap
+    private final double[] startDates;              // the start date of each tempo instruction
+    private final double[] endDates;                // the end date of each tempo instruction, these are non-decreasing
+    private final double[] startMilliseconds;       // the milliseconds date of the start of each tempo instruction
+    private final boolean[] transitions;            // true for each tempo instruction with a continuous tempo transition
+
+    /**
+     * constructor
+     * @param tempi the tempo instructions with attribute startDateMilliseconds set
+     * @param ppq
+     * @param empty true if the tempoMap has no elements
+     */
+    protected TempoTimeline(ArrayList<TempoData> tempi, int ppq, boolean empty) {
+        this.ppq = ppq;
+        this.empty = empty;
+        int n = tempi.size();
+        this.tempi = tempi.toArray(new TempoData[n]);
+        this.startDates = new double[n];
+        this.endDates = new double[n];
+        this.startMilliseconds = new double[n];
+        this.transitions = new boolean[n];
+
+        for (int i = 0; i < n; ++i) {
+            TempoData td = this.tempi[i];
+            this.startDates[i] = td.startDate;
+            this.endDates[i] = td.endDate;
+            this.startMilliseconds[i] = td.startDateMilliseconds;
+            this.transitions[i] = !td.isConstantTempo();
+            if (this.transitions[i] && (td.endDate != Double.MAX_VALUE))   // tabulate the whole transition now, so it will only be read from now on
+                TempoMap.renderTempoToMap(td.endDate, ppq, td);
+        }
+    }
+
+    /**
+     * @return the timing resolution of this timeline
+     */
+    public int getPPQ() {
+        return this.ppq;
+    }
+
+    /**
+     * compute the milliseconds date of a tick date
+     * @param date
+     * @return the milliseconds date or NaN if the date is not covered by the tempoMap (this happens only after an invalid tempo instruction at the end of the tempoMap)
+     */
+    public double getMilliseconds(double date) {
+        return this.getMilliseconds(date, this.getSegmentIndex(date, 0));
+    }
+
+    /**
+     * compute the tick date of a milliseconds date, this is the inverse of getMilliseconds();
+     * within tempo transitions the table of the transition is searched and the date is refined with Newton's method
+     * @param milliseconds
+     * @return the tick date or NaN if the milliseconds date is not covered by the tempoMap
+     */
+    public double getDate(double milliseconds) {
+        if (this.empty || (this.tempi.length == 0) || (milliseconds <= this.startMilliseconds[0]))
+            return (this.empty || (this.tempi.length > 0)) ? ((milliseconds * this.ppq) / 600.0) : Double.NaN;     // the inverse of TempoMap.computeMillisecondsForNoTempo()
+
+        // find the last tempo instruction that starts at or before the milliseconds date
+        int lo = 0;
+        int hi = this.startMilliseconds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.startMilliseconds[mid] <= milliseconds)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        int segment = lo - 1;
+        TempoData td = this.tempi[segment];
+        double integral = ((milliseconds - this.startMilliseconds[segment]) * td.beatLength * this.ppq) / 15000.0; // the integral of 1/tempo from the start of the tempo instruction to the date
+
+        if (!this.transitions[segment])                                                     // constant tempo
+            return Math.min(td.startDate + (integral * td.bpm), this.endDates[segment]);
+
+        if (this.endDates[segment] == Double.MAX_VALUE) {                                   // the table of an open-ended transition grows on demand
+            synchronized (td) {
+                double step = ((double) this.ppq) / 4;
+                TempoMap.renderTempoToMap(td.startDate, this.ppq, td);                      // make sure that the table exists, it may not have been used in forward direction yet
+                for (double length = step; td.transitionIntegral[td.transitionIntegralSize - 1] < integral; length *= 2.0)
+                    TempoMap.renderTempoToMap(td.startDate + length, this.ppq, td);        // extend the table
+                return TempoTimeline.getDateInTransition(integral, td);
+            }
+        }
+        return Math.min(TempoTimeline.getDateInTransition(integral, td), this.endDates[segment]);
+    }
+
+    /**
+     * find the date within a tempo transition at which the integral of 1/tempo reaches the specified value
+     * @param integral
+     * @param td the tempo transition with a table that covers the integral
+     * @return
+     */
+    private static double getDateInTransition(double integral, TempoData td) {
+        // binary search in the table
+        int lo = 0;
+        int hi = td.transitionIntegralSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (td.transitionIntegral[mid] <= integral)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        int index = Math.max(0, lo - 1);
+        double from = td.startDate + (index * td.transitionIntegralStep);
+        double to = from + td.transitionIntegralStep;
+        double rest = integral - td.transitionIntegral[index];
+
+        // Newton's method within the table step, the derivative of the integral is 1/tempo
+        double date = Math.min(from + (rest * TempoMap.getTempoAt(from, td)), to);
+        for (int i = 0; i < 16; ++i) {
+            double tempo = TempoMap.getTempoAt(date, td);
+            double delta = (TempoMap.integrateInverseTempo(from, date, td) - rest) * tempo;
+            date = Math.max(from, Math.min(to, date - delta));
+            if (Math.abs(delta) < 1.0E-9)
+                break;
+        }
+        return date;
+    }
+
+    /**
+     * find the first tempo instruction (beginning with the specified one) whose scope ends at or after the date
+     * @param date
+     * @param from the index of the tempo instruction to start with
+     * @return the index or -1
+     */
+    private int getSegmentIndex(double date, int from) {
+        int lo = from;
+        int hi = this.endDates.length;
+        while (lo < hi) {                                                                   // binary search in endDates
+            int mid = (lo + hi) >>> 1;
+            if (this.endDates[mid] < date)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return (lo < this.endDates.length) ? lo : -1;
+    }
+
+    /**
+     * compute the milliseconds date of a tick date within the scope of the specified tempo instruction
+     * @param date
+     * @param segment the index of the tempo instruction
+     * @return the milliseconds date or NaN
+     */
+    private double getMilliseconds(double date, int segment) {
+        if (this.empty)
+            return TempoMap.computeMillisecondsForNoTempo(date, this.ppq);
+        if (segment < 0)
+            return Double.NaN;
+        if (date <= this.startDates[segment])                                               // before the tempo instruction
+            return TempoMap.computeMillisecondsForNoTempo(date, this.ppq);
+
+        TempoData td = this.tempi[segment];
+        if (this.transitions[segment] && (this.endDates[segment] == Double.MAX_VALUE)) {    // the table of an open-ended transition grows on demand
+            synchronized (td) {
+                return TempoMap.renderTempoToMap(date, this.ppq, td) + this.startMilliseconds[segment];
+            }
+        }
+        return TempoMap.renderTempoToMap(date, this.ppq, td) + this.startMilliseconds[segment];
+    }
+
+    /**
+     * a static variant of renderTempoToMap() with the fallback mechanism of TempoMap.renderTempoToMap(GenericMap, int, TempoMap) if no timeline is provided
+     * @param map an instance of GenericMap, typically an MSM score element that has been parsed into such (e.g., GenericMap.createGenericMap(score))
+     * @param ppq the pulses per quarter timing resolution, used only if timeline is null
+     * @param timeline the compiled tempoMap that is the basis of these computations, or null
+     */
+    public static void renderTempoToMap(GenericMap map, int ppq, TempoTimeline timeline) {
+        if (timeline != null)
+            timeline.renderTempoToMap(map);
+        else
+            TempoMap.renderTempoToMap(map, ppq, (TempoMap) null);
+    }
+
+    /**
+     * iterate through the specified map, compute the milliseconds dates for all elements and add the results as attributes milliseconds.date and milliseconds.date.end
+     * @param map An instance of GenericMap, typically an MSM score element that has been parsed into such (e.g., GenericMap.createGenericMap(score)).
+     */
+    public void renderTempoToMap(GenericMap map) {
+        if (map == null)
+            return;
+
+        // processing for the case of an empty tempoMap
+        if (this.empty) {
+            for (KeyValue<Double, Element> mapEntry : map.elements) {                       // traverse the map elements
+                double milliseconds = TempoMap.computeMillisecondsForNoTempo(mapEntry.getKey(), this.ppq);   // convert the date
+                mapEntry.getValue().addAttribute(new Attribute("milliseconds.date", Double.toString(milliseconds)));        // add the attribute
+
+                // convert the duration
+                Attribute durAtt = Helper.getAttribute("duration", mapEntry.getValue());
+                if (durAtt == null)
+                    continue;
+                double endDate = mapEntry.getKey() + Double.parseDouble(durAtt.getValue());                     // get the tick date of the end of the map element
+                milliseconds = TempoMap.computeMillisecondsForNoTempo(endDate, this.ppq);                       // compute the millisecond end date
+                mapEntry.getValue().addAttribute(new Attribute("milliseconds.date.end", Double.toString(milliseconds)));    // add the attribute
+            }
+            return;
+        }
+
+        int segment = 0;
+        for (KeyValue<Double, Element> mapEntry : map.elements) {                           // traverse the map elements, they are ordered by date
+            segment = this.getSegmentIndex(mapEntry.getKey(), segment);                     // the tempo instruction that applies to the map element
+            if (segment < 0)                                                                // the map element and all subsequent ones are out of the scope of the tempoMap
+                break;
+            double milliseconds = this.getMilliseconds(mapEntry.getKey(), segment);
+            mapEntry.getValue().addAttribute(new Attribute("milliseconds.date", Double.toString(milliseconds)));    // add the attribute
+
+            // duration has to be converted, too, but if this element has already a date.end attribute, we go on with this
+            double endDate;
+            Attribute dateEndAtt = Helper.getAttribute("date.end", mapEntry.getValue());    // some elements have already a date.end attribute (e.g. section and all notes and rests that were processed by RubatoMap.renderRubatoToMap())
+            if (dateEndAtt != null)
+                endDate = Double.parseDouble(dateEndAtt.getValue());                        // get the tick date of the end of the map element
+            else {
+                Attribute durAtt = Helper.getAttribute("duration", mapEntry.getValue());    // if there was no date.end attribute, we check the presence of a duration attribute and generate date.end from it
+                if (durAtt == null)
+                    continue;
+                endDate = mapEntry.getKey() + Double.parseDouble(durAtt.getValue());        // get the tick date of the end of the map element
+                mapEntry.getValue().addAttribute(new Attribute("date.end", Double.toString(endDate)));  // add attribute date.end
+            }
+
+            int endSegment = this.getSegmentIndex(endDate, segment);                        // the end is in the scope of the same or a later tempo instruction
+            if (endSegment < 0)
+                continue;
+            milliseconds = this.getMilliseconds(endDate, endSegment);
+            mapEntry.getValue().addAttribute(new Attribute("milliseconds.date.end", Double.toString(milliseconds)));  // add the attribute
+        }
+    }
+}
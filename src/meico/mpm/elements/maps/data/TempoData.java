@@ -29,6 +29,10 @@ public class TempoData {
     public Double meanTempoAt = null;
     public Double exponent = null;
 
+    public double[] transitionIntegral = null;  // to be used during timing computations, not by the application; the integral of 1/tempo over the tempo transition at equidistant steps, it is computed on demand
+    public int transitionIntegralSize = 0;      // the number of valid entries in transitionIntegral
+    public double transitionIntegralStep = 0.0; // the step size of transitionIntegral in ticks
+
     /**
      * create a copy of this object
      * @return
@@ -1,23 +1,21 @@
 package meico.msm;
 
 import meico.mpm.elements.Performance;
-import meico.pitches.FeatureVector;
 import meico.pitches.Key;
 import meico.pitches.Pitches;
+import meico.pitches.RunLengthFeatures;
 import meico.mei.Helper;
 import meico.midi.*;
-import meico.supplementary.KeyValue;
+import meico.xml.BinaryXml;
 import nu.xom.*;
 import org.xml.sax.SAXException;
 
-import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiEvent;
-import javax.sound.midi.Sequence;
-import javax.sound.midi.Track;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class holds data in msm format (Musical Sequence Markup).
@@ -110,6 +108,39 @@ public class Msm extends AbstractMsm {
         super(inputStream, validate, schema);
     }
 
+    /**
+     * read an msm that was written with writeBinaryFile()
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Msm readBinaryFile(File file) throws IOException {
+        Msm msm = new Msm(new BinaryXml(file).getDocument());
+        msm.setFile(Helper.getFilenameWithoutExtension(file.getPath()) + ".msm");
+        return msm;
+    }
+
+    /**
+     * read only the parts of an msm that was written with writeBinaryFile(), the rest of the file is skipped
+     * @param file
+     * @return the part elements, they have no parent
+     * @throws IOException
+     */
+    public static ArrayList<Element> readBinaryParts(File file) throws IOException {
+        return new BinaryXml(file).getChildElements("part");
+    }
+
+    /**
+     * read a single part of an msm that was written with writeBinaryFile(), the rest of the file is skipped
+     * @param file
+     * @param name the value of the part's name attribute
+     * @return the part element (it has no parent) or null
+     * @throws IOException
+     */
+    public static Element readBinaryPart(File file, String name) throws IOException {
+        return new BinaryXml(file).getChildElement("part", "name", name);
+    }
+
     /**
      * this factory creates an initial Msm instance with empty global maps
      * @param title
@@ -393,10 +424,11 @@ public class Msm extends AbstractMsm {
 
         Element globalSequencingMap = this.getRootElement().getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("sequencingMap"); // get the global sequencingMap (or null if there is none)
         Elements parts = this.getRootElement().getChildElements("part");                                // get all the parts
+        ArrayList<SequencingSegment> globalSegments = (globalSequencingMap == null) ? null : SequencingSegment.compile(globalSequencingMap); // compile the global sequencingMap only once for all maps
         Element part, sequencingMap;                                                                    // these elements are used in the for loop that comes next
 
         // expand global maps
-        if (globalSequencingMap != null) {
+        if (globalSegments != null) {
             Elements maps = this.getRootElement().getFirstChildElement("global").getFirstChildElement("dated").getChildElements();
             for (int j = 0; j < maps.size(); ++j) {                                                     // go through all maps
                 Element map = maps.get(j);                                                              // one map
@@ -405,7 +437,7 @@ public class Msm extends AbstractMsm {
                         || map.getLocalName().equals("sequencingMap"))                                  // or if the map is empty
                     continue;                                                                           // continue with the next
 
-                Element newMap = Msm.applySequencingMapToMap(globalSequencingMap, map, repetitionIDs);  // apply the global sequencingMap to it
+                Element newMap = Msm.applySequencingMapToMap(globalSegments, map, repetitionIDs);       // apply the global sequencingMap to it
                 if (newMap != null)
                     this.getRootElement().getFirstChildElement("global").getFirstChildElement("dated").replaceChild(map, newMap);   // replace the old map by the new one
             }
@@ -416,24 +448,26 @@ public class Msm extends AbstractMsm {
             part = parts.get(i);                                                                        // get it as element
             sequencingMap = part.getFirstChildElement("dated").getFirstChildElement("sequencingMap");   // get the part's local sequencingMap if there is one
             boolean localMap = true;
+            ArrayList<SequencingSegment> segments;
             if (sequencingMap == null) {                                                                // if there is none
                 localMap = false;
-                sequencingMap = globalSequencingMap;                                                    // gegt the global sequencingMap
-                if ((sequencingMap == null) || (sequencingMap.getChildCount() == 0))                    // if there is none or it is empty
-                    continue;                                                                           // continue with the next part
+                segments = globalSegments;                                                              // get the global sequencingMap
+            }
+            else {
+                segments = SequencingSegment.compile(sequencingMap);                                    // compile the local sequencingMap
             }
 
             // go through the score and all maps (except the sequencingMap itself) and apply the sequencingMap to them
 //            Nodes maps = part.query("descendant::*[local-name()='score' or (contains(local-name(), 'Map') and not((local-name()='sequencingMap') or (local-name()='miscMap')))]");    // get the score and all maps
             Elements maps = part.getFirstChildElement("dated").getChildElements();
-            for (int j = 0; j < maps.size(); ++j) {                                                     // go through all maps
+            for (int j = 0; (segments != null) && (j < maps.size()); ++j) {                             // go through all maps, if there is something to expand
                 Element map = maps.get(j);                                                              // one map
                 if ((map.getChildCount() == 0)                                                          // do not expand sequencingMaps
                         || map.getLocalName().equals("miscMap")                                         // ignore miscMaps as they will be deleted anyway
                         || map.getLocalName().equals("sequencingMap"))                                  // or if the map is empty
                     continue;                                                                           // continue with the next
 
-                Element newMap = Msm.applySequencingMapToMap(sequencingMap, map, repetitionIDs);        // apply the sequencingMap to it
+                Element newMap = Msm.applySequencingMapToMap(segments, map, repetitionIDs);             // apply the sequencingMap to it
                 if (newMap != null) map.getParent().replaceChild(map, newMap);                          // replace the old map by the new one
             }
 
@@ -449,6 +483,25 @@ public class Msm extends AbstractMsm {
         return repetitionIDs;
     }
 
+    /**
+     * get the compiled sequencingMap that applies to the given part; if the part has a local sequencingMap (can be empty) it ignores the global sequencingMap
+     * @param part the msm part or null for the global sequencingMap
+     * @return the segments (see SequencingSegment.compile()) or null if there is nothing to expand
+     */
+    public ArrayList<SequencingSegment> getSequencingSegments(Element part) {
+        Element sequencingMap = null;
+        Element dated = (part == null) ? null : part.getFirstChildElement("dated");
+        if (dated != null)
+            sequencingMap = dated.getFirstChildElement("sequencingMap");                                // get the part's local sequencingMap if there is one
+        if (sequencingMap == null) {                                                                    // if there is none
+            Element global = this.getRootElement().getFirstChildElement("global");
+            dated = (global == null) ? null : global.getFirstChildElement("dated");
+            if (dated != null)
+                sequencingMap = dated.getFirstChildElement("sequencingMap");                            // get the global sequencingMap
+        }
+        return (sequencingMap == null) ? null : SequencingSegment.compile(sequencingMap);
+    }
+
     /**
      * apply the sequencingMap to the map; this expands the map
      * @param sequencingMap
@@ -457,113 +510,19 @@ public class Msm extends AbstractMsm {
      * @return the expanded map (to replace the old map) or null (to keep the old map)
      */
     public static Element applySequencingMapToMap(Element sequencingMap, Element map, HashMap<String, String> repetitionIDs) {
-        Elements gs = sequencingMap.getChildElements("goto");               // get the gotos
-        if (gs.size() == 0) return null;                                    // if there are no gotos in the sequencingMap, i.e. nothing to expand, return null
-
-        // make an ArrayList of Goto instances
-        ArrayList<Goto> gotos = new ArrayList<>();                          // this is the list
-        for (int i=0; i < gs.size(); ++i) {                                 // fill the goto list, got through all gotos
-            try {
-                gotos.add(new Goto(gs.get(i)));                             // from the goto element create a Goto instance
-            } catch (Exception e) {                                         // if this fails
-                e.printStackTrace();                                        // print the exception and continue with the next
-            }
-        }
-
-        // create a new map and fill it by traversing the original map as indicated by the goto elements
-        Element newMap = Helper.cloneElement(map);                          // make a flat copy of the map (no children so far) to refill it according to the sequencingMap
-
-        double currentDate = 0.0;                                           // start at date 0.0
-        double dateOffset = 0.0;                                            // this sums up the offsets that come form from inserting repetitions
-        for (int i=0; i < gotos.size(); ++i) {                              // find the next goto
-            Goto gt = gotos.get(i);                                         // get the next goto
-            if ((gt.date < currentDate) || !gt.isActive()) continue;        // if the goto is before currentDate or it is not active continue with the next
-
-            // copy everything between currentDate and gt.date from the original map into newMap
-            for (Element e = Msm.getElementAtAfter(currentDate, map); e != null; e = Helper.getNextSiblingElement(e)) { // go through the map elements, starting the first element at or after the goto's target.date, and then go on with the next sibling
-                currentDate = Double.parseDouble(e.getAttributeValue("date"));                                          // read its date
-                if (currentDate >= gt.date) break;                                                                      // if the element's date is at or after the goto (keep in mind, the goto is active) don't copy further, break the loop
-                Element eCopy = e.copy();                                                                               // make a deep copy of the element
-                eCopy.getAttribute("date").setValue(Double.toString(currentDate + dateOffset));                         // draw its date
-
-                Attribute endDate = e.getAttribute("date.end");                                                         // get the date.end attribute
-                if (endDate != null) {                                                                                  // if the element has one, update it, too
-                    double dur = Double.parseDouble(endDate.getValue()) - Double.parseDouble(e.getAttributeValue("date"));
-                    eCopy.getAttribute("date.end").setValue(Double.toString(currentDate + dur + dateOffset));
-                }
-
-                Attribute repetitionCounter = e.getAttribute("repetitionCounter");                                      // get the counter of how often we have already repeated this element
-                if (repetitionCounter != null) {                                                                        // this is not the first time we process this element
-                    int reps = 1 + Integer.parseInt(e.getAttributeValue("repetitionCounter"));                          // increase repetition counter
-                    e.getAttribute("repetitionCounter").setValue(Integer.toString(reps));                               // write it to the attribute
-                    Attribute id = eCopy.getAttribute("id", "http://www.w3.org/XML/1998/namespace");                    // get the id of eCopy or null if it has none
-                    if (id != null) {                                                                                   // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
-                        String prevId = id.getValue();                                                                  // get the base ID
-                        String newId = "meico_repetition_" + reps + "_" + prevId;                                       // generate a new ID including the base ID
-                        id.setValue(newId);                                                                             // set the attribute
-
-                        // the key of the hashmap entry should be the ID of the previous iteration, not the base ID
-                        for (int r = reps-1; r > 0; --r)                                                                // hence, we iterate through the hashmap as often as there were previous iterations
-                            prevId = repetitionIDs.get(prevId);                                                         // and keep the last of them to be used as key
-                        repetitionIDs.put(prevId, newId);                                                               // add the old-to-new-ID mapping to the hashmap, the old ID is the one from the previous iteration
-                    }
-                }
-                else {                                                                                                  // this is the first time we process this element
-                    e.addAttribute(new Attribute("repetitionCounter", "0"));                                            // add an attribute to count the repetitions
-                }
-                newMap.appendChild(eCopy);                                  // append the copy to the new map
-            }
-
-            dateOffset += gt.date - gt.targetDate;                          // draw the dateOffset
-            currentDate = gt.targetDate;                                    // draw currentDate
-            i = -1;                                                         // start searching for the next goto
-        }
-
-        // last goto has been processed, now do the rest until the end marker
-        for (Element e = Msm.getElementAtAfter(currentDate, map); e != null; e = Helper.getNextSiblingElement(e)) { // go through the map elements, starting the first element at or after the goto's target.date, and then go on with the next sibling
-            currentDate = Double.parseDouble(e.getAttributeValue("date"));                                          // read its date
-            Element eCopy = e.copy();                                                                               // make a deep copy of the element
-            eCopy.getAttribute("date").setValue(Double.toString(currentDate + dateOffset));                         // draw its date
-
-            Attribute endDate = e.getAttribute("date.end");                                                         // get the date.end attribute
-            if (endDate != null) {                                                                                  // if the element has one, update it, too
-                double dur = Double.parseDouble(endDate.getValue()) - Double.parseDouble(e.getAttributeValue("date"));
-                eCopy.getAttribute("date.end").setValue(Double.toString(currentDate + dur + dateOffset));
-            }
-
-            Attribute repetitionCounter = e.getAttribute("repetitionCounter");                                      // get the counter of how often we have already repeated this element
-            if (repetitionCounter != null) {                                                                        // this is not the first time we process this element
-                int reps = 1 + Integer.parseInt(e.getAttributeValue("repetitionCounter"));                          // increase repetition counter
-                e.getAttribute("repetitionCounter").setValue(Integer.toString(reps));                               // write it to the attribute
-                Attribute id = eCopy.getAttribute("id", "http://www.w3.org/XML/1998/namespace");                    // get the id of eCopy or null if it has none
-                if (id != null) {                                                                                   // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
-                    String prevId = id.getValue();                                                                  // get the base ID
-                    String newId = "meico_repetition_" + reps + "_" + prevId;                                       // generate a new ID including the base ID
-                    id.setValue(newId);                                                                             // set the attribute
-
-                    // the key of the hashmap entry should be the ID of the previous iteration, not the base ID
-                    for (int r = reps-1; r > 0; --r)                                                                // hence, we iterate through the hashmap as often as there were previous iterations
-                        prevId = repetitionIDs.get(prevId);                                                         // and keep the last of them to be used as key
-                    repetitionIDs.put(prevId, newId);                                                               // add the old-to-new-ID mapping to the hashmap, the old ID is the one from the previous iteration
-                }
-            }
-
-            newMap.appendChild(eCopy);                                      // append the copy to the new map
-        }
-
-        // cleanup: delete all repetitionCounter attributes from all map and newMap elements
-        Nodes rs = map.query("descendant::*[@repetitionCounter]");
-        for (int i = rs.size()-1; i >= 0; --i) {
-            Element r = (Element) rs.get(i);
-            r.removeAttribute(r.getAttribute("repetitionCounter"));
-        }
-        rs = newMap.query("descendant::*[@repetitionCounter]");
-        for (int i = rs.size()-1; i >= 0; --i) {
-            Element r = (Element) rs.get(i);
-            r.removeAttribute(r.getAttribute("repetitionCounter"));
-        }
+        return Msm.applySequencingMapToMap(SequencingSegment.compile(sequencingMap), map, repetitionIDs);
+    }
 
-        return newMap;
+    /**
+     * apply the compiled sequencingMap to the map; this materializes the RepetitionView of the map
+     * @param segments the output of SequencingSegment.compile()
+     * @param map
+     * @param repetitionIDs this hashmap will be filled with mappings of xml:id's that are extended to avoid double occurrences
+     * @return the expanded map (to replace the old map) or null (to keep the old map)
+     */
+    public static Element applySequencingMapToMap(ArrayList<SequencingSegment> segments, Element map, HashMap<String, String> repetitionIDs) {
+        if (segments == null) return null;                                  // nothing to expand
+        return new RepetitionView(map, segments).materialize(repetitionIDs); // create the expanded map from the view
     }
 
     /**
@@ -618,6 +577,17 @@ public class Msm extends AbstractMsm {
         return this.renderMidi(bpm, generateProgramChanges, false);
     }
 
+    /**
+     * converts the msm data into a midi sequence and create a midi object from it
+     * @param bpm the tempo of the midi track
+     * @param generateProgramChanges if true, program change events are generated (useful for MIR and as a cheap kind of piano reduction); but be careful: if your channel is set on trumpet it would not be set on piano automatically, you have to take care!
+     * @param playRepetitions if true, the sequencingMaps are applied on the fly (see RepetitionView) without expanding the msm data
+     * @return the midi object created or null if this msm object is empty or something else went wrong
+     */
+    public Midi exportMidi(double bpm, boolean generateProgramChanges, boolean playRepetitions) {
+        return this.renderMidi(bpm, generateProgramChanges, false, playRepetitions);
+    }
+
     /**
      * This method should only be invoked when performance rendering has already been applied to this MSM so it has the additional expression attributes (milliseconds.date, velocity etc.).
      * It renders the MIDI on the basis of these attributes. If they are missing, the non-performance specific counterpart attributes are used. But be warned, the result may be surprising due to potential data inconsistency!
@@ -662,24 +632,30 @@ public class Msm extends AbstractMsm {
      * @return the midi object created or null if this msm object is empty or something else went wrong
      */
     private Midi renderMidi(double bpm, boolean generateProgramChanges, boolean exportExpressiveMidi) {
+        return this.renderMidi(bpm, generateProgramChanges, exportExpressiveMidi, false);
+    }
+
+    /**
+     * converts the msm data into a midi sequence and create a midi object from it
+     * @param bpm the tempo of the midi track
+     * @param generateProgramChanges if true, program change events are generated (useful for MIR and as a cheap kind of piano reduction); but be careful: if your channel is set on trumpet it would not be set on piano automatically, you have to take care!
+     * @param exportExpressiveMidi set true to make performance rendering and export expressive MIDI
+     * @param playRepetitions set true to apply the sequencingMaps on the fly; this is ignored for expressive MIDI as the milliseconds dates are rendered into the msm data and require an expanded msm
+     * @return the midi object created or null if this msm object is empty or something else went wrong
+     */
+    private Midi renderMidi(double bpm, boolean generateProgramChanges, boolean exportExpressiveMidi, boolean playRepetitions) {
         long startTime = System.currentTimeMillis();                        // we measure the time that the conversion consumes
         System.out.println("\nConverting " + ((this.file != null) ? this.file.getName() : "MSM data") + " to MIDI.");
 
         if (this.isEmpty())                                                 // if there is no data
             return null;                                                    // return null
 
-        // create an empty midi sequence
+        // create empty midi data; a javax.sound.midi.Sequence is created from it not before an application requests it
         int ppq = this.getPPQ();
-        Sequence seq;
-        try {
-            seq = new Sequence(Sequence.PPQ, ppq);                          // create the midi sequence
-        } catch (InvalidMidiDataException e) {                              // if failed for some reason
-            e.printStackTrace();                                            // print error message
-            return null;                                                    // return null
-        }
+        Smf smf = new Smf(ppq);
 
-        // parse the msm, create MidiEvent objects (MidiMessage object with a tick value), add them to a Sequence object (each Track represents a part)
-        Track track = seq.createTrack();            // create the first midi track; it is used for global meta data (tempo, time signature, key signature, marker)
+        // parse the msm, create midi events with a tick value, add them to the midi data (each track represents a part, the first track is used for global meta data (tempo, time signature, key signature, marker))
+        TrackBuilder track = new TrackBuilder();    // the events are collected here and added to the track in one go when the track is complete
 
         if (exportExpressiveMidi) {                 // if we want to output expressive midi, we render the midi events on the basis of milliseconds dates
             this.makeMillisecondTickTempo(track);   // set the midi clock tempo so that one tick is equal to one millisecond
@@ -689,60 +665,120 @@ public class Msm extends AbstractMsm {
             this.makeInitialTempo(bpm, track);      // this method does not create an exhaustive tempo map; this is left to the performance rendering after extracting a music performance markup structure from mei; however, to specify at least a basic tempo for the midi sequence created here, we generate one tempo event at the beginning with the specified bpm
         }
 
-        this.parseMarkerMap(this.getRootElement().getFirstChildElement("global"), track, exportExpressiveMidi);         // parse markerMap
-        this.parseTimeSignatureMap(this.getRootElement().getFirstChildElement("global"), track, exportExpressiveMidi);  // parse timeSignatureMap
-        this.parseKeySignatureMap(this.getRootElement().getFirstChildElement("global"), track, exportExpressiveMidi);   // parse keySignatureMap
+        playRepetitions = playRepetitions && !exportExpressiveMidi;
+        ArrayList<SequencingSegment> segments = playRepetitions ? this.getSequencingSegments(null) : null;            // the compiled global sequencingMap
+
+        this.parseMarkerMap(this.getRootElement().getFirstChildElement("global"), track, exportExpressiveMidi, segments);         // parse markerMap
+        this.parseTimeSignatureMap(this.getRootElement().getFirstChildElement("global"), track, exportExpressiveMidi, segments);  // parse timeSignatureMap
+        this.parseKeySignatureMap(this.getRootElement().getFirstChildElement("global"), track, exportExpressiveMidi, segments);   // parse keySignatureMap
 //        this.parsePedalMap(this.getRootElement().getFirstChildElement("global"), track, exportExpressiveMidi);          // parse pedalMap
+        track.build(smf);                           // sort the global events and fill the global track with them
 
-        // parse the parts, each part becomes a midi track
+        // parse the parts, each part becomes a midi track; the parts are independent from each other, so they are rendered concurrently
+        ArrayList<Element> parts = new ArrayList<>();
         for (Element part = this.getRootElement().getFirstChildElement("part"); part != null; part = Helper.getNextSiblingElement("part", part)) {  // go through all parts in the msm document
             if (part.getAttribute("midi.channel") == null) continue;                                            // no channel information, cancel this part element's processing and continue with the next part
+            parts.add(part);
+        }
+        for (Smf partSmf : this.renderParts(parts, ppq, generateProgramChanges, exportExpressiveMidi, playRepetitions))
+            smf.appendTracks(partSmf);                                                                          // add the part tracks in the order of the parts
 
-            // create and prepare the midi channel from the part
-            track = seq.createTrack();                                                                          // create a new midi track for this part and write all further data into it
-
-            short port = 0;
-            if (part.getAttribute("midi.port") != null)                                                         // if midi port is specified in MSM (should be)
-                port = Short.parseShort(part.getAttributeValue("midi.port"));                                   // get the port number
-            MidiEvent portEvent = EventMaker.createMidiPortEvent(0, port);                                      // create midi event
-            track.add(portEvent);                                                                               // add it to the track
+        // TODO: AllNotesOff at the end
 
-            short chan = Short.parseShort(part.getAttributeValue("midi.channel"));                              // get the MIDI channel number
-            MidiEvent channelPrefix = EventMaker.createChannelPrefix(0, chan);                                  // create a channel prefix event that says all subsequent meta messages go to this channel
-            track.add(channelPrefix);                                                                           // add the event to the track
+        // create the meico.Midi object
+        if (this.getFile() != null) {
+            File midiFile = new File(Helper.getFilenameWithoutExtension(this.getFile().getPath()) + ".mid");    // set the filename extension of the Midi object to "mid"
+            System.out.println("MSM to MIDI conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+            return new Midi(smf, midiFile);                                                                     // create and return the Midi object
+        }
 
-            // parse the score, keySignatureMap, timeSignatureMap, markerMap to midi
-            boolean reallyGenerateProgramChanges = generateProgramChanges;
-            if (reallyGenerateProgramChanges) {
-                reallyGenerateProgramChanges = !this.parseProgramChangeMap(part, track, chan, exportExpressiveMidi);
-            }
-            this.processPartName(part, track, chan, reallyGenerateProgramChanges);                              // scan the part attribute name for a known string to create a gm program change and instrument name event ... but only if there is no programChangeMap providing an initial program change number
+        System.out.println("MSM to MIDI conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
 
+        return new Midi(smf);                                                                                   // the MSM has no file information create the Midi instance only from the midi data and with file=null
+    }
 
-            // if there are local meta events to be generated
-            this.parseKeySignatureMap(part, track, exportExpressiveMidi);                                       // parse keySignatureMap
-            this.parseTimeSignatureMap(part, track, exportExpressiveMidi);                                      // parse timeSignatureMap
-            this.parseMarkerMap(part, track, exportExpressiveMidi);                                             // parse markerMap
+    /**
+     * render the parts to midi tracks, concurrently if there are several parts
+     * @param parts the parts to be rendered, they must have a midi.channel attribute
+     * @param ppq
+     * @param generateProgramChanges
+     * @param exportExpressiveMidi
+     * @param playRepetitions
+     * @return one Smf instance with one track per part, in the order of the parts
+     */
+    private ArrayList<Smf> renderParts(ArrayList<Element> parts, int ppq, boolean generateProgramChanges, boolean exportExpressiveMidi, boolean playRepetitions) {
+        ArrayList<Smf> tracks = new ArrayList<>();
+        int threads = Math.min(parts.size(), Runtime.getRuntime().availableProcessors());
+
+        if (threads <= 1) {                                                     // no need for a worker pool
+            for (Element part : parts) {
+                Smf partSmf = new Smf(ppq);
+                this.renderPart(part, generateProgramChanges, exportExpressiveMidi, playRepetitions).build(partSmf);
+                tracks.add(partSmf);
+            }
+            return tracks;
+        }
 
-            this.parseChannelVolumeMap(part, track, exportExpressiveMidi);                                      // parse the channelVolumeTrack (only in expressive MIDI mode)
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Smf>> results = new ArrayList<>();
+        for (Element part : parts) {                                            // each part is rendered by a worker, the workers only read the msm data
+            results.add(executor.submit(new Callable<Smf>() {
+                @Override
+                public Smf call() {
+                    Smf partSmf = new Smf(ppq);
+                    renderPart(part, generateProgramChanges, exportExpressiveMidi, playRepetitions).build(partSmf);   // sorting the events is done by the worker, too
+                    return partSmf;
+                }
+            }));
+        }
+        executor.shutdown();
 
-//            this.parsePedalMap(part, track, exportExpressiveMidi);                                            // parse pedalMap
+        tracks.addAll(Helper.getResults(results, executor));                    // collect the results in the order of the parts, a failed part fails the export as in sequential mode
+        return tracks;
+    }
 
-            this.processScore(part, track, exportExpressiveMidi);                                               // parse score
+    /**
+     * render the midi events of a part
+     * @param part the part, it must have a midi.channel attribute
+     * @param generateProgramChanges
+     * @param exportExpressiveMidi
+     * @param playRepetitions
+     * @return the builder that holds the part's events
+     */
+    private TrackBuilder renderPart(Element part, boolean generateProgramChanges, boolean exportExpressiveMidi, boolean playRepetitions) {
+        TrackBuilder track = new TrackBuilder();
+
+        // create and prepare the midi channel from the part
+        short port = 0;
+        if (part.getAttribute("midi.port") != null)                                                         // if midi port is specified in MSM (should be)
+            port = Short.parseShort(part.getAttributeValue("midi.port"));                                   // get the port number
+        MidiEvent portEvent = EventMaker.createMidiPortEvent(0, port);                                      // create midi event
+        track.add(portEvent);                                                                               // add it to the track
+
+        short chan = Short.parseShort(part.getAttributeValue("midi.channel"));                              // get the MIDI channel number
+        MidiEvent channelPrefix = EventMaker.createChannelPrefix(0, chan);                                  // create a channel prefix event that says all subsequent meta messages go to this channel
+        track.add(channelPrefix);                                                                           // add the event to the track
+
+        // parse the score, keySignatureMap, timeSignatureMap, markerMap to midi
+        ArrayList<SequencingSegment> segments = playRepetitions ? this.getSequencingSegments(part) : null;  // the compiled sequencingMap that applies to this part
+        boolean reallyGenerateProgramChanges = generateProgramChanges;
+        if (reallyGenerateProgramChanges) {
+            reallyGenerateProgramChanges = !this.parseProgramChangeMap(part, track, chan, exportExpressiveMidi, segments);
         }
+        this.processPartName(part, track, chan, reallyGenerateProgramChanges);                              // scan the part attribute name for a known string to create a gm program change and instrument name event ... but only if there is no programChangeMap providing an initial program change number
 
-        // TODO: AllNotesOff at the end
+        // if there are local meta events to be generated
+        this.parseKeySignatureMap(part, track, exportExpressiveMidi, segments);                             // parse keySignatureMap
+        this.parseTimeSignatureMap(part, track, exportExpressiveMidi, segments);                            // parse timeSignatureMap
+        this.parseMarkerMap(part, track, exportExpressiveMidi, segments);                                   // parse markerMap
 
-        // create the meico.Midi object
-        if (this.getFile() != null) {
-            File midiFile = new File(Helper.getFilenameWithoutExtension(this.getFile().getPath()) + ".mid");    // set the filename extension of the Midi object to "mid"
-            System.out.println("MSM to MIDI conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
-            return new Midi(seq, midiFile);                                                                     // create and return the Midi object
-        }
+        this.parseChannelVolumeMap(part, track, exportExpressiveMidi);                                      // parse the channelVolumeTrack (only in expressive MIDI mode)
 
-        System.out.println("MSM to MIDI conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+//        this.parsePedalMap(part, track, exportExpressiveMidi);                                                // parse pedalMap
 
-        return new Midi(seq);                                                                                   // the MSM has no file information create the Midi instance only from the sequence and with file=null
+        this.processScore(part, track, exportExpressiveMidi, segments);                                     // parse score
+
+        return track;
     }
 
     /**
@@ -758,29 +794,19 @@ public class Msm extends AbstractMsm {
             max = x;
         }
 
-        // find all velocity attributes and get their values
-        ArrayList<KeyValue<Double, Attribute>> velocities = new ArrayList<>();      // a list of tuplets with the attributes and their value
+        // find all velocity values
+        ArrayList<NoteTable> tables = NoteTable.createNoteTables(this);             // the columnar views of the parts' scores
         double lowest = Double.MAX_VALUE;                                           // this will get the lowest velocity value
         double highest = Double.MIN_VALUE;                                          // this will get the highest velocity value
-        Elements parts = this.getParts();
-        for (Element part : parts) {                                                // in each part
-            Element dated = Helper.getFirstChildElement("dated", part);             // get the part's dated environment
-            if (dated == null)
-                continue;
-            Element score = Helper.getFirstChildElement("score", dated);            // get the score element
-            if (score == null)
-                continue;
-            LinkedList<Element> notes = Helper.getAllChildElements("note", score);  // get all note elements in the score
-            for (Element note : notes) {                                            // for each note
-                Attribute velAtt = Helper.getAttribute("velocity", note);           // get its velocity attribute
-                if (velAtt == null)
+        for (NoteTable table : tables) {                                            // in each part
+            double[] velocities = table.getVelocities();                            // get the velocity column
+            for (double value : velocities) {                                       // for each note
+                if (Double.isNaN(value))                                            // no velocity attribute
                     continue;
-                double value = Double.parseDouble(velAtt.getValue());               // read the attribute's value into a double
                 if (value < lowest)                                                 // if this is lower than the lowest so far
                     lowest = value;                                                 // keep the value
                 else if (value > highest)                                           // if the value is greater than the highest so far
                     highest = value;                                                // keep the value
-                velocities.add(new KeyValue<>(value, velAtt));                      // create a tuplet and add it to the ArrayList
             }
         }
 
@@ -791,7 +817,10 @@ public class Msm extends AbstractMsm {
 
         // otherwise we need to apply compression
         System.out.println("Warning: velocity values [" + lowest + ", " + highest + "] break the specified limits [" + min + ", " + max + "] and will be compressed.");
-        Msm.computePartwiseCompression(velocities, lowest, highest, min, max);
+        for (NoteTable table : tables) {
+            Msm.computePartwiseCompression(table, NoteTable.VELOCITY, lowest, highest, min, max);
+            table.writeBack();                                                      // write the compressed values to the note elements
+        }
     }
 
     /**
@@ -818,13 +847,14 @@ public class Msm extends AbstractMsm {
     /**
      * This method computes a compression of a limited input domain (lowest &le; x &le; highest) to a limited output domain (limited by min and max).
      * It uses a partwise linear mapping. It tries to limit the range of compression depending on how much the limits are broken by lowest and highest value.
-     * @param attributes the values to be mapped according to the compession
+     * @param table the note table that holds the values to be mapped according to the compession
+     * @param attribute the column of the table to be mapped
      * @param lowest
      * @param highest
      * @param min
      * @param max
      */
-    private static void computePartwiseCompression(ArrayList<KeyValue<Double, Attribute>> attributes, double lowest, double highest, double min, double max) {
+    private static void computePartwiseCompression(NoteTable table, String attribute, double lowest, double highest, double min, double max) {
         // on the basis of the lowest and highest value (the extremes of the input domain), compute the range to be compresed, i.e. [lowest, lowerCompMax] and [upperCompMin, highest]
         double lowerCompMax = min;
         double upperCompMin = max;
@@ -859,8 +889,11 @@ public class Msm extends AbstractMsm {
 //            lowerRolloff2 = lowerRolloff1;
         }
 
-        for (KeyValue<Double, Attribute> attribute : attributes) {
-            double x = attribute.getKey();
+        double[] values = table.getColumn(attribute);
+        for (int i = 0; i < values.length; ++i) {
+            double x = values[i];
+            if (Double.isNaN(x))                                                    // the note has no such attribute
+                continue;
             double result = x;
 
             if (x < lowerCompMax) {
@@ -873,8 +906,8 @@ public class Msm extends AbstractMsm {
             else {
                 continue;
             }
-//            System.out.println("DEBUG " + x + " -> " + attribute.getValue().getValue());
-            attribute.getValue().setValue(Double.toString(result));
+//            System.out.println("DEBUG " + x + " -> " + result);
+            table.set(attribute, i, result);
         }
     }
 
@@ -885,7 +918,7 @@ public class Msm extends AbstractMsm {
      * @param bpm
      * @param track
      */
-    private void makeInitialTempo(double bpm, Track track) {
+    private void makeInitialTempo(double bpm, TrackBuilder track) {
         double beatlength;
         // if there are global time signature information, take the denominator value as beatlength, otherwise default beatlength is 1/4
         try {
@@ -900,17 +933,17 @@ public class Msm extends AbstractMsm {
      * This method creates an initial tempo where one midi tick corresponds with one millisecond. This is the tempo setting for expressive midi export as the event timing is set by the event dates and not by tempo.
      * @param track
      */
-    private void makeMillisecondTickTempo(Track track) {
+    private void makeMillisecondTickTempo(TrackBuilder track) {
         track.add(EventMaker.createTempo(0, 60000.0 / this.getPPQ(), 0.25));
     }
 
     /**
      * scan the part attribute name for a known string to create a gm program change and instrument name event
      * @param part
-     * @param track the track that shall correspond to the part
+     * @param track the builder of the track that shall correspond to the part
      * @param generateProgramChanges if true, program change events are generated (useful for MIR and as a cheap kind of piano reduction)
      */
-    private void processPartName(Element part, Track track, short channel, boolean generateProgramChanges) {
+    private void processPartName(Element part, TrackBuilder track, short channel, boolean generateProgramChanges) {
         if ((part.getAttribute("name") == null) || part.getAttributeValue("name").isEmpty()) {          // if there is no name
             if (generateProgramChanges)
                 track.add(EventMaker.createProgramChange(channel, 0, EventMaker.PC_Acoustic_Grand_Piano));  // add program change event for Acoustic Grand Piano
@@ -930,9 +963,10 @@ public class Msm extends AbstractMsm {
      * @param part
      * @param track
      * @param channel
+     * @param segments the compiled sequencingMap to be applied or null
      * @return true if there is at least one program change at date 0.0
      */
-    private boolean parseProgramChangeMap(Element part, Track track, short channel, boolean exportExpressiveMidi) {
+    private boolean parseProgramChangeMap(Element part, TrackBuilder track, short channel, boolean exportExpressiveMidi, ArrayList<SequencingSegment> segments) {
         if (part.getFirstChildElement("dated") == null)
             return false;
 
@@ -941,8 +975,10 @@ public class Msm extends AbstractMsm {
             return false;
 
         boolean weHaveAnInitialPrgCh = false;
-        for (Element n = programChangeMap.getFirstChildElement("programChange"); n != null; n = Helper.getNextSiblingElement("programChange", n)) {   // go through all programChange elements in the map
-            long date = exportExpressiveMidi ? Msm.readMillisecondsDateFromElement(n) : Math.round(Double.parseDouble(Helper.getAttributeValue("date", n)));
+        RepetitionView view = new RepetitionView(programChangeMap, "programChange", segments);
+        for (int i = 0; i < view.size(); ++i) {                                     // go through all programChange elements in the map
+            Element n = view.getElement(i);
+            long date = exportExpressiveMidi ? Msm.readMillisecondsDateFromElement(n) : Math.round(view.getDate(i));
             if (date == 0.0)
                 weHaveAnInitialPrgCh = true;
             short value = Short.parseShort(n.getAttributeValue("value"));
@@ -954,43 +990,56 @@ public class Msm extends AbstractMsm {
     /**
      * parse the elements in the score map of part (part.dated.score) to midi events and add them to track
      * @param part  the msm source
-     * @param track the midi track
+     * @param track the builder of the midi track
      * @param exportExpressiveMidi set true to use the milliseconds dates and durations instead of the raw date and duration attributes
+     * @param segments the compiled sequencingMap to be applied or null
      */
-    private void processScore(Element part, Track track, boolean exportExpressiveMidi) {
+    private void processScore(Element part, TrackBuilder track, boolean exportExpressiveMidi, ArrayList<SequencingSegment> segments) {
         if ((part.getFirstChildElement("dated") == null)
                 || (part.getFirstChildElement("dated").getFirstChildElement("score") == null)
                 || (part.getAttribute("midi.channel") == null))                                                      // if no sufficient information
             return;                                                                                                  // cancel
 
-        int chan = Integer.parseInt(part.getAttributeValue("midi.channel"));                                         // get the midi channel number
-
-        for (Element n = part.getFirstChildElement("dated").getFirstChildElement("score").getFirstChildElement("note"); n != null; n = Helper.getNextSiblingElement("note", n)) {   // go through all note elements in score
-            int pitch = Math.round(Float.parseFloat(Helper.getAttributeValue("midi.pitch", n)));                    // Math.round(float) returns int; so far pitches are well captured by number type float
+        NoteTable table = new NoteTable(part);                                                                       // the columnar view of the score
+        int chan = table.getChannel();                                                                               // get the midi channel number
+        double[] pitches = table.getPitches();
+        double[] dates = table.getDates();
+        double[] durations = table.getDurations();
+        double[] msDates = exportExpressiveMidi ? table.getMillisecondsDates() : null;
+        double[] msDatesEnd = exportExpressiveMidi ? table.getMillisecondsDatesEnd() : null;
+        double[] velocities = exportExpressiveMidi ? table.getVelocities() : null;
+
+        RepetitionView view = new RepetitionView(part.getFirstChildElement("dated").getFirstChildElement("score"), "note", segments);    // the order in which the notes are played, its source indices are the rows of the table
+
+        for (int v = 0; v < view.size(); ++v) {                                                                     // go through all note elements in score
+            int i = view.getSourceIndex(v);
+            if (Double.isNaN(pitches[i])) {                                                                         // without a pitch the note cannot be played
+                System.err.println("Missing attribute \"midi.pitch\" in element " + table.getElement(i).toXML() + ". The note is skipped.");
+                continue;
+            }
+            int pitch = Math.round((float) pitches[i]);                                                             // Math.round(float) returns int; so far pitches are well captured by number type float
 
             if (exportExpressiveMidi) {                                                                             // if expressive midi should be exported, we need to use the milliseconds date and duration
-                long date = Msm.readMillisecondsDateFromElement(n);
+                long date = Double.isNaN(msDates[i]) ? Msm.readMillisecondsDateFromElement(table.getElement(i)) : Math.round(msDates[i]);  // Math.round(double) returns long
 
-                Attribute velocityAtt = Helper.getAttribute("velocity", n);                                         // get the velocity attribute
-                int velocity = (velocityAtt == null) ? 100 : Math.round(Float.parseFloat(velocityAtt.getValue()));  // if there is no velocity attribute set velocity to 100 by default, otherwise Math.round(float) outputs the integer velocity
-                track.add(EventMaker.createNoteOn(chan, date, pitch, velocity));
+                int velocity = Double.isNaN(velocities[i]) ? 100 : Math.round((float) velocities[i]);              // if there is no velocity attribute set velocity to 100 by default, otherwise Math.round(float) outputs the integer velocity
+                track.addNoteOn(chan, date, pitch, velocity);
 
                 long dateEnd;
-                Attribute endAtt = Helper.getAttribute("milliseconds.date.end", n);
-                if (endAtt == null) {
-                    System.err.println("Missing attribute \"milliseconds.date.end\" in element " + n.toXML() + ". Using attribute \"duration\" instead.");
-                    long dur = Math.round(Double.parseDouble(Helper.getAttributeValue("duration", n)));
+                if (Double.isNaN(msDatesEnd[i])) {
+                    System.err.println("Missing attribute \"milliseconds.date.end\" in element " + table.getElement(i).toXML() + ". Using attribute \"duration\" instead.");
+                    long dur = Math.round(durations[i]);
                     dateEnd = date + dur;
                 } else {
-                    dateEnd = Math.round(Double.parseDouble(endAtt.getValue()));
+                    dateEnd = Math.round(msDatesEnd[i]);
                 }
-                track.add(EventMaker.createNoteOff(chan, dateEnd, pitch, 0));
+                track.addNoteOff(chan, dateEnd, pitch, 0);
             } else {
-                long date = Math.round(Double.parseDouble(Helper.getAttributeValue("date", n)));                    // Math.round(double) returns long
-                track.add(EventMaker.createNoteOn(chan, date, pitch, 100));
+                long date = Math.round(dates[i] + view.getDateOffset(v));                                           // Math.round(double) returns long
+                track.addNoteOn(chan, date, pitch, 100);
 
-                long dur = Math.round(Double.parseDouble(Helper.getAttributeValue("duration", n)));
-                track.add(EventMaker.createNoteOff(chan, date + dur, pitch, 0));
+                long dur = Math.round(durations[i]);
+                track.addNoteOff(chan, date + dur, pitch, 0);
             }
 
             // TODO: process text (not implemented in mei-to-msm-export, yet, but planned to be added in the future)
@@ -1003,7 +1052,7 @@ public class Msm extends AbstractMsm {
      * @param track
      * @param exportExpressiveMidi
      */
-    private void parseChannelVolumeMap(Element part, Track track, boolean exportExpressiveMidi) {
+    private void parseChannelVolumeMap(Element part, TrackBuilder track, boolean exportExpressiveMidi) {
         if (!exportExpressiveMidi                               // channelVolumeMap is exported only in expressive MIDI mode
                 || (part.getFirstChildElement("dated") == null)
                 || (part.getAttribute("midi.channel") == null))
@@ -1042,20 +1091,22 @@ public class Msm extends AbstractMsm {
      * parse the elements in the keySignatureMap of part (part.dated.keySignatureMap) to midi events and add them to track
      *
      * @param part  the msm source
-     * @param track the midi track
+     * @param track the builder of the midi track
      */
-    private void parseKeySignatureMap(Element part,  Track track, boolean exportExpressiveMidi) {
+    private void parseKeySignatureMap(Element part,  TrackBuilder track, boolean exportExpressiveMidi, ArrayList<SequencingSegment> segments) {
         if ((part.getFirstChildElement("dated") == null)
                 || (part.getFirstChildElement("dated").getFirstChildElement("keySignatureMap") == null))        // if no sufficient information
             return;                                                                                             // cancel
 
-        for (Element e = part.getFirstChildElement("dated").getFirstChildElement("keySignatureMap").getFirstChildElement("keySignature"); e != null; e = Helper.getNextSiblingElement("keySignature", e)) {   // go through all elements in the keySignatureMap
+        RepetitionView view = new RepetitionView(part.getFirstChildElement("dated").getFirstChildElement("keySignatureMap"), "keySignature", segments);
+        for (int i = 0; i < view.size(); ++i) {                                                                 // go through all elements in the keySignatureMap
+            Element e = view.getElement(i);
             long date;
             if (exportExpressiveMidi) {
                 date = Msm.readMillisecondsDateFromElement(e);
             }
             else
-                date = Math.round(Double.parseDouble(e.getAttributeValue("date")));                             // get the date of the key signature
+                date = Math.round(view.getDate(i));                                                             // get the date of the key signature
 
             int accids = 0;
             for (Element a = e.getFirstChildElement("accidental"); a != null; a = Helper.getNextSiblingElement("accidental", a)) {  // count the accidentals (-=flats +=sharps)
@@ -1079,17 +1130,19 @@ public class Msm extends AbstractMsm {
      * @param part
      * @param track
      */
-    private void parseTimeSignatureMap(Element part,  Track track, boolean exportExpressiveMidi) {
+    private void parseTimeSignatureMap(Element part,  TrackBuilder track, boolean exportExpressiveMidi, ArrayList<SequencingSegment> segments) {
         if ((part.getFirstChildElement("dated") == null)
                 || (part.getFirstChildElement("dated").getFirstChildElement("timeSignatureMap") == null))       // if no sufficient information
             return;                                                                                             // cancel
 
-        for (Element e = part.getFirstChildElement("dated").getFirstChildElement("timeSignatureMap").getFirstChildElement("timeSignature"); e != null; e = Helper.getNextSiblingElement("timeSignature", e)) {   // go through all elements in the keySignatureMap
+        RepetitionView view = new RepetitionView(part.getFirstChildElement("dated").getFirstChildElement("timeSignatureMap"), "timeSignature", segments);
+        for (int i = 0; i < view.size(); ++i) {                                                                 // go through all elements in the timeSignatureMap
+            Element e = view.getElement(i);
             long date;
             if (exportExpressiveMidi)
                 date = Msm.readMillisecondsDateFromElement(e);
             else
-                date = Math.round(Double.parseDouble(e.getAttributeValue("date")));
+                date = Math.round(view.getDate(i));
 
             int numerator = (e.getAttribute("numerator") == null) ? 4 : (int)Math.round(Double.parseDouble(e.getAttributeValue("numerator")));
             int denominator = (e.getAttribute("denominator") == null) ? 4 : (int)Math.round(Double.parseDouble(e.getAttributeValue("denominator")));
@@ -1102,14 +1155,16 @@ public class Msm extends AbstractMsm {
      * @param part
      * @param track
      */
-    private void parseMarkerMap(Element part,  Track track, boolean exportExpressiveMidi) {
+    private void parseMarkerMap(Element part,  TrackBuilder track, boolean exportExpressiveMidi, ArrayList<SequencingSegment> segments) {
         if ((part.getFirstChildElement("dated") == null)
                 || (part.getFirstChildElement("dated").getFirstChildElement("markerMap") == null))              // if no sufficient information
             return;                                                                                             // cancel
 
         String message;                                                                                         // the marker message
 
-        for (Element e = part.getFirstChildElement("dated").getFirstChildElement("markerMap").getFirstChildElement("marker"); e != null; e = Helper.getNextSiblingElement("marker", e)) {
+        RepetitionView view = new RepetitionView(part.getFirstChildElement("dated").getFirstChildElement("markerMap"), "marker", segments);
+        for (int i = 0; i < view.size(); ++i) {
+            Element e = view.getElement(i);
             try {
                 message = e.getAttributeValue("message");
             } catch (NullPointerException | NumberFormatException error) {
@@ -1119,7 +1174,7 @@ public class Msm extends AbstractMsm {
             if (exportExpressiveMidi)
                 track.add(EventMaker.createMarker(Msm.readMillisecondsDateFromElement(e), message));
             else
-                track.add(EventMaker.createMarker(Math.round(Double.parseDouble(e.getAttributeValue("date"))), message));
+                track.add(EventMaker.createMarker(Math.round(view.getDate(i)), message));
         }
     }
 
@@ -1129,17 +1184,14 @@ public class Msm extends AbstractMsm {
      */
     public synchronized double getEndDate() {
         double latestOffset = 0.0;
-        Elements parts = this.getRootElement().getChildElements("part");                            // get all parts
-
-        for (int i = 0; i < parts.size(); ++i) {                                                    // in each part
-            Elements notes = parts.get(i).getFirstChildElement("dated").getFirstChildElement("score").getChildElements("note");    // navigate to the note elements
+        for (Element part : this.getParts()) {                                                      // in each part
+            NoteTable table = new NoteTable(part);                                                  // get the columnar view of the part's score
+            double[] dates = table.getDates();
+            double[] durations = table.getDurations();
 
             // compute the offest of each note and keep the last one
-            for (int j = notes.size()-1; j >= 0; --j) {                                             // go through all notes
-                Element note = notes.get(j);                                                        // get the note
-                double date = Double.parseDouble(note.getAttributeValue("date"));                   // get its date
-                double dur = Double.parseDouble(note.getAttributeValue("duration"));                // get its duration
-                double offset = date + dur;                                                         // compute the offset date
+            for (int j = table.size() - 1; j >= 0; --j) {                                           // go through all notes
+                double offset = dates[j] + durations[j];                                            // compute the offset date
                 if (offset > latestOffset)                                                          // if its after the last offset known so far
                     latestOffset = offset;                                                          // set this to the last offset
             }
@@ -1173,47 +1225,56 @@ public class Msm extends AbstractMsm {
     public Pitches exportPitches(Key key) {
         long startTime = System.currentTimeMillis();                                                    // we measure the time that the conversion consumes
         System.out.println("\nConverting " + ((this.file != null) ? this.file.getName() : "MSM data") + " to pitch data.");
-        Pitches pitches = new Pitches(key); // create Pitches object with equal temperament and A = 440 Hz
-        pitches.setFile(Helper.getFilenameWithoutExtension(this.getFile().getPath()) + ".json");        // set a filename for the pitches
-
         int minPPQ = this.getMinimalPPQ();
         double timingReductionFactor = (double)this.getPPQ() / minPPQ;                                  // for memory efficiency it is highly required reduce the frame count, this here is the factor for this
         System.out.print("timing is reduced to " + minPPQ + " ppq ... ");
 
-        // for each note in the music add its pitches vectors to the pitches object
-        Elements parts = this.getRootElement().getChildElements("part");                                // get all parts
-        for (int i = 0; i < parts.size(); ++i) {                                                        // in each part
-            Elements notes = parts.get(i).getFirstChildElement("dated").getFirstChildElement("score").getChildElements("note");    // navigate to the note elements
-            for (int j = notes.size()-1; j >= 0; --j) {                                                 // go through all notes
-                Element note = notes.get(j);                                                            // get a note
+        // collect the frames, feature element and id of each note
+        ArrayList<NoteTable> tables = NoteTable.createNoteTables(this);
+        int noteCount = 0;
+        for (NoteTable table : tables)
+            noteCount += table.size();
+        int[] starts = new int[noteCount];
+        int[] ends = new int[noteCount];
+        int[] bins = new int[noteCount];
+        String[] ids = new String[noteCount];
+
+        int n = 0;
+        for (NoteTable table : tables) {                                                                // in each part
+            double[] dates = table.getDates();
+            double[] durations = table.getDurations();
+            double[] midiPitches = table.getPitches();
+            String[] noteIds = table.getIds();
+            for (int j = table.size() - 1; j >= 0; --j) {                                               // go through all notes
+                if (Double.isNaN(midiPitches[j])) {                                                     // without a pitch the note has no feature
+                    System.err.println("Missing attribute \"midi.pitch\" in element " + table.getElement(j).toXML() + ". The note is skipped.");
+                    continue;
+                }
 
-                int date = (int)Double.parseDouble(note.getAttributeValue("date"));                     // get its date
-                int noteOff = date + (int)Double.parseDouble(note.getAttributeValue("duration"));       // compute its noteOff date
+                int date = (int) dates[j];                                                              // get its date
+                int noteOff = date + (int) durations[j];                                                // compute its noteOff date
 
-                double pitch = Double.parseDouble(note.getAttributeValue("midi.pitch"));                // get its pitch
+                double pitch = midiPitches[j];                                                          // get its pitch
                 if (key.getOctaveModulo()) pitch %= key.getSize();                                      // if the feature represents pitch classes do the modulo operation on the pitch value
                 else if (pitch > (key.getSize()-1)) pitch = key.getSize()-1;                            // clip extremely high pitch values at highest possible value
                 else if (pitch < 0.0) pitch = 0.0;                                                      // clip pitch values lower than 0.0
 
-                // create the FeatureVector
-                FeatureVector feature = new FeatureVector(key);
-                feature.getFeatureElement((int) pitch).addEnergy(1.0);
-
-                // associate this note's xml:id with the FeatureElement
-                Attribute noteId =  note.getAttribute("id", "http://www.w3.org/XML/1998/namespace");
-                if (noteId != null)
-                    feature.getFeatureElement((int) pitch).addNoteId(noteId.getValue());
-
                 // do timing reduction
                 date /= timingReductionFactor;
                 noteOff /= timingReductionFactor;
 
-                // generate pitch data
-                for (int k = date; k < noteOff; ++k)                                                    // for as long as the note duration says
-                    pitches.addFeatureAt(k, feature);                                                   // add the feature vector to pitches (midi tick-wise)
+                starts[n] = date;
+                ends[n] = noteOff;
+                bins[n] = (int) pitch;
+                ids[n] = noteIds[j];                                                                    // associate this note's xml:id with the feature element
+                ++n;
             }
         }
 
+        // generate the pitch data as runs of frames with the same feature, dense feature vectors are generated only on demand
+        Pitches pitches = new Pitches(new RunLengthFeatures(key, starts, ends, bins, ids, n));
+        pitches.setFile(Helper.getFilenameWithoutExtension(this.getFile().getPath()) + ".json");        // set a filename for the pitches
+
         System.out.println("MSM to pitch data conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
 
         return pitches;      // output the result
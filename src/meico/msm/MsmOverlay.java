@@ -0,0 +1,381 @@
+package meico.msm;
+
+import meico.midi.Midi;
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Node;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * This is a compact, read-only form of a performed MSM (see Performance.performOverlay()). Instead of a full copy of the document it
+ * keeps only the attributes that performance rendering added or changed (e.g. milliseconds.date, milliseconds.date.end, velocity, date.end, detune)
+ * in side arrays keyed to the elements of the shared source MSM, plus copies of the elements that it appended (e.g. channelVolumeMaps).
+ * The source MSM must not be altered as long as the overlay is in use. The full MSM is materialized only on demand, see materialize(), writeFile() and exportExpressiveMidi().
+ * @author Axel Berndt.
+ */
+
+public class MsmOverlay {
+    private static final byte CLEAR = 0;                    // remove all attributes of the element, the following entries set them anew
+    private static final byte REMOVE = 1;                   // remove the attribute
+    private static final byte STRING = 2;                   // set the attribute to the value in strings
+    private static final byte NUMBER = 3;                   // set the attribute to the value in numbers, it is stored as double as its string form is identical to Double.toString()
+
+    private final Msm source;                               // the shared source msm
+    private File file;                                      // the file of the performed msm
+    private Msm performed = null;                           // the performed msm if it could not be expressed as an overlay (its structure differs from the source), else null
+
+    private Element[] targets = new Element[64];            // for each entry the element in the source msm, entries are in document order
+    private byte[] kinds = new byte[64];                    // for each entry what to do
+    private String[] names = new String[64];                // for each entry the qualified attribute name
+    private String[] namespaces = new String[64];           // for each entry the attribute's namespace URI
+    private String[] strings = new String[64];              // for each entry the attribute value if it is of kind STRING
+    private double[] numbers = new double[64];              // for each entry the attribute value if it is of kind NUMBER
+    private int size = 0;                                   // the number of entries
+
+    private final ArrayList<Element> appendTargets = new ArrayList<>(); // the source elements that got new child elements, in document order
+    private final ArrayList<Element> appended = new ArrayList<>();      // copies of the new child elements
+
+    private final HashMap<String, String> namePool = new HashMap<>();   // all entries share the same attribute name strings
+    private IdentityHashMap<Element, Integer> index = null;             // for each target the index of its first entry, built on demand
+
+    /**
+     * constructor, it compares the performed msm with its source and keeps only the differences
+     * @param source the msm that the performance was rendered into
+     * @param performed the performed msm, e.g. the result of Performance.perform(source)
+     */
+    public MsmOverlay(Msm source, Msm performed) {
+        this.source = source;
+        this.file = performed.getFile();
+
+        if ((source.getDocument().getChildCount() != performed.getDocument().getChildCount()) || !this.compare(source.getRootElement(), performed.getRootElement())) {
+            this.performed = performed;                     // fallback: keep the performed msm as it is
+            this.appendTargets.clear();
+            this.appended.clear();
+            this.size = 0;
+        }
+
+        // release the unused capacity
+        this.targets = Arrays.copyOf(this.targets, this.size);
+        this.kinds = Arrays.copyOf(this.kinds, this.size);
+        this.names = Arrays.copyOf(this.names, this.size);
+        this.namespaces = Arrays.copyOf(this.namespaces, this.size);
+        this.strings = Arrays.copyOf(this.strings, this.size);
+        this.numbers = Arrays.copyOf(this.numbers, this.size);
+        this.appendTargets.trimToSize();
+        this.appended.trimToSize();
+        this.namePool.clear();
+    }
+
+    /**
+     * compare an element of the source with its counterpart in the performed msm and add the differences to the overlay
+     * @param s the source element
+     * @param p the performed element
+     * @return false if the structure differs so the differences cannot be expressed as an overlay
+     */
+    private boolean compare(Element s, Element p) {
+        if (!s.getQualifiedName().equals(p.getQualifiedName()) || !s.getNamespaceURI().equals(p.getNamespaceURI()))
+            return false;
+
+        // attributes: the performed attributes must be the kept source attributes in their order followed by the new ones, otherwise all attributes are set anew
+        boolean keepsOrder = true;
+        int k = 0;
+        for (int i = 0; i < s.getAttributeCount(); ++i) {
+            Attribute a = s.getAttribute(i);
+            Attribute b = p.getAttribute(a.getLocalName(), a.getNamespaceURI());
+            if (b == null)                                  // removed attribute
+                continue;
+            if ((k >= p.getAttributeCount()) || (p.getAttribute(k) != b)) {
+                keepsOrder = false;
+                break;
+            }
+            ++k;
+        }
+
+        if (keepsOrder) {
+            for (int i = 0; i < s.getAttributeCount(); ++i) {
+                Attribute a = s.getAttribute(i);
+                Attribute b = p.getAttribute(a.getLocalName(), a.getNamespaceURI());
+                if (b == null)
+                    this.add(s, REMOVE, a, null);
+                else if (!a.getValue().equals(b.getValue()))
+                    this.add(s, STRING, b, b.getValue());
+            }
+            for (; k < p.getAttributeCount(); ++k)          // the new attributes
+                this.add(s, STRING, p.getAttribute(k), p.getAttribute(k).getValue());
+        }
+        else {
+            this.add(s, CLEAR, null, null);
+            for (int i = 0; i < p.getAttributeCount(); ++i)
+                this.add(s, STRING, p.getAttribute(i), p.getAttribute(i).getValue());
+        }
+
+        // child nodes: the source children must be unchanged in structure, new elements may only be appended
+        int count = s.getChildCount();
+        if (p.getChildCount() < count)
+            return false;
+        for (int i = 0; i < count; ++i) {
+            Node a = s.getChild(i);
+            Node b = p.getChild(i);
+            if (a instanceof Element) {
+                if (!(b instanceof Element) || !this.compare((Element) a, (Element) b))
+                    return false;
+            }
+            else if ((a.getClass() != b.getClass()) || !a.getValue().equals(b.getValue()))
+                return false;
+        }
+        for (int i = count; i < p.getChildCount(); ++i) {
+            Node b = p.getChild(i);
+            if (!(b instanceof Element))
+                return false;
+            this.appendTargets.add(s);
+            this.appended.add((Element) b.copy());
+        }
+        return true;
+    }
+
+    /**
+     * add an entry
+     * @param target
+     * @param kind
+     * @param attribute the attribute whose name is used, null for kind CLEAR
+     * @param value the value for kind STRING, it is stored as NUMBER if possible
+     */
+    private void add(Element target, byte kind, Attribute attribute, String value) {
+        if (this.size == this.targets.length) {
+            int capacity = this.size * 2;
+            this.targets = Arrays.copyOf(this.targets, capacity);
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.namespaces = Arrays.copyOf(this.namespaces, capacity);
+            this.strings = Arrays.copyOf(this.strings, capacity);
+            this.numbers = Arrays.copyOf(this.numbers, capacity);
+        }
+
+        if ((kind == STRING) && !value.isEmpty() && (value.length() < 32)) {
+            try {
+                double number = Double.parseDouble(value);
+                if (Double.toString(number).equals(value)) {   // the number can be stored losslessly
+                    kind = NUMBER;
+                    this.numbers[this.size] = number;
+                    value = null;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        this.targets[this.size] = target;
+        this.kinds[this.size] = kind;
+        this.names[this.size] = (attribute == null) ? null : this.pool(attribute.getQualifiedName());
+        this.namespaces[this.size] = (attribute == null) ? null : this.pool(attribute.getNamespaceURI());
+        this.strings[this.size] = value;
+        ++this.size;
+    }
+
+    /**
+     * get the shared instance of a string
+     * @param string
+     * @return
+     */
+    private String pool(String string) {
+        String pooled = this.namePool.get(string);
+        if (pooled != null)
+            return pooled;
+        this.namePool.put(string, string);
+        return string;
+    }
+
+    /**
+     * @return the source msm
+     */
+    public Msm getSource() {
+        return this.source;
+    }
+
+    /**
+     * @return the file of the performed msm
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * set the file of the performed msm
+     * @param filename
+     */
+    public void setFile(String filename) {
+        this.file = new File(filename);
+    }
+
+    /**
+     * @return the number of attribute entries in the overlay
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return true if the performed msm could not be expressed as an overlay of the source so it is kept as a whole
+     */
+    public boolean isMaterialized() {
+        return this.performed != null;
+    }
+
+    /**
+     * read the value of an attribute without namespace as it is in the performed msm
+     * @param element an element of the source msm
+     * @param localName the local name of the attribute
+     * @return the value or null if the performed element has no such attribute (or the overlay is materialized, see isMaterialized())
+     */
+    public String getAttributeValue(Element element, String localName) {
+        return this.getAttributeValue(element, localName, "");
+    }
+
+    /**
+     * read the value of an attribute as it is in the performed msm
+     * @param element an element of the source msm
+     * @param localName the local name of the attribute
+     * @param namespaceURI the namespace of the attribute, "" for attributes without namespace (e.g. "http://www.w3.org/XML/1998/namespace" for xml:id)
+     * @return the value or null if the performed element has no such attribute (or the overlay is materialized, see isMaterialized())
+     */
+    public String getAttributeValue(Element element, String localName, String namespaceURI) {
+        if (this.performed != null)
+            return null;
+
+        synchronized (this) {
+            if (this.index == null) {
+                this.index = new IdentityHashMap<>();
+                for (int i = this.size - 1; i >= 0; --i)
+                    this.index.put(this.targets[i], i);
+            }
+        }
+
+        String value = null;
+        boolean found = false;
+        Integer first = this.index.get(element);
+        if (first != null) {
+            for (int i = first; (i < this.size) && (this.targets[i] == element); ++i) {
+                if (this.kinds[i] == CLEAR) {
+                    found = true;                           // the source attributes are not in the performed element
+                    continue;
+                }
+                if (!this.getLocalName(i).equals(localName) || !this.namespaces[i].equals(namespaceURI))
+                    continue;
+                found = true;
+                value = (this.kinds[i] == REMOVE) ? null : this.getValue(i);
+            }
+        }
+        if (found)
+            return value;
+
+        Attribute attribute = element.getAttribute(localName, namespaceURI);
+        return (attribute == null) ? null : attribute.getValue();
+    }
+
+    /**
+     * @param i the index of an entry
+     * @return the local name of the attribute of the entry
+     */
+    private String getLocalName(int i) {
+        String name = this.names[i];
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    /**
+     * @param i the index of an entry of kind STRING or NUMBER
+     * @return the attribute value of the entry
+     */
+    private String getValue(int i) {
+        return (this.kinds[i] == NUMBER) ? Double.toString(this.numbers[i]) : this.strings[i];
+    }
+
+    /**
+     * create the full performed msm
+     * @return a new Msm object, it is independent of the source and the overlay
+     */
+    public Msm materialize() {
+        Msm msm = (this.performed != null) ? this.performed.clone() : this.source.clone();
+        if (this.performed == null)
+            this.apply(this.source.getRootElement(), msm.getRootElement(), new int[]{0, 0});
+        msm.setFile(this.file);
+        return msm;
+    }
+
+    /**
+     * apply the entries of an element to its copy and continue recursively with the child elements
+     * @param s the element in the source msm
+     * @param c its copy
+     * @param cursor the index of the next entry and the index of the next appended element
+     */
+    private void apply(Element s, Element c, int[] cursor) {
+        for (; (cursor[0] < this.size) && (this.targets[cursor[0]] == s); ++cursor[0]) {
+            int i = cursor[0];
+            switch (this.kinds[i]) {
+                case CLEAR:
+                    while (c.getAttributeCount() > 0)
+                        c.removeAttribute(c.getAttribute(0));
+                    break;
+                case REMOVE: {
+                    Attribute attribute = c.getAttribute(this.getLocalName(i), this.namespaces[i]);
+                    if (attribute != null)
+                        c.removeAttribute(attribute);
+                    break;
+                }
+                default: {
+                    Attribute attribute = c.getAttribute(this.getLocalName(i), this.namespaces[i]);
+                    if (attribute != null)
+                        attribute.setValue(this.getValue(i));   // keeps the position of the attribute
+                    else
+                        c.addAttribute(new Attribute(this.names[i], this.namespaces[i], this.getValue(i)));
+                }
+            }
+        }
+
+        for (int i = 0; i < s.getChildCount(); ++i) {
+            Node n = s.getChild(i);
+            if (n instanceof Element)
+                this.apply((Element) n, (Element) c.getChild(i), cursor);
+        }
+
+        for (; (cursor[1] < this.appended.size()) && (this.appendTargets.get(cursor[1]) == s); ++cursor[1])
+            c.appendChild(this.appended.get(cursor[1]).copy());
+    }
+
+    /**
+     * materialize the performed msm and write it to its file
+     * @return success
+     */
+    public boolean writeFile() {
+        return this.materialize().writeFile();
+    }
+
+    /**
+     * materialize the performed msm and write it to the specified file
+     * @param filename
+     * @return success
+     */
+    public boolean writeFile(String filename) {
+        return this.materialize().writeFile(filename);
+    }
+
+    /**
+     * materialize the performed msm and export expressive midi from it, see Msm.exportExpressiveMidi()
+     * @return
+     */
+    public Midi exportExpressiveMidi() {
+        return this.materialize().exportExpressiveMidi();
+    }
+
+    /**
+     * materialize the performed msm and export expressive midi from it
+     * @param generateProgramChanges
+     * @return
+     */
+    public Midi exportExpressiveMidi(boolean generateProgramChanges) {
+        return this.materialize().exportExpressiveMidi(null, generateProgramChanges);
+    }
+}
@@ -0,0 +1,291 @@
+package meico.msm;
+
+import nu.xom.Element;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This is an index of the notes of an MSM part for time range queries ("which notes sound between t1 and t2").
+ * A note sounds in the interval [start, end), either in the symbolic domain (date to date + duration) or in the milliseconds domain (milliseconds.date to milliseconds.date.end) of a performed MSM.
+ * The notes are sorted by start and an implicit balanced binary tree over the sorted arrays is augmented with the maximum end in each subtree (an interval tree), so the queries take O(log n + k) for k results.
+ * Notes without the required attributes are not indexed.
+ * @author Axel Berndt.
+ */
+
+public class NoteIndex {
+    private final NoteTable table;                  // the notes
+    private final boolean milliseconds;             // true for the milliseconds domain, false for the symbolic domain
+    private double[] starts;                        // the starts of the indexed notes in ascending order
+    private double[] ends;                          // the ends of the indexed notes
+    private int[] rows;                             // the rows of the indexed notes in the table
+    private double[] maxEnds;                       // for each node of the implicit tree (the middle element of a range of indices) the maximum end in its subtree
+    private int[] positions;                        // for each row of the table its index in the arrays above or -1 if it is not indexed
+    private int size = 0;                           // the number of indexed notes
+
+    /**
+     * constructor
+     * @param table the notes of a part
+     * @param milliseconds set true to index the milliseconds dates of a performed MSM, false to index the symbolic dates
+     */
+    public NoteIndex(NoteTable table, boolean milliseconds) {
+        this.table = table;
+        this.milliseconds = milliseconds;
+        this.rebuild();
+    }
+
+    /**
+     * constructor
+     * @param part an MSM part
+     * @param milliseconds set true to index the milliseconds dates of a performed MSM, false to index the symbolic dates
+     */
+    public NoteIndex(Element part, boolean milliseconds) {
+        this(new NoteTable(part), milliseconds);
+    }
+
+    /**
+     * create the indices of all parts of an MSM
+     * @param msm
+     * @param milliseconds set true to index the milliseconds dates of a performed MSM, false to index the symbolic dates
+     * @return
+     */
+    public static ArrayList<NoteIndex> createNoteIndices(Msm msm, boolean milliseconds) {
+        ArrayList<NoteIndex> indices = new ArrayList<>();
+        for (NoteTable table : NoteTable.createNoteTables(msm))
+            indices.add(new NoteIndex(table, milliseconds));
+        return indices;
+    }
+
+    /**
+     * build the index from the table; this is required after notes have been added or removed (and the table has been invalidated)
+     */
+    public synchronized void rebuild() {
+        int n = this.table.size();
+        double[] s = new double[n];
+        double[] e = new double[n];
+        Integer[] order = new Integer[n];
+        this.size = 0;
+        for (int row = 0; row < n; ++row) {
+            s[row] = this.getStart(row);
+            e[row] = this.getEnd(row);
+            if (!Double.isNaN(s[row]) && !Double.isNaN(e[row]))
+                order[this.size++] = row;
+        }
+        Arrays.sort(order, 0, this.size, (a, b) -> Double.compare(s[a], s[b]));
+
+        this.starts = new double[this.size];
+        this.ends = new double[this.size];
+        this.rows = new int[this.size];
+        this.positions = new int[n];
+        Arrays.fill(this.positions, -1);
+        for (int i = 0; i < this.size; ++i) {
+            int row = order[i];
+            this.starts[i] = s[row];
+            this.ends[i] = e[row];
+            this.rows[i] = row;
+            this.positions[row] = i;
+        }
+
+        this.maxEnds = new double[this.size];
+        this.computeMaxEnds(0, this.size - 1, 0, this.size - 1);
+    }
+
+    /**
+     * update the index after the timing of a note has been changed (via the table's set() method or after the table has been invalidated without adding or removing notes);
+     * the note is moved to its new position and only the tree nodes above the moved range are recomputed
+     * @param row the row of the note in the table
+     */
+    public synchronized void update(int row) {
+        double start = this.getStart(row);
+        double end = this.getEnd(row);
+        int pos = this.positions[row];
+
+        if (pos < 0) {                                                          // the note was not indexed so far
+            if (Double.isNaN(start) || Double.isNaN(end))
+                return;
+            this.rebuild();                                                     // this changes the size of the arrays
+            return;
+        }
+        if (Double.isNaN(start) || Double.isNaN(end)) {                         // the note cannot be indexed anymore
+            this.rebuild();
+            return;
+        }
+
+        // find the new position and shift the elements in between
+        int target = pos;
+        while ((target > 0) && (this.starts[target - 1] > start))
+            --target;
+        while ((target < this.size - 1) && (this.starts[target + 1] < start))
+            ++target;
+        if (target < pos) {
+            System.arraycopy(this.starts, target, this.starts, target + 1, pos - target);
+            System.arraycopy(this.ends, target, this.ends, target + 1, pos - target);
+            System.arraycopy(this.rows, target, this.rows, target + 1, pos - target);
+        }
+        else if (target > pos) {
+            System.arraycopy(this.starts, pos + 1, this.starts, pos, target - pos);
+            System.arraycopy(this.ends, pos + 1, this.ends, pos, target - pos);
+            System.arraycopy(this.rows, pos + 1, this.rows, pos, target - pos);
+        }
+        this.starts[target] = start;
+        this.ends[target] = end;
+        this.rows[target] = row;
+
+        int from = Math.min(pos, target);
+        int to = Math.max(pos, target);
+        for (int i = from; i <= to; ++i)
+            this.positions[this.rows[i]] = i;
+
+        this.computeMaxEnds(0, this.size - 1, from, to);
+    }
+
+    /**
+     * recompute the maximum ends of the tree nodes whose subtrees contain an index in [from, to]
+     * @param left the first index of the subtree
+     * @param right the last index of the subtree
+     * @param from
+     * @param to
+     * @return the maximum end in the subtree
+     */
+    private double computeMaxEnds(int left, int right, int from, int to) {
+        if (left > right)
+            return Double.NEGATIVE_INFINITY;
+        int mid = (left + right) >>> 1;
+        if ((right < from) || (left > to))                                      // nothing changed in this subtree
+            return this.maxEnds[mid];
+        double max = Math.max(this.ends[mid], Math.max(this.computeMaxEnds(left, mid - 1, from, to), this.computeMaxEnds(mid + 1, right, from, to)));
+        this.maxEnds[mid] = max;
+        return max;
+    }
+
+    /**
+     * @param row
+     * @return the start of the note in the index's domain or NaN
+     */
+    private double getStart(int row) {
+        return this.milliseconds ? this.table.getMillisecondsDates()[row] : this.table.getDates()[row];
+    }
+
+    /**
+     * @param row
+     * @return the end of the note in the index's domain or NaN
+     */
+    private double getEnd(int row) {
+        return this.milliseconds ? this.table.getMillisecondsDatesEnd()[row] : (this.table.getDates()[row] + this.table.getDurations()[row]);
+    }
+
+    /**
+     * @return the table of the indexed notes
+     */
+    public NoteTable getTable() {
+        return this.table;
+    }
+
+    /**
+     * @return true if the index is in the milliseconds domain, false if in the symbolic domain
+     */
+    public boolean isMilliseconds() {
+        return this.milliseconds;
+    }
+
+    /**
+     * @return the number of indexed notes
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * find the notes that sound in the time range [from, to), i.e. start before to and end after from
+     * @param from
+     * @param to
+     * @return the rows of the notes in the table, ordered by start
+     */
+    public synchronized int[] getRows(double from, double to) {
+        IntList result = new IntList();
+        this.collect(0, this.size - 1, from, to, false, result);
+        return result.toArray();
+    }
+
+    /**
+     * find the notes that sound at the given time, i.e. start at or before it and end after it
+     * @param date
+     * @return the rows of the notes in the table, ordered by start
+     */
+    public synchronized int[] getRowsAt(double date) {
+        IntList result = new IntList();
+        this.collect(0, this.size - 1, date, date, true, result);
+        return result.toArray();
+    }
+
+    /**
+     * find the notes that sound in the time range [from, to), i.e. start before to and end after from
+     * @param from
+     * @param to
+     * @return the note elements, ordered by start
+     */
+    public ArrayList<Element> getNotes(double from, double to) {
+        return this.toElements(this.getRows(from, to));
+    }
+
+    /**
+     * find the notes that sound at the given time, i.e. start at or before it and end after it
+     * @param date
+     * @return the note elements, ordered by start
+     */
+    public ArrayList<Element> getNotesAt(double date) {
+        return this.toElements(this.getRowsAt(date));
+    }
+
+    /**
+     * @param rows
+     * @return the note elements of the rows
+     */
+    private ArrayList<Element> toElements(int[] rows) {
+        ArrayList<Element> notes = new ArrayList<>(rows.length);
+        for (int row : rows)
+            notes.add(this.table.getElement(row));
+        return notes;
+    }
+
+    /**
+     * traverse the subtree in order and collect the notes that overlap the query range
+     * @param left the first index of the subtree
+     * @param right the last index of the subtree
+     * @param from
+     * @param to
+     * @param includeTo true for stabbing queries (start <= to), false for range queries (start < to)
+     * @param result
+     */
+    private void collect(int left, int right, double from, double to, boolean includeTo, IntList result) {
+        if (left > right)
+            return;
+        int mid = (left + right) >>> 1;
+        if (this.maxEnds[mid] <= from)                                          // all notes in this subtree end before the range
+            return;
+        this.collect(left, mid - 1, from, to, includeTo, result);
+        if (includeTo ? (this.starts[mid] > to) : (this.starts[mid] >= to))     // this note and all in the right subtree start after the range
+            return;
+        if (this.ends[mid] > from)
+            result.add(this.rows[mid]);
+        this.collect(mid + 1, right, from, to, includeTo, result);
+    }
+
+    /**
+     * a minimal growable int array for the query results
+     */
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        private void add(int value) {
+            if (this.size == this.values.length)
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            this.values[this.size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+}
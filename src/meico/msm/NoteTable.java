@@ -0,0 +1,229 @@
+package meico.msm;
+
+import meico.mei.Helper;
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This is a columnar view of the note elements in the score of an MSM part.
+ * Consumers that process all notes of a part can work on primitive arrays instead of parsing the attribute strings of each note element.
+ * The columns are parsed from the XML lazily when they are first requested. Values that are changed via set() are written to the XML not before writeBack() is called.
+ * After the score has been edited by other means than this table, invalidate() has to be called.
+ * @author Axel Berndt.
+ */
+
+public class NoteTable {
+    public static final String DATE = "date";
+    public static final String DURATION = "duration";
+    public static final String PITCH = "midi.pitch";
+    public static final String VELOCITY = "velocity";
+    public static final String MILLISECONDS_DATE = "milliseconds.date";
+    public static final String MILLISECONDS_DATE_END = "milliseconds.date.end";
+
+    private final Element part;                                     // the MSM part
+    private Element[] notes = null;                                 // the note elements of the part's score in the order of the score
+    private int channel = -1;                                       // the part's midi.channel or -1 if it has none
+    private String[] ids = null;                                    // the xml:id column
+    private final HashMap<String, double[]> columns = new HashMap<>();  // the numeric columns that have been parsed so far, a missing attribute is represented by NaN
+    private final HashMap<String, BitSet> changes = new HashMap<>();    // the rows per column that have been changed and are not yet written to the XML
+
+    /**
+     * constructor
+     * @param part an MSM part element
+     */
+    public NoteTable(Element part) {
+        this.part = part;
+        this.invalidate();
+    }
+
+    /**
+     * create the tables of all parts of an MSM
+     * @param msm
+     * @return
+     */
+    public static ArrayList<NoteTable> createNoteTables(Msm msm) {
+        ArrayList<NoteTable> tables = new ArrayList<>();
+        for (Element part : msm.getParts())
+            tables.add(new NoteTable(part));
+        return tables;
+    }
+
+    /**
+     * drop all parsed columns and read the note elements again from the XML; values that have not yet been written back are lost
+     */
+    public synchronized void invalidate() {
+        this.columns.clear();
+        this.changes.clear();
+        this.ids = null;
+
+        Attribute channelAtt = (this.part == null) ? null : this.part.getAttribute("midi.channel");
+        this.channel = (channelAtt == null) ? -1 : Integer.parseInt(channelAtt.getValue());
+
+        Element dated = (this.part == null) ? null : this.part.getFirstChildElement("dated");
+        Element score = (dated == null) ? null : dated.getFirstChildElement("score");
+        ArrayList<Element> notes = new ArrayList<>();
+        if (score != null) {
+            for (int i = 0; i < score.getChildCount(); ++i) {
+                Node n = score.getChild(i);
+                if ((n instanceof Element) && ((Element) n).getLocalName().equals("note"))
+                    notes.add((Element) n);
+            }
+        }
+        this.notes = notes.toArray(new Element[0]);
+    }
+
+    /**
+     * @return the MSM part of this table
+     */
+    public Element getPart() {
+        return this.part;
+    }
+
+    /**
+     * @return the number of notes
+     */
+    public int size() {
+        return this.notes.length;
+    }
+
+    /**
+     * @param row
+     * @return the note element of the given row
+     */
+    public Element getElement(int row) {
+        return this.notes[row];
+    }
+
+    /**
+     * @return the part's midi.channel or -1 if it has none
+     */
+    public int getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * @return the channel column, all notes of a part play on the part's channel
+     */
+    public int[] getChannels() {
+        int[] channels = new int[this.notes.length];
+        Arrays.fill(channels, this.channel);
+        return channels;
+    }
+
+    /**
+     * @return the xml:id column, null entries for notes without xml:id
+     */
+    public synchronized String[] getIds() {
+        if (this.ids == null) {
+            this.ids = new String[this.notes.length];
+            for (int i = 0; i < this.notes.length; ++i) {
+                Attribute id = this.notes[i].getAttribute("id", "http://www.w3.org/XML/1998/namespace");
+                this.ids[i] = (id == null) ? null : id.getValue();
+            }
+        }
+        return this.ids;
+    }
+
+    /**
+     * get a numeric column; the returned array is the table's own column, changes should be made via set() so they can be written back
+     * @param attribute the name of the note attribute
+     * @return the column with NaN for missing attributes
+     */
+    public synchronized double[] getColumn(String attribute) {
+        double[] column = this.columns.get(attribute);
+        if (column == null) {
+            column = new double[this.notes.length];
+            for (int i = 0; i < this.notes.length; ++i) {
+                Attribute a = Helper.getAttribute(attribute, this.notes[i]);
+                column[i] = (a == null) ? Double.NaN : Double.parseDouble(a.getValue());
+            }
+            this.columns.put(attribute, column);
+        }
+        return column;
+    }
+
+    /**
+     * @return the date column
+     */
+    public double[] getDates() {
+        return this.getColumn(DATE);
+    }
+
+    /**
+     * @return the duration column
+     */
+    public double[] getDurations() {
+        return this.getColumn(DURATION);
+    }
+
+    /**
+     * @return the midi.pitch column
+     */
+    public double[] getPitches() {
+        return this.getColumn(PITCH);
+    }
+
+    /**
+     * @return the velocity column
+     */
+    public double[] getVelocities() {
+        return this.getColumn(VELOCITY);
+    }
+
+    /**
+     * @return the milliseconds.date column
+     */
+    public double[] getMillisecondsDates() {
+        return this.getColumn(MILLISECONDS_DATE);
+    }
+
+    /**
+     * @return the milliseconds.date.end column
+     */
+    public double[] getMillisecondsDatesEnd() {
+        return this.getColumn(MILLISECONDS_DATE_END);
+    }
+
+    /**
+     * set a value in a numeric column, it is written to the XML with the next writeBack()
+     * @param attribute
+     * @param row
+     * @param value
+     */
+    public synchronized void set(String attribute, int row, double value) {
+        this.getColumn(attribute)[row] = value;
+        this.changes.computeIfAbsent(attribute, k -> new BitSet(this.notes.length)).set(row);
+    }
+
+    /**
+     * @return true if there are changes that are not yet written to the XML
+     */
+    public synchronized boolean hasChanges() {
+        return !this.changes.isEmpty();
+    }
+
+    /**
+     * write all changed values to the note elements
+     */
+    public synchronized void writeBack() {
+        for (Map.Entry<String, BitSet> change : this.changes.entrySet()) {
+            double[] column = this.columns.get(change.getKey());
+            BitSet rows = change.getValue();
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                Attribute a = Helper.getAttribute(change.getKey(), this.notes[row]);
+                if (a != null)
+                    a.setValue(Double.toString(column[row]));
+                else
+                    this.notes[row].addAttribute(new Attribute(change.getKey(), Double.toString(column[row])));
+            }
+        }
+        this.changes.clear();
+    }
+}
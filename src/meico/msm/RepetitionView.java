@@ -0,0 +1,229 @@
+package meico.msm;
+
+import meico.mei.Helper;
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This is a read-only view of a map (e.g. the score or a GenericMap's xml) as it would be after the expansion by a sequencingMap.
+ * Instead of copying the repeated elements it maps each position of the expanded map to the source element, the date offset and the repetition index.
+ * The expanded map is materialized only on demand, see materialize().
+ * @author Axel Berndt.
+ */
+
+public class RepetitionView {
+    private final Element map;                              // the source map
+    private final Element[] sources;                        // the source elements in the order of the map
+    private final double[] dates;                           // the dates of the source elements, NaN if an element has no date
+    private int[] positions;                                // for each position of the view the index of the source element
+    private double[] offsets;                               // for each position of the view the date offset
+    private int[] repetitions;                              // for each position of the view how often the source element occurred before in the view
+    private int size = 0;                                   // the number of positions in the view
+
+    /**
+     * constructor
+     * @param map the map to be viewed
+     * @param segments the compiled sequencingMap (see SequencingSegment.compile()), null gives a view of the map as it is
+     */
+    public RepetitionView(Element map, ArrayList<SequencingSegment> segments) {
+        this(map, null, segments);
+    }
+
+    /**
+     * constructor
+     * @param map the map to be viewed
+     * @param name the view will contain only the elements with this local name, null for all elements
+     * @param segments the compiled sequencingMap (see SequencingSegment.compile()), null gives a view of the map as it is
+     */
+    public RepetitionView(Element map, String name, ArrayList<SequencingSegment> segments) {
+        this.map = map;
+
+        // read the map elements and their dates only once
+        ArrayList<Element> es = new ArrayList<>();
+        for (int i = 0; i < map.getChildCount(); ++i) {
+            Node n = map.getChild(i);
+            if ((n instanceof Element) && ((name == null) || ((Element) n).getLocalName().equals(name)))
+                es.add((Element) n);
+        }
+        this.sources = es.toArray(new Element[0]);
+        this.dates = new double[this.sources.length];
+        for (int i = 0; i < this.sources.length; ++i) {
+            Attribute date = this.sources[i].getAttribute("date");
+            this.dates[i] = (date == null) ? Double.NaN : Double.parseDouble(date.getValue());
+        }
+
+        if (segments == null) {                             // no sequencing, the view is the map as it is
+            this.size = this.sources.length;
+            this.positions = new int[this.size];
+            for (int i = 0; i < this.size; ++i)
+                this.positions[i] = i;
+            this.offsets = new double[this.size];
+            this.repetitions = new int[this.size];
+            return;
+        }
+
+        int capacity = Math.max(16, this.sources.length);
+        this.positions = new int[capacity];
+        this.offsets = new double[capacity];
+        this.repetitions = new int[capacity];
+
+        double[] datesMax = new double[this.sources.length];// the maximum date up to each index, it is monotonic and can be searched in binary fashion even if the map is not sorted
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < this.dates.length; ++i) {
+            if (this.dates[i] > max)
+                max = this.dates[i];
+            datesMax[i] = max;
+        }
+        int[] occurrences = new int[this.sources.length];   // how often each element has already been placed in the view
+
+        for (SequencingSegment segment : segments) {
+            // find the first element at or after the segment's start date
+            int first = 0;
+            int last = this.sources.length;
+            while (first < last) {
+                int mid = (first + last) >>> 1;
+                if (datesMax[mid] < segment.startDate)
+                    first = mid + 1;
+                else
+                    last = mid;
+            }
+
+            // add everything between the segment's start and end date to the view
+            for (int i = first; i < this.sources.length; ++i) {
+                if (Double.isNaN(this.dates[i]))            // elements without a date cannot be placed
+                    continue;
+                if (this.dates[i] >= segment.endDate)       // if the element's date is at or after the end of the segment don't go further
+                    break;
+                if (this.size == this.positions.length) {   // grow the arrays
+                    capacity = this.size * 2;
+                    this.positions = Arrays.copyOf(this.positions, capacity);
+                    this.offsets = Arrays.copyOf(this.offsets, capacity);
+                    this.repetitions = Arrays.copyOf(this.repetitions, capacity);
+                }
+                this.positions[this.size] = i;
+                this.offsets[this.size] = segment.dateOffset;
+                this.repetitions[this.size] = occurrences[i]++;
+                ++this.size;
+            }
+        }
+    }
+
+    /**
+     * @return the source map
+     */
+    public Element getMap() {
+        return this.map;
+    }
+
+    /**
+     * @return the number of elements in the view
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param i position in the view
+     * @return the source element at this position, do not alter it as it may occur at several positions
+     */
+    public Element getElement(int i) {
+        return this.sources[this.positions[i]];
+    }
+
+    /**
+     * @param i position in the view
+     * @return the index of the source element among the elements of the view's source map (and name)
+     */
+    public int getSourceIndex(int i) {
+        return this.positions[i];
+    }
+
+    /**
+     * @param i position in the view
+     * @return the date of the element in the expanded map, NaN if the source element has no date
+     */
+    public double getDate(int i) {
+        return this.dates[this.positions[i]] + this.offsets[i];
+    }
+
+    /**
+     * @param i position in the view
+     * @return the offset that is added to the source element's dates at this position
+     */
+    public double getDateOffset(int i) {
+        return this.offsets[i];
+    }
+
+    /**
+     * @param i position in the view
+     * @return 0 at the first occurrence of the source element, 1 at the first repetition etc.
+     */
+    public int getRepetition(int i) {
+        return this.repetitions[i];
+    }
+
+    /**
+     * @param i position in the view
+     * @return the xml:id of the element in the expanded map or null if the source element has none
+     */
+    public String getId(int i) {
+        Attribute id = this.getElement(i).getAttribute("id", "http://www.w3.org/XML/1998/namespace");
+        if (id == null)
+            return null;
+        return RepetitionView.deriveId(id.getValue(), this.repetitions[i]);
+    }
+
+    /**
+     * the xml:id of a repeated element
+     * @param baseId the xml:id of the source element
+     * @param repetition
+     * @return
+     */
+    public static String deriveId(String baseId, int repetition) {
+        return (repetition == 0) ? baseId : "meico_repetition_" + repetition + "_" + baseId;
+    }
+
+    /**
+     * create the expanded map with deep copies of the source elements
+     * @param repetitionIDs this hashmap will be filled with mappings of xml:id's that are extended to avoid double occurrences, the key is the id of the previous iteration
+     * @return a new map element (not added to the document)
+     */
+    public Element materialize(HashMap<String, String> repetitionIDs) {
+        Element newMap = Helper.cloneElement(this.map);                                             // make a flat copy of the map (no children so far) to fill it with the view's elements
+
+        for (int i = 0; i < this.size; ++i) {
+            Element e = this.getElement(i);
+            Element eCopy = e.copy();                                                               // make a deep copy of the element
+            double date = this.dates[this.positions[i]];
+            double dateOffset = this.offsets[i];
+            Attribute dateAtt = eCopy.getAttribute("date");
+            if (dateAtt != null)
+                dateAtt.setValue(Double.toString(date + dateOffset));                               // draw its date
+
+            Attribute endDate = e.getAttribute("date.end");                                         // get the date.end attribute
+            if ((endDate != null) && (dateAtt != null)) {                                           // if the element has one, update it, too
+                double dur = Double.parseDouble(endDate.getValue()) - date;
+                eCopy.getAttribute("date.end").setValue(Double.toString(date + dur + dateOffset));
+            }
+
+            int reps = this.repetitions[i];
+            if (reps > 0) {                                                                         // this is not the first time we process this element
+                Attribute id = eCopy.getAttribute("id", "http://www.w3.org/XML/1998/namespace");    // get the id of eCopy or null if it has none
+                if (id != null) {                                                                   // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
+                    String baseId = id.getValue();
+                    String newId = RepetitionView.deriveId(baseId, reps);
+                    id.setValue(newId);
+                    if (repetitionIDs != null)
+                        repetitionIDs.put(RepetitionView.deriveId(baseId, reps - 1), newId);       // add the old-to-new-ID mapping to the hashmap, the old ID is the one from the previous iteration
+                }
+            }
+            newMap.appendChild(eCopy);                                                              // append the copy to the new map
+        }
+        return newMap;
+    }
+}
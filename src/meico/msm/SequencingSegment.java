@@ -0,0 +1,69 @@
+package meico.msm;
+
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import java.util.ArrayList;
+
+/**
+ * This is a helper class for processing MSM sequencingMaps.
+ * A sequencingMap is compiled into the list of segments that are played one after the other, each segment is a date range of the original maps and the offset that is added to the dates of the elements in it.
+ * This is used in method Msm.applySequencingMapToMap().
+ * @author Axel Berndt.
+ */
+
+public class SequencingSegment {
+    public double startDate = 0.0;                              // the elements at or after this date are in the segment
+    public double endDate = Double.POSITIVE_INFINITY;           // the elements before this date are in the segment
+    public double dateOffset = 0.0;                             // this is added to the dates of the elements in the segment
+
+    /**
+     * constructor
+     * @param startDate
+     * @param endDate
+     * @param dateOffset
+     */
+    public SequencingSegment(double startDate, double endDate, double dateOffset) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.dateOffset = dateOffset;
+    }
+
+    /**
+     * compile the sequencingMap into the sequence of segments,
+     * this is done only once per sequencingMap; the result is independent of the maps it is applied to
+     * @param sequencingMap
+     * @return the list of segments or null if there are no gotos in the sequencingMap, i.e. nothing to expand
+     */
+    public static ArrayList<SequencingSegment> compile(Element sequencingMap) {
+        Elements gs = sequencingMap.getChildElements("goto");       // get the gotos
+        if (gs.size() == 0) return null;                            // if there are no gotos in the sequencingMap, i.e. nothing to expand, return null
+
+        // make an ArrayList of Goto instances
+        ArrayList<Goto> gotos = new ArrayList<>();                  // this is the list
+        for (int i = 0; i < gs.size(); ++i) {                       // fill the goto list, got through all gotos
+            try {
+                gotos.add(new Goto(gs.get(i)));                     // from the goto element create a Goto instance
+            } catch (Exception e) {                                 // if this fails
+                e.printStackTrace();                                // print the exception and continue with the next
+            }
+        }
+
+        // traverse the gotos as the playback would do
+        ArrayList<SequencingSegment> segments = new ArrayList<>();
+        double currentDate = 0.0;                                   // start at date 0.0
+        double dateOffset = 0.0;                                    // this sums up the offsets that come form from inserting repetitions
+        for (int i = 0; i < gotos.size(); ++i) {                    // find the next goto
+            Goto gt = gotos.get(i);                                 // get the next goto
+            if ((gt.date < currentDate) || !gt.isActive()) continue;// if the goto is before currentDate or it is not active continue with the next
+
+            segments.add(new SequencingSegment(currentDate, gt.date, dateOffset));  // everything between currentDate and the goto is played
+            dateOffset += gt.date - gt.targetDate;                  // draw the dateOffset
+            currentDate = gt.targetDate;                            // draw currentDate
+            i = -1;                                                 // start searching for the next goto
+        }
+        segments.add(new SequencingSegment(currentDate, Double.POSITIVE_INFINITY, dateOffset));  // after the last goto everything is played until the end
+
+        return segments;
+    }
+}
@@ -0,0 +1,219 @@
+package meico.pitches;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class writes and reads pitch features in a compact binary format. All values are little-endian.
+ * <pre>
+ * header (32 bytes):  "MPCH", int32 version, int32 frame count, int32 feature vector size, int32 octave modulo (0 or 1), int32 association count, int32 id count, int32 reserved
+ * key:                float64 reference frequency for each feature element
+ * energy matrix:      float32 for each frame and feature element (frame by frame)
+ * associations:       int32 first frame, int32 end frame (exclusive), int32 feature element, int32 id index; for each run of frames where a note id is associated with a feature element
+ * id table:           int32 byte length and the UTF-8 bytes of each note id
+ * </pre>
+ * Readers can memory-map the file and access the energy matrix directly.
+ * @author Axel Berndt.
+ */
+
+public class BinaryPitches {
+    private static final int MAGIC = 0x4843504D;    // "MPCH" in little-endian byte order
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final Key key;                          // the key of the pitch features
+    private final int frameCount;                   // the number of frames
+    private final FloatBuffer energies;             // the energy matrix
+    private final int[] associations;               // 4 int values per association
+    private final String[] ids;                     // the note ids
+
+    /**
+     * constructor, maps a binary pitches file into memory
+     * @param file
+     * @throws IOException if the file cannot be read or is not in the binary pitches format
+     */
+    public BinaryPitches(File file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());     // the mapping remains valid after the channel is closed
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((buffer.remaining() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC))
+            throw new IOException("Invalid binary pitches file " + file.getName() + ".");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported binary pitches version " + buffer.getInt(4) + " in file " + file.getName() + ".");
+
+        this.frameCount = buffer.getInt(8);
+        int size = buffer.getInt(12);
+        boolean octaveModulo = buffer.getInt(16) != 0;
+        int associationCount = buffer.getInt(20);
+        int idCount = buffer.getInt(24);
+
+        buffer.position(HEADER_SIZE);
+        double[] referenceFrequencies = new double[size];
+        buffer.asDoubleBuffer().get(referenceFrequencies);
+        this.key = new Key(referenceFrequencies, octaveModulo);
+
+        int matrixStart = HEADER_SIZE + (8 * size);
+        int matrixEnd = matrixStart + (4 * this.frameCount * size);
+        buffer.position(matrixStart);
+        buffer.limit(matrixEnd);
+        this.energies = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+        buffer.limit(buffer.capacity());
+        buffer.position(matrixEnd);
+        this.associations = new int[4 * associationCount];
+        buffer.asIntBuffer().get(this.associations);
+
+        buffer.position(matrixEnd + (16 * associationCount));
+        this.ids = new String[idCount];
+        for (int i = 0; i < idCount; ++i) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            this.ids[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return the key of the pitch features
+     */
+    public Key getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return the number of frames
+     */
+    public int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * @param frame
+     * @param element the index of the feature element
+     * @return the energy
+     */
+    public float getEnergy(int frame, int element) {
+        return this.energies.get((frame * this.key.getSize()) + element);
+    }
+
+    /**
+     * @return the energy matrix as it is in the file, frame by frame
+     */
+    public FloatBuffer getEnergies() {
+        return this.energies.duplicate();
+    }
+
+    /**
+     * collect the note ids that are associated with a feature element in a frame
+     * @param frame
+     * @param element the index of the feature element
+     * @return
+     */
+    public ArrayList<String> getNoteIds(int frame, int element) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int i = 0; i < this.associations.length; i += 4)
+            if ((this.associations[i + 2] == element) && (this.associations[i] <= frame) && (frame < this.associations[i + 1]))
+                result.add(this.ids[this.associations[i + 3]]);
+        return result;
+    }
+
+    /**
+     * write pitch features in the binary format
+     * @param pitches
+     * @param out
+     * @throws IOException
+     */
+    public static void write(Pitches pitches, OutputStream out) throws IOException {
+        Key key = pitches.getKey();
+        int size = key.getSize();
+        RunLengthFeatures runs = pitches.getRunLengthFeatures();
+        ArrayList<FeatureVector> features = (runs == null) ? pitches.getFeatures() : null;
+        int segmentCount = (runs == null) ? features.size() : runs.getSegmentCount();   // dense features are written as segments of one frame
+
+        // collect the note id associations, runs of frames with the same association are merged
+        HashMap<String, Integer> idIndices = new HashMap<>();
+        ArrayList<String> ids = new ArrayList<>();
+        int[] associations = new int[64];
+        int associationCount = 0;
+        HashMap<Long, Integer> open = new HashMap<>();                              // the associations of the previous segment
+        for (int s = 0; s < segmentCount; ++s) {
+            int start = (runs == null) ? s : runs.getSegmentStart(s);
+            int end = (runs == null) ? (s + 1) : runs.getSegmentEnd(s);
+            HashMap<Long, Integer> next = new HashMap<>();
+            for (int b = 0; b < size; ++b) {
+                Iterable<String> noteIds = (runs == null) ? features.get(s).getFeatureElement(b).getNoteIds() : Arrays.asList(runs.getNoteIds(s, b));
+                for (String id : noteIds) {
+                    Integer idIndex = idIndices.get(id);
+                    if (idIndex == null) {
+                        idIndex = ids.size();
+                        idIndices.put(id, idIndex);
+                        ids.add(id);
+                    }
+                    long association = ((long) b << 32) | idIndex;
+                    Integer a = open.get(association);
+                    if ((a != null) && (associations[(4 * a) + 1] == start)) {    // the association continues from the previous segment
+                        associations[(4 * a) + 1] = end;
+                    }
+                    else {
+                        if ((4 * associationCount) == associations.length)
+                            associations = Arrays.copyOf(associations, associations.length * 2);
+                        a = associationCount++;
+                        associations[4 * a] = start;
+                        associations[(4 * a) + 1] = end;
+                        associations[(4 * a) + 2] = b;
+                        associations[(4 * a) + 3] = idIndex;
+                    }
+                    next.put(association, a);
+                }
+            }
+            open = next;
+        }
+
+        // header and key
+        int frameCount = pitches.getFeatureCount();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE + (8 * size), 4 * size)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(frameCount).putInt(size).putInt(key.getOctaveModulo() ? 1 : 0).putInt(associationCount).putInt(ids.size()).putInt(0);
+        for (double f : key.getReferenceFrequencies())
+            buffer.putDouble(f);
+        out.write(buffer.array(), 0, buffer.position());
+
+        // energy matrix, the row of a segment is written once per frame
+        for (int s = 0; s < segmentCount; ++s) {
+            buffer.clear();
+            if (runs == null) {
+                for (int b = 0; b < size; ++b)
+                    buffer.putFloat((float) features.get(s).getFeatureElement(b).getEnergy());
+            }
+            else {
+                for (double energy : runs.getEnergies(s))
+                    buffer.putFloat((float) energy);
+            }
+            int frames = (runs == null) ? 1 : (runs.getSegmentEnd(s) - runs.getSegmentStart(s));
+            for (int f = 0; f < frames; ++f)
+                out.write(buffer.array(), 0, 4 * size);
+        }
+
+        // associations and ids
+        ByteBuffer associationBuffer = ByteBuffer.allocate(16 * associationCount).order(ByteOrder.LITTLE_ENDIAN);
+        associationBuffer.asIntBuffer().put(associations, 0, 4 * associationCount);
+        out.write(associationBuffer.array());
+
+        DataOutputStream dos = new DataOutputStream(out);
+        for (String id : ids) {
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(Integer.reverseBytes(bytes.length));
+            dos.write(bytes);
+        }
+        dos.flush();
+    }
+}
@@ -0,0 +1,105 @@
+package meico.pitches;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This writer does the layouting of compact json code (linebreaks and tab indentation) while it is written,
+ * the result is the same as that of Jsoner.prettyPrint() but the json code does not have to be in memory as a whole.
+ * @author Axel Berndt.
+ */
+
+class JsonPrettyPrintWriter extends FilterWriter {
+    private int indentation = 0;                    // the current indentation level
+    private boolean inString = false;               // true while the characters of a string are written
+    private boolean escaped = false;                // true if the previous character in a string was a backslash
+
+    /**
+     * constructor
+     * @param out the writer that receives the layouted json code
+     */
+    JsonPrettyPrintWriter(Writer out) {
+        super(out);
+    }
+
+    /**
+     * write a character
+     * @param c
+     * @throws IOException
+     */
+    @Override
+    public void write(int c) throws IOException {
+        if (this.inString) {                        // strings are written as they are
+            if (this.escaped)
+                this.escaped = false;
+            else if (c == '\\')
+                this.escaped = true;
+            else if (c == '"')
+                this.inString = false;
+            this.out.write(c);
+            return;
+        }
+
+        switch (c) {
+            case '"':
+                this.inString = true;
+                this.out.write(c);
+                break;
+            case '{':
+            case '[':
+                this.out.write(c);
+                ++this.indentation;
+                this.newLine();
+                break;
+            case '}':
+            case ']':
+                --this.indentation;
+                this.newLine();
+                this.out.write(c);
+                break;
+            case ',':
+                this.out.write(c);
+                this.newLine();
+                break;
+            default:
+                this.out.write(c);
+        }
+    }
+
+    /**
+     * write a portion of an array of characters
+     * @param cbuf
+     * @param off
+     * @param len
+     * @throws IOException
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; ++i)
+            this.write(cbuf[i]);
+    }
+
+    /**
+     * write a portion of a string
+     * @param str
+     * @param off
+     * @param len
+     * @throws IOException
+     */
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off; i < off + len; ++i)
+            this.write(str.charAt(i));
+    }
+
+    /**
+     * start a new line with the current indentation
+     * @throws IOException
+     */
+    private void newLine() throws IOException {
+        this.out.write('\n');
+        for (int i = 0; i < this.indentation; ++i)
+            this.out.write('\t');
+    }
+}
@@ -1,8 +1,6 @@
 package meico.pitches;
 
-import com.github.cliftonlabs.json_simple.JsonArray;
-import com.github.cliftonlabs.json_simple.JsonObject;
-import com.github.cliftonlabs.json_simple.Jsoner;
+import meico.mei.Helper;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -15,7 +13,8 @@ import java.util.ArrayList;
 
 public class Pitches {
     private File file = null;
-    private ArrayList<FeatureVector> features;      // the timeframe-wise list of pitch features
+    private ArrayList<FeatureVector> features;      // the timeframe-wise list of pitch features, it is created from runs on demand
+    private RunLengthFeatures runs = null;          // the sparse representation of the pitch features
     private meico.pitches.Key key;                  // the reference key for the pitch features
 
     /**
@@ -37,6 +36,17 @@ public class Pitches {
         this.features = new ArrayList<>();  // create an empty list of chroma features
     }
 
+    /**
+     * constructor
+     * creates a Pitches object from sparse pitch features, the dense list of feature vectors is created not before it is needed
+     * @param runs
+     */
+    public Pitches(RunLengthFeatures runs) {
+        this.key = runs.getKey();
+        this.features = null;
+        this.runs = runs;
+    }
+
     /**
      * this getter returns the file
      *
@@ -64,27 +74,44 @@ public class Pitches {
     }
 
     /**
-     * this getter returns the whole features ArrayList
+     * this getter returns the whole features ArrayList; if the features are in sparse form, the list is created now
      * @return
      */
     public ArrayList<FeatureVector> getFeatures() {
+        if (this.features == null) {
+            this.features = this.runs.toFeatureVectors();
+            this.runs = null;               // from now on the list holds the features, it may be altered by the application
+        }
         return this.features;
     }
 
+    /**
+     * this getter returns the sparse pitch features
+     * @return the sparse features or null if the features are in the dense form (see getFeatures())
+     */
+    public RunLengthFeatures getRunLengthFeatures() {
+        return this.runs;
+    }
+
     /**
      * a getter that returns the number of pitch features.
      * @return
      */
     public int getFeatureCount() {
+        if (this.runs != null)
+            return this.runs.getLength();
         return this.features.size();        // return the size of the features list
     }
 
     /**
-     * returns the pitch feature vector at the given index or null if index out of bounds
+     * returns the pitch feature vector at the given index or null if index out of bounds;
+     * if the features are in sparse form the vector is generated, changes to it do not affect this object (use getFeatures() instead)
      * @param index the index of the pitch feature should be in [0, features.getSize()-1], otherwise null is returned
      * @return
      */
     public FeatureVector getFeatureAt(int index) {
+        if (this.runs != null)
+            return this.runs.getFeatureAt(index);
         try {
             return this.features.get(index);        // try to access the index in the features list
         } catch (IndexOutOfBoundsException e) {     // if the index is not in the list
@@ -107,37 +134,56 @@ public class Pitches {
             return false;
         }
 
-        if (index >= this.features.size()) {                        // if the index is behind the last index
+        ArrayList<FeatureVector> features = this.getFeatures();    // the dense list is required here
+
+        if (index >= features.size()) {                             // if the index is behind the last index
             // add enough "all-zero features" to fill up the list until the desired index
-            for (int i = this.features.size(); i <= index; ++i) {
+            for (int i = features.size(); i <= index; ++i) {
                 FeatureVector filler = new FeatureVector(this.key); // create an "all-zero feature"
-                this.features.add(filler);
+                features.add(filler);
             }
         }
 
-        this.features.get(index).add(feature);                      // add the new feature to the feature vector in the list
+        features.get(index).add(feature);                      // add the new feature to the feature vector in the list
 
         return true;
     }
 
     /**
-     * converts this class instance into a JsonObject, including the key
-     * @return
+     * write the json code of this class instance, including the key, to the writer;
+     * the code is generated frame by frame, so there is no need to have it in memory as a whole
+     * @param writer
+     * @param prettyPrint set true for linebreaks and indentation
+     * @throws IOException
      */
-    private JsonObject toJson() {
-        JsonObject pitches = new JsonObject();      // the JSON instance of this class
-
-        pitches.put("key", this.key.toJson());      // add the key
-
-        // get all feature vectors into a JsonArray
-        JsonArray feats = new JsonArray();
-        for (FeatureVector fv : this.features) {
-            feats.add(fv.toJson());
+    public void writeJson(Writer writer, boolean prettyPrint) throws IOException {
+        Writer out = prettyPrint ? new JsonPrettyPrintWriter(writer) : writer;
+
+        out.write("{\"features\":[");
+        boolean first = true;
+        if (this.runs != null) {                    // sparse features, the json code of a segment is repeated for each of its frames
+            for (int s = 0; s < this.runs.getSegmentCount(); ++s) {
+                String fv = this.runs.toJson(s).toJson();
+                for (int frame = this.runs.getSegmentStart(s); frame < this.runs.getSegmentEnd(s); ++frame) {
+                    if (!first)
+                        out.write(',');
+                    out.write(fv);
+                    first = false;
+                }
+            }
         }
-
-        pitches.put("features", feats);
-
-        return pitches;
+        else {
+            for (FeatureVector fv : this.features) {
+                if (!first)
+                    out.write(',');
+                out.write(fv.toJson().toJson());
+                first = false;
+            }
+        }
+        out.write("],\"key\":");
+        out.write(this.key.toJson().toJson());      // add the key
+        out.write('}');
+        out.flush();
     }
 
     /**
@@ -188,12 +234,9 @@ public class Pitches {
             return false;
         }
 
-        String json = this.getAsString(prettyPrint);
-
         // write into the file
-        try (FileWriter fileWriter = new FileWriter(file)) {
-            fileWriter.write(json);
-            fileWriter.flush();
+        try (Writer fileWriter = new BufferedWriter(new FileWriter(file))) {
+            this.writeJson(fileWriter, prettyPrint);
         } catch (IOException e) {
             e.printStackTrace();
             return false;
@@ -205,16 +248,49 @@ public class Pitches {
         return true;
     }
 
+    /**
+     * write the pitch features to a binary file with default filename (extension .bin), see class BinaryPitches for the format
+     * @return true if success, false if an error occured
+     */
+    public boolean writePitchesBinary() {
+        if (this.file == null) {
+            System.err.println("Cannot write to the file system. Path and filename are not specified.");
+            return false;
+        }
+
+        return this.writePitchesBinary(Helper.getFilenameWithoutExtension(this.file.getPath()) + ".bin");
+    }
+
+    /**
+     * write the pitch features to a binary file, see class BinaryPitches for the format
+     * @param filename the filename string; it should include the path and the extension .bin
+     * @return true if success, false if an error occured
+     */
+    public boolean writePitchesBinary(String filename) {
+        File file = new File(filename);
+        file.getParentFile().mkdirs();                  // ensure that the directory exists
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            BinaryPitches.write(this, out);
+        } catch (IOException | SecurityException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
     /**
      * returns the json string
      * @param prettyPrint
      * @return
      */
     public String getAsString(boolean prettyPrint) {
-        String json = this.toJson().toJson();           // generate output String
-        if (prettyPrint)
-            json = Jsoner.prettyPrint(json);            // Jsoner does the layouting of the output String (linebreaks, indentation etc.)
-        return json;
+        StringWriter json = new StringWriter();
+        try {
+            this.writeJson(json, prettyPrint);          // generate output String
+        } catch (IOException e) {                       // a StringWriter does not throw this
+            e.printStackTrace();
+        }
+        return json.toString();
     }
 
     /**
@@ -0,0 +1,273 @@
+package meico.pitches;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonObject;
+
+import java.util.*;
+
+/**
+ * This class is a sparse representation of a sequence of pitch features.
+ * Instead of one feature vector per frame it stores the change points (the frames where the feature changes) and one feature per segment between two change points.
+ * The features are stored in primitive arrays and only their non-zero elements are stored. The note id arrays are shared between segments where they do not change.
+ * Feature vectors of single frames are generated on demand.
+ * @author Axel Berndt.
+ */
+
+public class RunLengthFeatures {
+    private static final String[] NO_IDS = new String[0];
+
+    private final Key key;                          // the reference key of the features
+    private int length = 0;                         // the number of frames
+    private int segmentCount = 0;                   // the number of segments
+    private int[] starts;                           // the first frame of each segment, the segment ends with the start of the next segment or the length
+    private int[] rowStarts;                        // for each segment the index of its first non-zero element in bins, energies and ids, the last entry is the number of non-zero elements
+    private int elementCount = 0;                   // the number of non-zero elements
+    private int[] bins;                             // the feature element index of each non-zero element
+    private double[] energies;                      // the energy of each non-zero element
+    private String[][] ids;                         // the note ids of each non-zero element, do not alter them as they are shared
+
+    /**
+     * constructor, computes the features of the given notes; each note adds the energy 1.0 to its feature element for each frame of its duration
+     * @param key the reference key
+     * @param starts the first frame of each note
+     * @param ends the frame after the last frame of each note
+     * @param bins the feature element index of each note
+     * @param noteIds the xml:id of each note or null
+     * @param noteCount the number of notes in the arrays; the note ids are listed in the features in the order of the notes
+     */
+    public RunLengthFeatures(Key key, int[] starts, int[] ends, int[] bins, String[] noteIds, int noteCount) {
+        this.key = key;
+
+        // find the notes that cover at least one frame, frames before 0 are not represented
+        int[] notes = new int[noteCount];
+        int n = 0;
+        for (int i = 0; i < noteCount; ++i) {
+            if (ends[i] <= Math.max(0, starts[i]))
+                continue;
+            notes[n++] = i;
+            if (ends[i] > this.length)
+                this.length = ends[i];
+        }
+
+        // the change points
+        int[] points = new int[2 * n + 1];
+        for (int i = 0; i < n; ++i) {
+            points[2 * i + 1] = Math.max(0, starts[notes[i]]);
+            points[2 * i + 2] = ends[notes[i]];
+        }
+        Arrays.sort(points);                                                                    // points[0] is 0
+        int pointCount = 0;
+        for (int p : points)
+            if ((p < this.length) && ((pointCount == 0) || (p != points[pointCount - 1])))
+                points[pointCount++] = p;
+
+        // the notes sorted by start and by end, the sort is stable, so notes with the same frame keep their order
+        Integer[] byStart = new Integer[n];
+        Integer[] byEnd = new Integer[n];
+        for (int i = 0; i < n; ++i) {
+            byStart[i] = notes[i];
+            byEnd[i] = notes[i];
+        }
+        Arrays.sort(byStart, Comparator.comparingInt(i -> Math.max(0, starts[i])));
+        Arrays.sort(byEnd, Comparator.comparingInt(i -> ends[i]));
+
+        this.starts = new int[pointCount + 1];
+        this.rowStarts = new int[pointCount + 1];
+        this.bins = new int[Math.max(16, 2 * n)];
+        this.energies = new double[this.bins.length];
+        this.ids = new String[this.bins.length][];
+
+        // sweep through the change points
+        ArrayList<TreeSet<Integer>> sounding = new ArrayList<>();                              // per feature element the notes that sound in the current segment, ordered by their index
+        for (int b = 0; b < key.getSize(); ++b)
+            sounding.add(new TreeSet<>());
+        String[][] currentIds = new String[key.getSize()][];
+        Arrays.fill(currentIds, NO_IDS);
+        boolean[] changed = new boolean[key.getSize()];
+        int nextStart = 0;
+        int nextEnd = 0;
+
+        for (int s = 0; s < pointCount; ++s) {
+            int frame = points[s];
+            for (; (nextEnd < n) && (ends[byEnd[nextEnd]] <= frame); ++nextEnd) {                           // the notes that end here
+                int note = byEnd[nextEnd];
+                sounding.get(bins[note]).remove(note);
+                changed[bins[note]] = true;
+            }
+            for (; (nextStart < n) && (Math.max(0, starts[byStart[nextStart]]) <= frame); ++nextStart) {    // the notes that start here
+                int note = byStart[nextStart];
+                sounding.get(bins[note]).add(note);
+                changed[bins[note]] = true;
+            }
+
+            this.starts[s] = frame;
+            this.rowStarts[s] = this.elementCount;
+            for (int b = 0; b < key.getSize(); ++b) {
+                TreeSet<Integer> notesInBin = sounding.get(b);
+                if (changed[b]) {                                                               // collect the note ids anew, otherwise the array of the previous segment is reused
+                    LinkedHashSet<String> idSet = new LinkedHashSet<>();
+                    for (int note : notesInBin)
+                        if (noteIds[note] != null)
+                            idSet.add(noteIds[note]);
+                    currentIds[b] = idSet.isEmpty() ? NO_IDS : idSet.toArray(new String[0]);
+                    changed[b] = false;
+                }
+                if (!notesInBin.isEmpty())
+                    this.append(b, notesInBin.size(), currentIds[b]);
+            }
+        }
+        this.segmentCount = pointCount;
+        this.starts[pointCount] = this.length;
+        this.rowStarts[pointCount] = this.elementCount;
+    }
+
+    /**
+     * add a non-zero element to the current segment
+     * @param bin
+     * @param energy
+     * @param noteIds
+     */
+    private void append(int bin, double energy, String[] noteIds) {
+        if (this.elementCount == this.bins.length) {
+            int capacity = this.elementCount * 2;
+            this.bins = Arrays.copyOf(this.bins, capacity);
+            this.energies = Arrays.copyOf(this.energies, capacity);
+            this.ids = Arrays.copyOf(this.ids, capacity);
+        }
+        this.bins[this.elementCount] = bin;
+        this.energies[this.elementCount] = energy;
+        this.ids[this.elementCount] = noteIds;
+        ++this.elementCount;
+    }
+
+    /**
+     * @return the reference key
+     */
+    public Key getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return the number of frames
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * @return the number of segments, i.e. runs of frames with the same feature
+     */
+    public int getSegmentCount() {
+        return this.segmentCount;
+    }
+
+    /**
+     * @param segment
+     * @return the first frame of the segment
+     */
+    public int getSegmentStart(int segment) {
+        return this.starts[segment];
+    }
+
+    /**
+     * @param segment
+     * @return the frame after the last frame of the segment
+     */
+    public int getSegmentEnd(int segment) {
+        return this.starts[segment + 1];
+    }
+
+    /**
+     * find the segment that contains the given frame
+     * @param frame
+     * @return the segment index or -1 if the frame is out of range
+     */
+    public int getSegmentIndex(int frame) {
+        if ((frame < 0) || (frame >= this.length))
+            return -1;
+        int i = Arrays.binarySearch(this.starts, 0, this.segmentCount, frame);
+        return (i >= 0) ? i : (-i - 2);
+    }
+
+    /**
+     * @param segment
+     * @return the energy vector of the segment
+     */
+    public double[] getEnergies(int segment) {
+        double[] energy = new double[this.key.getSize()];
+        for (int i = this.rowStarts[segment]; i < this.rowStarts[segment + 1]; ++i)
+            energy[this.bins[i]] = this.energies[i];
+        return energy;
+    }
+
+    /**
+     * @param segment
+     * @param bin the index of the feature element
+     * @return the note ids that contribute to the feature element in this segment, the array must not be altered
+     */
+    public String[] getNoteIds(int segment, int bin) {
+        for (int i = this.rowStarts[segment]; i < this.rowStarts[segment + 1]; ++i)
+            if (this.bins[i] == bin)
+                return this.ids[i];
+        return NO_IDS;
+    }
+
+    /**
+     * generate the feature vector of a frame
+     * @param frame
+     * @return the feature vector or null if the frame is out of range
+     */
+    public FeatureVector getFeatureAt(int frame) {
+        int segment = this.getSegmentIndex(frame);
+        if (segment < 0)
+            return null;
+
+        FeatureVector feature = new FeatureVector(this.key);
+        for (int i = this.rowStarts[segment]; i < this.rowStarts[segment + 1]; ++i) {
+            FeatureElement e = feature.getFeatureElement(this.bins[i]);
+            e.setEnergy(this.energies[i]);
+            for (String id : this.ids[i])
+                e.addNoteId(id);
+        }
+        return feature;
+    }
+
+    /**
+     * generate the dense list of feature vectors, one per frame
+     * @return
+     */
+    public ArrayList<FeatureVector> toFeatureVectors() {
+        ArrayList<FeatureVector> features = new ArrayList<>(this.length);
+        for (int s = 0; s < this.segmentCount; ++s)
+            for (int frame = this.getSegmentStart(s); frame < this.getSegmentEnd(s); ++frame)
+                features.add(this.getFeatureAt(frame));
+        return features;
+    }
+
+    /**
+     * convert the feature of a segment into a JsonObject, as FeatureVector.toJson() does
+     * @param segment
+     * @return
+     */
+    protected JsonObject toJson(int segment) {
+        double[] energy = this.getEnergies(segment);
+        String[][] noteIds = new String[energy.length][];
+        Arrays.fill(noteIds, NO_IDS);
+        for (int i = this.rowStarts[segment]; i < this.rowStarts[segment + 1]; ++i)
+            noteIds[this.bins[i]] = this.ids[i];
+
+        JsonArray energyVector = new JsonArray();
+        JsonArray idVector = new JsonArray();
+        for (int b = 0; b < energy.length; ++b) {
+            energyVector.add(energy[b]);
+            JsonArray ids = new JsonArray();
+            ids.addAll(Arrays.asList(noteIds[b]));
+            idVector.add(ids);
+        }
+
+        JsonObject json = new JsonObject();
+        json.put("nrg", energyVector);
+        json.put("ids", idVector);
+        return json;
+    }
+}
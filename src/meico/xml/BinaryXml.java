@@ -0,0 +1,573 @@
+package meico.xml;
+
+import nu.xom.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class writes and reads XOM documents in a compact binary form that is faster to load than XML code.
+ * All names and text values go into a table of interned strings, numeric attribute values are stored as numbers (only if the number reproduces the text exactly, so the round trip is lossless),
+ * and each element is prefixed with its length in bytes, so a reader can skip subtrees. Files are memory-mapped for reading, and individual children of the root element (e.g. the parts of an MSM or the performances of an MPM) can be loaded without decoding the rest.
+ * <pre>
+ * file:        int32 magic "MBXL", int32 version, int64 offset of the string table, varint number of document children, the document children, the string table
+ * element:     int8 1, int32 length of the rest of the element, name, namespace URI, varint number of namespace declarations, (prefix, URI) pairs, varint number of attributes, attributes, varint number of children, children
+ * attribute:   name, namespace URI, int8 0 and string | int8 1 and float64 | int8 2 and zigzag varint
+ * text:        int8 2, string
+ * comment:     int8 3, string
+ * processing instruction:  int8 4, target, value
+ * doctype:     int8 5, root element name, public ID, system ID, internal DTD subset
+ * string:      varint index into the string table + 1, 0 for null
+ * string table:varint number of strings, varint byte length and the UTF-8 bytes of each string
+ * </pre>
+ * Fixed size numbers are big-endian, varints have 7 bits per byte, least significant bits first.
+ * @author Axel Berndt.
+ */
+
+public class BinaryXml {
+    private static final int MAGIC = 0x4D42584C;                            // "MBXL"
+    private static final int VERSION = 1;
+    private static final byte ELEMENT = 1;
+    private static final byte TEXT = 2;
+    private static final byte COMMENT = 3;
+    private static final byte PROCESSING_INSTRUCTION = 4;
+    private static final byte DOCTYPE = 5;
+    private static final byte STRING_VALUE = 0;
+    private static final byte DOUBLE_VALUE = 1;
+    private static final byte INT_VALUE = 2;
+
+    private final ByteBuffer buffer;                                        // the file data
+    private final int[] stringOffsets;                                      // the position of each string in the buffer
+    private final String[] strings;                                         // the strings that have been decoded so far
+    private final int documentStart;                                        // the position of the number of document children
+
+    /**
+     * constructor, maps a binary xml file into memory; nothing is decoded so far
+     * @param file
+     * @throws IOException if the file cannot be read or is not in the binary xml format
+     */
+    public BinaryXml(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());   // the mapping remains valid after the channel is closed
+        }
+        if ((this.buffer.capacity() < 20) || (this.buffer.getInt(0) != MAGIC))
+            throw new IOException("Invalid binary xml file " + file.getName() + ".");
+        if (this.buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported binary xml version " + this.buffer.getInt(4) + " in file " + file.getName() + ".");
+
+        ByteBuffer table = this.buffer.duplicate();                         // the string table
+        table.position((int) this.buffer.getLong(8));
+        int count = BinaryXml.readVarInt(table);
+        this.stringOffsets = new int[count];
+        for (int i = 0; i < count; ++i) {
+            this.stringOffsets[i] = table.position();
+            int length = BinaryXml.readVarInt(table);
+            table.position(table.position() + length);
+        }
+        this.strings = new String[count];
+        this.documentStart = 16;
+    }
+
+    /**
+     * decode the whole document
+     * @return
+     */
+    public synchronized Document getDocument() {
+        ByteBuffer in = this.buffer.duplicate();
+        in.position(this.documentStart);
+        int count = BinaryXml.readVarInt(in);
+        ArrayList<Node> children = new ArrayList<>();
+        Element root = null;
+        for (int i = 0; i < count; ++i) {
+            Node n = this.readNode(in);
+            if ((root == null) && (n instanceof Element))
+                root = (Element) n;
+            children.add(n);
+        }
+
+        Document document = new Document(root);
+        int rootIndex = 0;
+        for (Node n : children) {                                           // the nodes before the root element go before it, the others after it
+            if (n == root) {
+                rootIndex = document.indexOf(root) + 1;
+                continue;
+            }
+            if (rootIndex == 0)
+                document.insertChild(n, document.indexOf(root));
+            else
+                document.appendChild(n);
+        }
+        return document;
+    }
+
+    /**
+     * decode the children of the root element that have the given local name, without decoding the other parts of the document
+     * @param localName
+     * @return the elements, they have no parent
+     */
+    public synchronized ArrayList<Element> getChildElements(String localName) {
+        return this.findChildElements(localName, null, null, false);
+    }
+
+    /**
+     * decode the first child of the root element that has the given local name and attribute value, without decoding the other parts of the document;
+     * e.g. getChildElement("performance", "name", "my performance") for an MPM
+     * @param localName
+     * @param attributeName the local name of the attribute
+     * @param attributeValue
+     * @return the element (it has no parent) or null
+     */
+    public synchronized Element getChildElement(String localName, String attributeName, String attributeValue) {
+        ArrayList<Element> es = this.findChildElements(localName, attributeName, attributeValue, true);
+        return es.isEmpty() ? null : es.get(0);
+    }
+
+    /**
+     * the implementation of getChildElements() and getChildElement()
+     * @param localName
+     * @param attributeName null for any
+     * @param attributeValue
+     * @param firstOnly
+     * @return
+     */
+    private ArrayList<Element> findChildElements(String localName, String attributeName, String attributeValue, boolean firstOnly) {
+        ArrayList<Element> result = new ArrayList<>();
+        ByteBuffer in = this.buffer.duplicate();
+        in.position(this.documentStart);
+
+        // find the root element
+        int count = BinaryXml.readVarInt(in);
+        boolean found = false;
+        for (int i = 0; (i < count) && !found; ++i) {
+            if (in.get(in.position()) == ELEMENT)
+                found = true;
+            else
+                this.skipNode(in);
+        }
+        if (!found)
+            return result;
+
+        // go to the children of the root element
+        in.get();
+        in.getInt();
+        this.skipElementHeader(in, null);
+        count = BinaryXml.readVarInt(in);
+
+        for (int i = 0; i < count; ++i) {
+            int start = in.position();
+            if (in.get(start) != ELEMENT) {
+                this.skipNode(in);
+                continue;
+            }
+            ByteBuffer header = in.duplicate();
+            header.position(start + 5);                                     // behind tag and length
+            if (!BinaryXml.getLocalName(this.readString(header)).equals(localName) || ((attributeName != null) && !attributeValue.equals(this.skipElementHeader(header, attributeName)))) {
+                this.skipNode(in);
+                continue;
+            }
+            in.position(start);
+            result.add((Element) this.readNode(in));
+            if (firstOnly)
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * skip a node
+     * @param in
+     */
+    private void skipNode(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+            case ELEMENT:
+                int length = in.getInt();
+                in.position(in.position() + length);
+                break;
+            case TEXT:
+            case COMMENT:
+                BinaryXml.readVarInt(in);
+                break;
+            case PROCESSING_INSTRUCTION:
+                for (int i = 0; i < 2; ++i)
+                    BinaryXml.readVarInt(in);
+                break;
+            case DOCTYPE:
+                for (int i = 0; i < 4; ++i)
+                    BinaryXml.readVarInt(in);
+                break;
+            default:
+                throw new IllegalStateException("Invalid node type " + type + " in binary xml data.");
+        }
+    }
+
+    /**
+     * skip name, namespace, namespace declarations and attributes of an element; on the way, the value of an attribute can be looked up
+     * @param in positioned behind the length of the element or, if attributeName != null, behind the name
+     * @param attributeName the local name of an attribute or null
+     * @return the value of the attribute or null
+     */
+    private String skipElementHeader(ByteBuffer in, String attributeName) {
+        if (attributeName == null)
+            BinaryXml.readVarInt(in);                                       // the name
+        BinaryXml.readVarInt(in);                                           // the namespace URI
+        int declarations = BinaryXml.readVarInt(in);
+        for (int i = 0; i < 2 * declarations; ++i)
+            BinaryXml.readVarInt(in);
+        int attributes = BinaryXml.readVarInt(in);
+        String result = null;
+        for (int i = 0; i < attributes; ++i) {
+            int name = BinaryXml.readVarInt(in);
+            BinaryXml.readVarInt(in);
+            if ((attributeName != null) && (result == null) && BinaryXml.getLocalName(this.getString(name - 1)).equals(attributeName))
+                result = this.readValue(in);
+            else
+                this.skipValue(in);
+        }
+        return result;
+    }
+
+    /**
+     * decode a node
+     * @param in
+     * @return
+     */
+    private Node readNode(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+            case ELEMENT: {
+                in.getInt();                                                // the length is not needed here
+                String name = this.readString(in);
+                String namespace = this.readString(in);
+                Element e = new Element(name, namespace);
+
+                int declarations = BinaryXml.readVarInt(in);
+                for (int i = 0; i < declarations; ++i) {
+                    String prefix = this.readString(in);
+                    String uri = this.readString(in);
+                    try {
+                        e.addNamespaceDeclaration(prefix, uri);
+                    } catch (NamespaceConflictException ignored) {          // the declaration is implied by the element's or an attribute's namespace
+                    }
+                }
+
+                int attributes = BinaryXml.readVarInt(in);
+                for (int i = 0; i < attributes; ++i) {
+                    String attName = this.readString(in);
+                    String attNamespace = this.readString(in);
+                    e.addAttribute(new Attribute(attName, attNamespace, this.readValue(in)));
+                }
+
+                int children = BinaryXml.readVarInt(in);
+                for (int i = 0; i < children; ++i)
+                    e.appendChild(this.readNode(in));
+                return e;
+            }
+            case TEXT:
+                return new Text(this.readString(in));
+            case COMMENT:
+                return new Comment(this.readString(in));
+            case PROCESSING_INSTRUCTION:
+                return new ProcessingInstruction(this.readString(in), this.readString(in));
+            case DOCTYPE: {
+                String rootName = this.readString(in);
+                String publicId = this.readString(in);
+                String systemId = this.readString(in);
+                String subset = this.readString(in);
+                DocType docType = new DocType(rootName, publicId, systemId);
+                if (subset != null)
+                    docType.setInternalDTDSubset(subset);
+                return docType;
+            }
+            default:
+                throw new IllegalStateException("Invalid node type " + type + " in binary xml data.");
+        }
+    }
+
+    /**
+     * decode an attribute value
+     * @param in
+     * @return
+     */
+    private String readValue(ByteBuffer in) {
+        byte kind = in.get();
+        switch (kind) {
+            case DOUBLE_VALUE:
+                return Double.toString(in.getDouble());
+            case INT_VALUE:
+                int v = BinaryXml.readVarInt(in);
+                return Integer.toString((v >>> 1) ^ -(v & 1));
+            default:
+                return this.readString(in);
+        }
+    }
+
+    /**
+     * skip an attribute value
+     * @param in
+     */
+    private void skipValue(ByteBuffer in) {
+        if (in.get() == DOUBLE_VALUE)
+            in.position(in.position() + 8);
+        else
+            BinaryXml.readVarInt(in);
+    }
+
+    /**
+     * read a string index and get the string
+     * @param in
+     * @return
+     */
+    private String readString(ByteBuffer in) {
+        return this.getString(BinaryXml.readVarInt(in) - 1);
+    }
+
+    /**
+     * read a varint
+     * @param in
+     * @return
+     */
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * get a string from the string table, it is decoded on first access
+     * @param index
+     * @return
+     */
+    private String getString(int index) {
+        if (index < 0)
+            return null;
+        String s = this.strings[index];
+        if (s == null) {
+            ByteBuffer b = this.buffer.duplicate();
+            b.position(this.stringOffsets[index]);
+            byte[] bytes = new byte[BinaryXml.readVarInt(b)];
+            b.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            this.strings[index] = s;
+        }
+        return s;
+    }
+
+    /**
+     * @param qualifiedName
+     * @return the name without prefix
+     */
+    private static String getLocalName(String qualifiedName) {
+        return qualifiedName.substring(qualifiedName.indexOf(':') + 1);
+    }
+
+    /**
+     * write a document in binary form to a file; the data are written to a temporary file first that replaces the file only if writing succeeded,
+     * so readers that have memory-mapped the old file keep their data
+     * @param document
+     * @param file
+     * @throws IOException
+     */
+    public static void write(Document document, File file) throws IOException {
+        File temp = File.createTempFile(file.getName() + "_", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                BinaryXml.write(document, out);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());                            // if writing failed
+        }
+    }
+
+    /**
+     * write a document in binary form
+     * @param document
+     * @param out
+     * @throws IOException
+     */
+    public static void write(Document document, OutputStream out) throws IOException {
+        Encoder encoder = new Encoder();
+        encoder.writeInt(MAGIC);
+        encoder.writeInt(VERSION);
+        encoder.writeLong(0);                                               // the offset of the string table is filled in later
+        encoder.writeVarInt(document.getChildCount());
+        for (int i = 0; i < document.getChildCount(); ++i)
+            encoder.writeNode(document.getChild(i));
+
+        long tableOffset = encoder.size;
+        encoder.writeStringTable();
+        for (int i = 0; i < 8; ++i)
+            encoder.data[8 + i] = (byte) (tableOffset >>> (56 - (8 * i)));
+        out.write(encoder.data, 0, encoder.size);
+        out.flush();
+    }
+
+    /**
+     * this collects the binary data and the string table while the document is traversed
+     */
+    private static class Encoder {
+        private byte[] data = new byte[1 << 16];
+        private int size = 0;
+        private final HashMap<String, Integer> stringIndices = new HashMap<>();
+        private final ArrayList<String> strings = new ArrayList<>();
+
+        private void ensureCapacity(int bytes) {
+            if (this.size + bytes > this.data.length)
+                this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.size + bytes));
+        }
+
+        private void writeByte(int b) {
+            this.ensureCapacity(1);
+            this.data[this.size++] = (byte) b;
+        }
+
+        private void writeInt(int v) {
+            this.ensureCapacity(4);
+            this.data[this.size++] = (byte) (v >>> 24);
+            this.data[this.size++] = (byte) (v >>> 16);
+            this.data[this.size++] = (byte) (v >>> 8);
+            this.data[this.size++] = (byte) v;
+        }
+
+        private void writeLong(long v) {
+            this.writeInt((int) (v >>> 32));
+            this.writeInt((int) v);
+        }
+
+        private void writeVarInt(int v) {
+            this.ensureCapacity(5);
+            while ((v & ~0x7F) != 0) {
+                this.data[this.size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            this.data[this.size++] = (byte) v;
+        }
+
+        private void writeString(String s) {
+            if (s == null) {
+                this.writeVarInt(0);
+                return;
+            }
+            Integer index = this.stringIndices.get(s);
+            if (index == null) {
+                index = this.strings.size();
+                this.stringIndices.put(s, index);
+                this.strings.add(s);
+            }
+            this.writeVarInt(index + 1);
+        }
+
+        private void writeValue(String value) {
+            if (!value.isEmpty() && (value.length() <= 24) && (Character.isDigit(value.charAt(value.length() - 1)) || value.endsWith("y") || value.endsWith("N"))) {  // a cheap test before trying to parse a number
+                try {
+                    int i = Integer.parseInt(value);
+                    if (Integer.toString(i).equals(value)) {                // only if it is lossless
+                        this.writeByte(INT_VALUE);
+                        this.writeVarInt((i << 1) ^ (i >> 31));         // zigzag encoding, small negative numbers take few bytes
+                        return;
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+                try {
+                    double d = Double.parseDouble(value);
+                    if (Double.toString(d).equals(value)) {                 // only if it is lossless
+                        this.writeByte(DOUBLE_VALUE);
+                        this.writeLong(Double.doubleToRawLongBits(d));
+                        return;
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            this.writeByte(STRING_VALUE);
+            this.writeString(value);
+        }
+
+        private void writeNode(Node node) {
+            if (node instanceof Element) {
+                Element e = (Element) node;
+                this.writeByte(ELEMENT);
+                int lengthPosition = this.size;
+                this.writeInt(0);                                           // the length is filled in later
+
+                this.writeString(e.getQualifiedName());
+                this.writeString(e.getNamespaceURI());
+
+                int declarations = e.getNamespaceDeclarationCount();
+                this.writeVarInt(declarations);
+                for (int i = 0; i < declarations; ++i) {
+                    String prefix = e.getNamespacePrefix(i);
+                    this.writeString(prefix);
+                    this.writeString(e.getNamespaceURI(prefix));
+                }
+
+                this.writeVarInt(e.getAttributeCount());
+                for (int i = 0; i < e.getAttributeCount(); ++i) {
+                    Attribute a = e.getAttribute(i);
+                    this.writeString(a.getQualifiedName());
+                    this.writeString(a.getNamespaceURI());
+                    this.writeValue(a.getValue());
+                }
+
+                this.writeVarInt(e.getChildCount());
+                for (int i = 0; i < e.getChildCount(); ++i)
+                    this.writeNode(e.getChild(i));
+
+                int length = this.size - lengthPosition - 4;
+                this.data[lengthPosition] = (byte) (length >>> 24);
+                this.data[lengthPosition + 1] = (byte) (length >>> 16);
+                this.data[lengthPosition + 2] = (byte) (length >>> 8);
+                this.data[lengthPosition + 3] = (byte) length;
+            }
+            else if (node instanceof Text) {
+                this.writeByte(TEXT);
+                this.writeString(node.getValue());
+            }
+            else if (node instanceof Comment) {
+                this.writeByte(COMMENT);
+                this.writeString(node.getValue());
+            }
+            else if (node instanceof ProcessingInstruction) {
+                this.writeByte(PROCESSING_INSTRUCTION);
+                this.writeString(((ProcessingInstruction) node).getTarget());
+                this.writeString(node.getValue());
+            }
+            else if (node instanceof DocType) {
+                DocType d = (DocType) node;
+                this.writeByte(DOCTYPE);
+                this.writeString(d.getRootElementName());
+                this.writeString(d.getPublicID());
+                this.writeString(d.getSystemID());
+                this.writeString(d.getInternalDTDSubset().isEmpty() ? null : d.getInternalDTDSubset());
+            }
+        }
+
+        private void writeStringTable() {
+            this.writeVarInt(this.strings.size());
+            for (String s : this.strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                this.writeVarInt(bytes.length);
+                this.ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, this.data, this.size, bytes.length);
+                this.size += bytes.length;
+            }
+        }
+    }
+}
@@ -306,6 +306,30 @@ public class XmlBase {
         return returnValue;
     }
 
+    /**
+     * writes the document in the binary form of class BinaryXml, this is much faster to read than the xml code and allows loading individual subtrees
+     *
+     * @param filename the filename string; it should include the path and the extension
+     * @return true if success, false if an error occured
+     */
+    public synchronized boolean writeBinaryFile(String filename) {
+        if (this.isEmpty()) {
+            System.err.println("Empty document, cannot write file.");
+            return false;
+        }
+
+        File file = new File(filename);
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();                          // ensure that the directory exists
+        try {
+            BinaryXml.write(this.data, file);
+        } catch (IOException | SecurityException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
     /**
      * if the constructor was unable to load the file, the data is empty and no further operations
      * @return true if the data document is empty, else false